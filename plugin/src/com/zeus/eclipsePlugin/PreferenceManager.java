@@ -125,6 +125,17 @@ public class PreferenceManager extends AbstractPreferenceInitializer
             break;
          }
          
+         case COST_ENABLE: case COST_REPEAT: case COST_LIMIT: {
+            if( !ZXTMPlugin.isEclipseLoaded() ) break;
+            
+            for( TrafficScriptEditor editor : TrafficScriptEditor.getAllEditors() ) {
+               editor.recheck();
+            }
+            MarkerManager.scheduleCostUpdate();
+            
+            break;
+         }
+         
          case ASSIST_FUNC: case ASSIST_GROUP: case ASSIST_KEYWORDS: {
             TrafficScriptAssistantProcessor.updateTypes();
             break;
@@ -22,6 +22,12 @@ import com.zeus.eclipsePlugin.consts.Ids;
 
 /**
  * Functions for debugging the system.
+ * 
+ * Frequently called code should use a Logger from getLogger(), which works 
+ * out once whether its class is being debugged rather than looking at the 
+ * stack for every message, and has methods that don't need an array or boxed
+ * numbers. When debugging is off, or no file is debugged at a level, calls at
+ * that level return straight away.
  */
 public class ZDebug
 {      
@@ -29,21 +35,30 @@ public class ZDebug
    private static HashMap<String,Integer> filesTable = new HashMap<String,Integer>();   
    private static PrintStream debugStream = System.out;
    
+   /** The highest level any file is debugged at, or -1 if none are. */
+   private static volatile int maxLevel = -1;
+   
+   /** Incremented whenever the debug settings change, so loggers know to 
+    *  look up their level again. */
+   private static volatile int settingsChanges = 0;
+   
    /**
     * Enable or disable debugging for the entire plug-in. 
     * @param value If true debugging is enabled.
     */
-   public static void setDebug( boolean value ) 
+   public static synchronized void setDebug( boolean value ) 
    {
       debug = value;
+      settingsChanged();
    }
    
    /**
     * Clear the internal table of class files.
     */
-   public static void resetFiles()
+   public static synchronized void resetFiles()
    {
       filesTable.clear();
+      settingsChanged();
    }
    
    /**
@@ -51,9 +66,68 @@ public class ZDebug
     * @param file The file name or class
     * @param level The detail level to debug the file.
     */
-   public static void addFile( String file, int level  ) 
+   public static synchronized void addFile( String file, int level  ) 
    {
       filesTable.put( file, level );
+      settingsChanged();
+   }
+   
+   /**
+    * Work out the highest level being debugged, and tell the loggers that 
+    * the settings have changed.
+    */
+   private static void settingsChanged()
+   {
+      int max = -1;
+      if( debug ) {
+         for( Integer level : filesTable.values() ) {
+            max = Math.max( max, level );
+         }
+      }
+      
+      maxLevel = max;
+      settingsChanges++;
+   }
+   
+   /**
+    * Could anything be printed at a level? This is a quick check, if it 
+    * returns true the file may still not be debugged at this level.
+    * @param level The debugging level.
+    * @return False if nothing is being debugged at this level.
+    */
+   public static boolean isEnabled( int level )
+   {
+      return level <= maxLevel;
+   }
+   
+   /**
+    * Get the debugging level of a file or class.
+    * @param fileName The file name, e.g. ZDebug.java
+    * @param className The class name without its package, e.g. ZDebug
+    * @return The highest level either is debugged at, or -1 if neither is.
+    */
+   private static synchronized int getLevel( String fileName, String className )
+   {
+      if( !debug ) return -1;
+      
+      int level = -1;
+      Integer fileLevel = filesTable.get( fileName );
+      if( fileLevel != null ) level = fileLevel;
+      
+      Integer classLevel = filesTable.get( className );
+      if( classLevel != null ) level = Math.max( level, classLevel );
+      
+      return level;
+   }
+   
+   /**
+    * Get a logger for a class. Keep it in a static field of the class.
+    * @param c The class that will print messages.
+    * @return A logger that prints messages for the class.
+    */
+   public static Logger getLogger( Class<?> c )
+   {
+      return new Logger( c );
    }
    
    /**
@@ -89,20 +163,11 @@ public class ZDebug
       String[] classbits = element.getClassName().split( "\\." );
       String className = classbits[classbits.length - 1];
       
-      String location = element.getFileName() + ":" + element.getLineNumber();
-      //System.out.println( location );
-      
-      Integer fileLevel = filesTable.get( element.getFileName() );
-      if( fileLevel != null && fileLevel >= level ) {
-         return location;      
-      } 
-      
-      Integer classLevel = filesTable.get( className );
-      if( classLevel != null && classLevel >= level ) {
-         return location;      
-      } 
+      if( getLevel( element.getFileName(), className ) < level ) {
+         return null;
+      }
       
-      return null;
+      return element.getFileName() + ":" + element.getLineNumber();
    }
    
    /**
@@ -114,7 +179,7 @@ public class ZDebug
     */
    public static void print( int level, Object ... toPrint )
    {
-      if( !debug || filesTable.isEmpty() ) return;
+      if( level > maxLevel ) return;
       print( level, toPrint, 5 );
    }
       
@@ -126,15 +191,29 @@ public class ZDebug
       String location = check( level, back );
       if( location == null ) return;
       
+      StringBuffer message = new StringBuffer( 200 );
+      for( Object obj : toPrint ) {
+         message.append( obj );
+      }
+      
+      output( level, message, location );
+   }
+   
+   /**
+    * Print a message to Eclipse's log and stdout.
+    * @param level The debugging level of the message.
+    * @param message The message.
+    * @param location Where the message came from.
+    */
+   private static void output( int level, CharSequence message, String location )
+   {
       // Print to Eclipse's log
       try {
          if( ZXTMPlugin.getDefault() != null ) {
             StringBuffer buffer = new StringBuffer( 200 );
             buffer.append( "ZDBG:" );
             for( int i = 0; i <= level; i++ ) buffer.append( ' ' );
-            for( Object obj : toPrint ) {
-               buffer.append( obj );
-            }
+            buffer.append( message );
             buffer.append( "    (" + location + ")"  );
             
             ZXTMPlugin.getDefault().getLog().log( new Status(
@@ -148,10 +227,7 @@ public class ZDebug
          debugStream.print( " " );
       }
       
-      for( Object obj : toPrint ) {
-         debugStream.print( obj );
-      }
-      
+      debugStream.print( message );
       debugStream.println( "    (" + location + ")" );
    }
    
@@ -247,4 +323,138 @@ public class ZDebug
       printStackTrace( Thread.currentThread().getStackTrace(), 2 );     
    }
          
+   /**
+    * A message that is only built if it is going to be printed. 
+    */
+   public interface Message
+   {
+      /**
+       * Build the message.
+       * @return The text to print.
+       */
+      public String get();
+   }
+   
+   /**
+    * Prints debugging messages for a class. The class's debug level is looked
+    * up when it is first needed and again only when the debug settings 
+    * change, and messages show the class they came from instead of the line.
+    */
+   public static class Logger
+   {
+      private String fileName;
+      private String className;
+      
+      private int level = -1;
+      private int checkedChanges = -1;
+      
+      /**
+       * Create a logger, use ZDebug.getLogger().
+       */
+      private Logger( Class<?> c )
+      {
+         String name = c.getName();
+         className = name.substring( name.lastIndexOf( '.' ) + 1 );
+         
+         // The file is named after the outermost class
+         int inner = className.indexOf( '$' );
+         fileName = ( inner < 0 ? className : className.substring( 0, inner ) ) + ".java";
+      }
+      
+      /**
+       * Will messages at a level be printed? Use this to avoid working out 
+       * messages that won't be printed.
+       * @param level The debugging level.
+       * @return True if messages at this level will be printed.
+       */
+      public boolean isEnabled( int level )
+      {
+         if( level > maxLevel ) return false;
+         
+         int changes = settingsChanges;
+         if( checkedChanges != changes ) {
+            this.level = getLevel( fileName, className );
+            checkedChanges = changes;
+         }
+         
+         return level <= this.level;
+      }
+      
+      /**
+       * Print a message if the class is debugged at this level.
+       * @param level The debugging level.
+       * @param message The message.
+       */
+      public void print( int level, String message )
+      {
+         if( !isEnabled( level ) ) return;
+         output( level, message, className );
+      }
+      
+      /**
+       * Print a message followed by a value.
+       * @param level The debugging level.
+       * @param message The message.
+       * @param value The value to print after it.
+       */
+      public void print( int level, String message, Object value )
+      {
+         if( !isEnabled( level ) ) return;
+         output( level, message + value, className );
+      }
+      
+      /**
+       * Print a message followed by a number.
+       * @param level The debugging level.
+       * @param message The message.
+       * @param value The number to print after it.
+       */
+      public void print( int level, String message, int value )
+      {
+         if( !isEnabled( level ) ) return;
+         output( level, message + value, className );
+      }
+      
+      /**
+       * Print a message followed by a character.
+       * @param level The debugging level.
+       * @param message The message.
+       * @param value The character to print after it.
+       */
+      public void print( int level, String message, char value )
+      {
+         if( !isEnabled( level ) ) return;
+         output( level, message + value, className );
+      }
+      
+      /**
+       * Print a message that is only built if it will be printed.
+       * @param level The debugging level.
+       * @param message The message.
+       */
+      public void print( int level, Message message )
+      {
+         if( !isEnabled( level ) ) return;
+         output( level, message.get(), className );
+      }
+      
+      /**
+       * Print several objects in sequence. Calls to this have to create an
+       * array, so only use it where the level is checked first or the code
+       * isn't called often.
+       * @param level The debugging level.
+       * @param toPrint The objects to print.
+       */
+      public void print( int level, Object ... toPrint )
+      {
+         if( !isEnabled( level ) ) return;
+         
+         StringBuffer message = new StringBuffer( 200 );
+         for( Object obj : toPrint ) {
+            message.append( obj );
+         }
+         output( level, message, className );
+      }
+   }
+         
 }
@@ -179,6 +179,7 @@ public class ZLang extends NLS
    public static String ZL_IncorrectPasswordTitle;
    public static String ZL_Italic;
    public static String ZL_MainPluginDebugging;
+   public static String ZL_MainSOAPBatchDescription;
    public static String ZL_MainSOAPIntervalDescription;
    public static String ZL_MainSOAPSettings;
    public static String ZL_MakeItAGeneralProject;
@@ -222,6 +223,7 @@ public class ZLang extends NLS
    public static String ZL_PREF_editor_hover_problems;
    public static String ZL_PREF_editor_hover_tasks;
    public static String ZL_PREF_editor_task_tags;
+   public static String ZL_PREF_soap_batchSize;
    public static String ZL_PREF_soap_rate;
    public static String ZL_PreviewLabel;
    public static String ZL_PriorityHigh;
@@ -244,7 +246,6 @@ public class ZLang extends NLS
    public static String ZL_SOAPPasswordIncorrectReenter;
    public static String ZL_SOAPResponseContainedMalformedBytes;
    public static String ZL_SOAPRuleAddSucceededButDoesNotExist;
-   public static String ZL_SOAPRuleDeleteSuccessButNotDeleted;
    public static String ZL_SOAPRuleDoesNotExist;
    public static String ZL_SOAPRuleDoesNotExistOnZXTM;
    public static String ZL_SOAPSSLConnectionFailed;
@@ -310,6 +311,37 @@ public class ZLang extends NLS
    public static String ZL_CreatingFolderLink;
    public static String ZL_ErrorWhilstChangingPasswordTitle;
    public static String ZL_ErrorWhilstChangingPasswordMessage;
+   public static String ZL_CheckUnterminatedString;
+   public static String ZL_CheckUnmatchedBracket;
+   public static String ZL_CheckUnclosedBracket;
+   public static String ZL_CheckUnknownFunction;
+   public static String ZL_CheckTooFewArguments;
+   public static String ZL_CheckTooManyArguments;
+   public static String ZL_CheckingTrafficScript;
+   public static String ZL_RefreshingZXTMProjects;
+   public static String ZL_ModelBadRESTResponse;
+   public static String ZL_PREF_soap_statsRate;
+   public static String ZL_MainStatsDescription;
+   public static String ZL_ViewerRuleRate;
+   public static String ZL_ViewerRuleRateAborts;
+   public static String ZL_EditorRuleLoad;
+   public static String ZL_UpdatingRuleStatistics;
+   public static String ZL_EditorRuleUnused;
+   public static String ZL_EditorRuleUsedOnce;
+   public static String ZL_EditorRuleUsed;
+   public static String ZL_PREF_editor_cost_enable;
+   public static String ZL_PREF_editor_cost_repeat;
+   public static String ZL_PREF_editor_cost_limit;
+   public static String ZL_AssistCostWarnings;
+   public static String ZL_AssistCostDescription;
+   public static String ZL_CostUnboundedBody;
+   public static String ZL_CostRegexInLoop;
+   public static String ZL_CostNetworkInLoop;
+   public static String ZL_CostUnboundedStore;
+   public static String ZL_CostRepeatedLookup;
+   public static String ZL_CostRuleTotal;
+   public static String ZL_UpdatingCostWarnings;
+   public static String ZL_ZXTMCallTiming;
    static {
       // initialize resource bundle
       NLS.initializeMessages( BUNDLE_NAME, ZLang.class );
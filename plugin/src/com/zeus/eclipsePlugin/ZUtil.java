@@ -12,6 +12,9 @@
 
 package com.zeus.eclipsePlugin;
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.regex.Pattern;
 
 import com.zeus.eclipsePlugin.model.ModelException;
@@ -205,5 +208,77 @@ public class ZUtil
       return buffer.toString();
    }
 
+   private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+   
+   /**
+    * Create a fingerprint of some text, which can be used to quickly tell if
+    * the text has changed. This is an MD5 hash of the text encoded as UTF-8, 
+    * so it is the same on every machine.
+    * @param text The text to fingerprint.
+    * @return The fingerprint as a hex string.
+    */
+   public static String fingerprint( String text )
+   {
+      return fingerprint( toUTF8( text ) );
+   }
+   
+   /**
+    * Create a fingerprint of some text that is already encoded as UTF-8. 
+    * This is the same as the fingerprint of the decoded text.
+    * @param utf8 The UTF-8 bytes of the text to fingerprint.
+    * @return The fingerprint as a hex string.
+    */
+   public static String fingerprint( byte[] utf8 )
+   {
+      try {
+         MessageDigest md5 = MessageDigest.getInstance( "MD5" ); //$NON-NLS-1$
+         byte[] digest = md5.digest( utf8 );
+         
+         StringBuffer buffer = new StringBuffer( digest.length * 2 );
+         for( byte b : digest ) {
+            buffer.append( HEX_CHARS[(b >> 4) & 0xf] );
+            buffer.append( HEX_CHARS[b & 0xf] );
+         }
+         return buffer.toString();
+         
+      // Every JVM has MD5, so this should never happen
+      } catch( Exception e ) {
+         ZDebug.printStackTrace( e, "Could not fingerprint text" );
+         return utf8.length + ":" + Arrays.hashCode( utf8 ); //$NON-NLS-1$
+      }
+   }
+
+   /**
+    * Encode some text as UTF-8.
+    * @param text The text to encode.
+    * @return The UTF-8 bytes of the text.
+    */
+   public static byte[] toUTF8( String text )
+   {
+      try {
+         return text.getBytes( "UTF-8" ); //$NON-NLS-1$
+      } catch( UnsupportedEncodingException e ) {
+         // Every JVM has UTF-8, so this should never happen
+         throw new RuntimeException( e );
+      }
+   }
+   
+   /**
+    * Decode UTF-8 bytes.
+    * @param utf8 A buffer containing the UTF-8 text.
+    * @param offset The position in the buffer the text starts.
+    * @param length The number of bytes of text.
+    * @return The decoded text.
+    */
+   public static String fromUTF8( byte[] utf8, int offset, int length )
+   {
+      try {
+         return new String( utf8, offset, length, "UTF-8" ); //$NON-NLS-1$
+      } catch( UnsupportedEncodingException e ) {
+         // Every JVM has UTF-8, so this should never happen
+         throw new RuntimeException( e );
+      }
+   }
+
    private ZUtil() {}
 }
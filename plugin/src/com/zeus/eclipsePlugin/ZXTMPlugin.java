@@ -12,12 +12,17 @@
 
 package com.zeus.eclipsePlugin;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.core.runtime.Path;
@@ -29,6 +34,7 @@ import org.osgi.framework.BundleContext;
 
 import com.zeus.eclipsePlugin.codedata.CodeDataLoader;
 import com.zeus.eclipsePlugin.codedata.CodeDefinitionXML;
+import com.zeus.eclipsePlugin.codedata.CompactCodeData;
 import com.zeus.eclipsePlugin.codedata.TrafficScriptCodeData;
 import com.zeus.eclipsePlugin.codedata.VersionCodeData;
 import com.zeus.eclipsePlugin.consts.Ids;
@@ -61,8 +67,8 @@ public class ZXTMPlugin extends AbstractUIPlugin implements CodeDataLoader
    private ZXTMFileSystemRefresher fileSystemRefresher = new ZXTMFileSystemRefresher();
    private ProjectManager projectManager = new ProjectManager();
    
-   // Code data loading stuff
-   List<String> codeDataXMLFiles = null;
+   // Code data loading stuff, the code data XML files keyed by version
+   private SortedMap<Long,String> codeDataXMLFiles = null;
    
    public ZXTMPlugin()
    {
@@ -224,70 +230,119 @@ public class ZXTMPlugin extends AbstractUIPlugin implements CodeDataLoader
     * specified, or the closest version.
     */
    /* Override */
-   public VersionCodeData getTrafficScriptVersion( int major, int minor )
+   public synchronized VersionCodeData getTrafficScriptVersion( 
+      TrafficScriptCodeData codeData, int major, int minor )
    {
       ZDebug.print( 3, "getTrafficScriptVersion( ", major, ", ", minor, " )" );   
       
-      long wantedVersion = versionToLong( major, minor );
-      long aboveVersion = 10000000;
-      long belowVersion = -10000000;
+      // Find the code data files if we haven't already
+      if( codeDataXMLFiles == null ) {
+         codeDataXMLFiles = getCodeDataXMLFiles();
+      }
       
-      String above = null, below = null;
+      // Use the exact version, or the closest version above, or the closest
+      // version below.
+      Long wantedVersion = versionToLong( major, minor );
+      SortedMap<Long,String> above = codeDataXMLFiles.tailMap( wantedVersion );
+      SortedMap<Long,String> below = codeDataXMLFiles.headMap( wantedVersion );
       
-      // Load code data files if we haven't already
-      if( codeDataXMLFiles == null ) {
-         codeDataXMLFiles = getPluginFilesInPath( ZXTMPlugin.CODE_DATA_DIR );
+      String xmlFile = null;      
+      if( !above.isEmpty() ) { 
+         xmlFile = above.get( above.firstKey() );
+      } else if( !below.isEmpty() ) {
+         xmlFile = below.get( below.lastKey() );
+      } else {
+         return null;
       }
       
-      for( String current : codeDataXMLFiles ) {
+      ZDebug.print( 5, "Using code data: ", xmlFile );
+      
+      // Try the compact cache of the code data first
+      File cacheFile = getCodeDataCacheFile( xmlFile );
+      String stamp = getCodeDataStamp();
+      if( cacheFile != null ) {
+         VersionCodeData data = CompactCodeData.load( cacheFile, stamp, codeData );
+         if( data != null ) return data;
+      }
+      
+      // Load the code data from the XML file
+      InputStream xmlStream = getPluginFileStream( xmlFile );
+      if( xmlStream == null ) return null;
+      
+      VersionCodeData data = new CodeDefinitionXML( xmlStream, codeData );
+      
+      // Cache it so it loads quickly next time
+      if( cacheFile != null ) {
+         try {
+            CompactCodeData.write( data, cacheFile, stamp );
+         } catch( IOException e ) {
+            ZDebug.printStackTrace( e, "Failed to write code data cache ", cacheFile );
+         }
+      }
+      
+      return data;
+   }
+   
+   /**
+    * Find the code data XML files in the plug-in and work out their versions.
+    * @return A map of version (see versionToLong) to code data file path.
+    */
+   private SortedMap<Long,String> getCodeDataXMLFiles()
+   {
+      TreeMap<Long,String> files = new TreeMap<Long,String>();
+      Pattern pattern = Pattern.compile( 
+         "^" + ZXTMPlugin.CODE_DATA_DIR  + "/(\\d+)\\.(\\d+)_.+\\.xml$" 
+      );
+      
+      for( String current : getPluginFilesInPath( ZXTMPlugin.CODE_DATA_DIR ) ) {
          try {
-            if( !current.matches( "^" + ZXTMPlugin.CODE_DATA_DIR  + "/\\d+\\.\\d+_.+\\.xml$" ) ) {
+            Matcher matcher = pattern.matcher( current );
+            if( !matcher.matches() ) {
                ZDebug.dumpStackTrace( "Bad XML Filename: ", current );
                continue;
             }
             
             // Extract major and minor version info from code data
-            String file = current.replaceFirst( ZXTMPlugin.CODE_DATA_DIR + "/", "" );
-            String[] parts = file.split( "[\\._]" );
+            files.put( versionToLong( 
+               Integer.parseInt( matcher.group( 1 ) ), 
+               Integer.parseInt( matcher.group( 2 ) )
+            ), current );
             
-            long currentVersion = versionToLong( 
-               Integer.parseInt( parts[0] ), Integer.parseInt( parts[1] )
-            );
-            
-            long diff = currentVersion - wantedVersion;
-            if( diff == 0 ) {
-               above = current;
-               below = current;
-               break;
-            }
-            if( diff < 0 && diff > belowVersion) {
-               belowVersion = diff;
-               below = current;
-            } else if( diff > 0 && diff < aboveVersion ) {
-               aboveVersion = diff;
-               above = current;
-            }
          } catch( Exception e ) {
             ZDebug.printStackTrace( e, "Failed to compare code data file" );
          }
       }
       
-      ZDebug.print( 5, "above: ", above, "   below: ", below );
-      
-      String xmlFile = null;      
-      if( above != null ) { 
-         xmlFile = above;
-      } else if( below != null ) {
-         xmlFile = below;
-      } else {
+      return files;
+   }
+   
+   /**
+    * Get the file the compact form of a code data XML file is cached in. These
+    * are stored in the plug-in's state area.
+    * @param xmlFile The path of the code data XML file in the plug-in.
+    * @return The cache file, or null if there is no state area.
+    */
+   private File getCodeDataCacheFile( String xmlFile )
+   {
+      try {
+         String name = new Path( xmlFile ).removeFileExtension().lastSegment();
+         return getStateLocation().append( CODE_DATA_DIR ).append( name + ".bin" ).toFile();
+      } catch( IllegalStateException e ) {
+         ZDebug.printStackTrace( e, "No state location for code data cache" );
          return null;
       }
-      
-      // Load the code data from the XML file
-      InputStream xmlStream = getPluginFileStream( xmlFile );
-      
-      if( xmlStream != null ) return new CodeDefinitionXML( xmlStream );      
-      return null;
+   }
+   
+   /**
+    * Get a stamp that identifies this build of the plug-in, so cached code 
+    * data is rebuilt when the plug-in is updated.
+    * @return The stamp for the code data cache.
+    */
+   private String getCodeDataStamp()
+   {
+      Bundle bundle = getBundle();
+      if( bundle == null ) return "";
+      return bundle.getHeaders().get( "Bundle-Version" ) + ":" + bundle.getLastModified();
    }
 
    /**
@@ -21,10 +21,13 @@ public interface CodeDataLoader
     * Get the TrafficScript code data for the specified version. If this exact 
     * version is unavailable, return the closest version instead.
     * 
+    * @param codeData The code data the version is loaded for, which it shares
+    * function definitions with.
     * @param major The major version number
     * @param min The minor version number.
     * @return A TrafficScriptVersion storing code data, or null if nothing could
     * be found.
     */
-   public VersionCodeData getTrafficScriptVersion( int major, int min );
+   public VersionCodeData getTrafficScriptVersion( TrafficScriptCodeData codeData, 
+      int major, int min );
 }
@@ -36,7 +36,7 @@ import com.zeus.eclipsePlugin.ZDebug;
 public class CodeDefinitionXML extends VersionCodeData
 {
    private InputStream xmlFileStream;
-   private Document doc;
+   private FunctionDefinition.Table definitions;
       
    // Consts for all the tag names / parameters
    private static final String CODE_DATA = "codedata";
@@ -69,11 +69,14 @@ public class CodeDefinitionXML extends VersionCodeData
    /**
     * Loads the passed input stream into this version class.
     * @param xmlStream An input stream from a code data XML file.
+    * @param codeData The code data this version is loaded for, which it 
+    * shares function definitions with.
     */
-   public CodeDefinitionXML( InputStream xmlStream )
+   public CodeDefinitionXML( InputStream xmlStream, TrafficScriptCodeData codeData )
    {
       super( 5, 0 );
       this.xmlFileStream = xmlStream;
+      this.definitions = codeData.getDefinitions();
       loadFile();
    }
    
@@ -86,7 +89,7 @@ public class CodeDefinitionXML extends VersionCodeData
          // Load the document into memory
          DocumentBuilderFactory fact = DocumentBuilderFactory.newInstance();
          DocumentBuilder builder = fact.newDocumentBuilder();         
-         doc = builder.parse( xmlFileStream );
+         Document doc = builder.parse( xmlFileStream );
          
          Element codeData  = getSingleElementFromNode( doc, CODE_DATA );
          
@@ -142,10 +145,12 @@ public class CodeDefinitionXML extends VersionCodeData
                Element restrictElement = getSingleElementFromNode( func, FUNC_RESTRICTIONS );
                String[] restrictions = getElementsPropertyAsArray( restrictElement, RESTRICTION, RESTRICTION_TYPE );
                
-               // Add the function to our function reference classes
-               Function codeFunc = new Function( codeGroup,
-                  funcNameShort, funcDesc, min, max, restrictions, params 
-               );
+               // Add the function to our function reference classes, sharing
+               // its definition with other versions where possible
+               Function codeFunc = new Function( codeGroup, definitions.define( 
+                  codeGroup.getLowerCaseName(), funcNameShort, min, max, 
+                  restrictions, params, funcDesc.hashCode(), funcDesc, null, 0 
+               ) );
                codeGroup.addFunction( codeFunc );
             }
          }
@@ -156,6 +161,9 @@ public class CodeDefinitionXML extends VersionCodeData
          ZDebug.printStackTrace( e, "Loading code data XML failed." );
       } catch( ParserConfigurationException e ) {
          ZDebug.printStackTrace( e, "Invalid XML parser configuration." );
+      } finally {
+         try { xmlFileStream.close(); } catch( IOException e ) {}
+         xmlFileStream = null;
       }
    }
    
@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.codedata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.zeus.eclipsePlugin.ZDebug;
+
+/**
+ * Loads code data from a compact binary file, which is written the first time
+ * the code data XML for a version is loaded. The file is memory mapped, and
+ * function and group descriptions are only read from it when they are needed,
+ * so they don't take up space on the heap.
+ *
+ * The file contains:
+ * <pre>
+ * header:       magic, format, stamp
+ * descriptions: string...
+ * index:        major, minor, keywords, groups (with their functions)
+ * trailer:      position of index
+ * </pre>
+ * Strings are stored as a length followed by UTF-8 bytes. Groups and functions
+ * refer to their descriptions by position in the file, and functions also 
+ * store the hash of their description so they can be shared with other 
+ * versions (see FunctionDefinition) without loading it.
+ */
+public class CompactCodeData extends VersionCodeData implements DescriptionSource
+{
+   private static final int MAGIC = 0x5A544344;
+   private static final int FORMAT = 2;
+   private static final String ENCODING = "UTF-8";
+
+   private ByteBuffer buffer;
+
+   /**
+    * Create the code data from a mapped file. The version is set when the
+    * index is read.
+    * @param buffer The contents of the file.
+    */
+   private CompactCodeData( ByteBuffer buffer )
+   {
+      super( 0, 0 );
+      this.buffer = buffer;
+   }
+
+   /**
+    * Load code data from a compact file.
+    * @param file The file written by write().
+    * @param stamp The stamp the file must have been written with, so files
+    * written by other versions of the plug-in are not used.
+    * @param codeData The code data this version is loaded for, which it 
+    * shares function definitions with.
+    * @return The code data, or null if the file does not exist, is from a
+    * different stamp or could not be read.
+    */
+   public static VersionCodeData load( File file, String stamp, 
+      TrafficScriptCodeData codeData )
+   {
+      ZDebug.print( 3, "load( ", file, ", ", stamp, " )" );
+      if( !file.isFile() ) return null;
+
+      try {
+         // The header is checked before the file is mapped. A mapping lasts
+         // until it is garbage collected, and on some platforms a mapped 
+         // file can't be replaced, so an out of date file must not be mapped.
+         ByteBuffer buffer;
+         RandomAccessFile raf = new RandomAccessFile( file, "r" );
+         try {
+            if( raf.length() < 12 || raf.readInt() != MAGIC || 
+                raf.readInt() != FORMAT || !stamp.equals( readString( raf ) ) ) 
+            {
+               ZDebug.print( 4, "Code data cache is out of date: ", file );
+               return null;
+            }
+            
+            int headerEnd = (int) raf.getFilePointer();
+            FileChannel channel = raf.getChannel();
+            buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            buffer.position( headerEnd );
+         } finally {
+            raf.close();
+         }
+
+         CompactCodeData data = new CompactCodeData( buffer );
+         data.readIndex( codeData.getDefinitions() );
+         return data;
+
+      } catch( IOException e ) {
+         ZDebug.printStackTrace( e, "Failed to load code data cache ", file );
+      } catch( RuntimeException e ) {
+         ZDebug.printStackTrace( e, "Corrupt code data cache ", file );
+      }
+
+      return null;
+   }
+
+   /**
+    * Read the version, keywords, groups and functions from the file.
+    * @param definitions The table to share function definitions through.
+    */
+   private void readIndex( FunctionDefinition.Table definitions )
+   {
+      ByteBuffer in = buffer.duplicate();
+      in.position( in.getInt( in.limit() - 4 ) );
+
+      setVersion( in.getInt(), in.getInt() );
+      setKeywords( readStrings( in ) );
+
+      int groupCount = in.getInt();
+      for( int i = 0; i < groupCount; i++ ) {
+         String groupName = readString( in );
+         FunctionGroup group = new FunctionGroup( groupName, this, in.getInt() );
+
+         int functionCount = in.getInt();
+         for( int j = 0; j < functionCount; j++ ) {
+            String name = readString( in );
+            int min = in.getInt();
+            int max = in.getInt();
+            String[] restrictions = readStrings( in );
+            String[] params = readStrings( in );
+            int descPos = in.getInt();
+            int descHash = in.getInt();
+
+            group.addFunction( new Function( group, definitions.define(
+               group.getLowerCaseName(), name, min, max, restrictions, params, 
+               descHash, null, this, descPos
+            ) ) );
+         }
+
+         addGroup( group );
+      }
+   }
+
+   /**
+    * Read a description from the mapped file.
+    */
+   /* Override */
+   public String getDescription( int pos )
+   {
+      try {
+         ByteBuffer in = buffer.duplicate();
+         in.position( pos );
+         return readString( in );
+      } catch( RuntimeException e ) {
+         ZDebug.printStackTrace( e, "Failed to read description at ", pos );
+         return "";
+      }
+   }
+
+   /**
+    * Write code data to a compact file, which can be loaded by load(). The
+    * file is written to a temporary file first, and then moved into place.
+    * @param data The code data to write.
+    * @param file The file to write.
+    * @param stamp A stamp to identify the source of the data.
+    * @throws IOException If the file could not be written.
+    */
+   public static void write( VersionCodeData data, File file, String stamp )
+      throws IOException
+   {
+      ZDebug.print( 3, "write( ", data.getVersionString(), ", ", file, " )" );
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream( 100000 );
+      DataOutputStream out = new DataOutputStream( bytes );
+
+      // Header
+      out.writeInt( MAGIC );
+      out.writeInt( FORMAT );
+      writeString( out, stamp );
+
+      // Descriptions, remembering where they are
+      int[] groupDesc = new int[data.getGroups().size()];
+      int funcCount = 0;
+      for( FunctionGroup group : data ) funcCount += group.getNumberOfFunctions();
+      int[] funcDesc = new int[funcCount];
+
+      int g = 0, f = 0;
+      for( FunctionGroup group : data ) {
+         groupDesc[g++] = out.size();
+         writeString( out, group.getRawDescription() );
+         for( Function function : group ) {
+            funcDesc[f++] = out.size();
+            writeString( out, function.getRawDescription() );
+         }
+      }
+
+      // Index
+      int indexPos = out.size();
+      out.writeInt( data.getMajorVersion() );
+      out.writeInt( data.getMinorVersion() );
+      writeStrings( out, data.getKeywords().toArray( new String[0] ) );
+
+      out.writeInt( data.getGroups().size() );
+      g = 0; f = 0;
+      for( FunctionGroup group : data ) {
+         writeString( out, group.getName() );
+         out.writeInt( groupDesc[g++] );
+
+         out.writeInt( group.getNumberOfFunctions() );
+         for( Function function : group ) {
+            writeString( out, function.getName() );
+            out.writeInt( function.getMinParams() );
+            out.writeInt( function.getMaxParams() );
+            writeStrings( out, function.getRestrictions() );
+            writeStrings( out, function.getParams() );
+            out.writeInt( funcDesc[f++] );
+            out.writeInt( function.getRawDescription().hashCode() );
+         }
+      }
+
+      // Trailer
+      out.writeInt( indexPos );
+      out.close();
+
+      // Write to a temporary file, then move it into place
+      file.getParentFile().mkdirs();
+      File temp = new File( file.getPath() + ".tmp" );
+      FileOutputStream fileOut = new FileOutputStream( temp );
+      try {
+         bytes.writeTo( fileOut );
+      } finally {
+         fileOut.close();
+      }
+
+      file.delete();
+      if( !temp.renameTo( file ) ) {
+         temp.delete();
+         throw new IOException( "Could not rename " + temp + " to " + file );
+      }
+   }
+
+   /**
+    * Write a string as its length and UTF-8 bytes.
+    */
+   private static void writeString( DataOutputStream out, String string )
+      throws IOException
+   {
+      byte[] data = string.getBytes( ENCODING );
+      out.writeInt( data.length );
+      out.write( data );
+   }
+
+   /**
+    * Write an array of strings, preceded by its length.
+    */
+   private static void writeStrings( DataOutputStream out, String[] strings )
+      throws IOException
+   {
+      out.writeInt( strings.length );
+      for( String string : strings ) {
+         writeString( out, string );
+      }
+   }
+
+   /**
+    * Read a string written by writeString().
+    */
+   private static String readString( ByteBuffer in )
+   {
+      int length = in.getInt();
+      if( length < 0 || length > in.remaining() ) {
+         throw new BufferUnderflowException();
+      }
+
+      byte[] data = new byte[length];
+      in.get( data );
+      try {
+         return new String( data, ENCODING );
+      } catch( UnsupportedEncodingException e ) {
+         throw new RuntimeException( e );
+      }
+   }
+
+   /**
+    * Read a string written by writeString() from a file, used for the header.
+    * @return The string, or null if its length is past the end of the file.
+    */
+   private static String readString( RandomAccessFile in ) throws IOException
+   {
+      int length = in.readInt();
+      if( length < 0 || length > in.length() - in.getFilePointer() ) {
+         return null;
+      }
+
+      byte[] data = new byte[length];
+      in.readFully( data );
+      return new String( data, ENCODING );
+   }
+
+   /**
+    * Read an array of strings written by writeStrings().
+    */
+   private static String[] readStrings( ByteBuffer in )
+   {
+      int length = in.getInt();
+      if( length < 0 || length > in.remaining() ) {
+         throw new BufferUnderflowException();
+      }
+
+      String[] strings = new String[length];
+      for( int i = 0; i < length; i++ ) {
+         strings[i] = readString( in );
+      }
+      return strings;
+   }
+
+}
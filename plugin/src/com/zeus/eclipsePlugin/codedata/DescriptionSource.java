@@ -0,0 +1,27 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.codedata;
+
+/**
+ * Loads function and group descriptions when they are needed, so they don't
+ * have to be kept in memory.
+ */
+interface DescriptionSource
+{
+   /**
+    * Load a description.
+    * @param pos The position of the description in this source.
+    * @return The raw HTML description.
+    */
+   public String getDescription( int pos );
+}
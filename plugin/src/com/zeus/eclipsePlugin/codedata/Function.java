@@ -12,8 +12,6 @@
 
 package com.zeus.eclipsePlugin.codedata;
 
-import java.util.HashMap;
-
 public class Function implements Comparable<Function>
 {
    /** This is returned by the getMaxParams function if there is no limit to the
@@ -23,14 +21,9 @@ public class Function implements Comparable<Function>
    /** The feature restriction that determines if a function is deprecated */ 
    public static final String DEPRECATED = "FEATURE_DEPRECATED";
    
-   private String name;
    private FunctionGroup group;
    private final String lcName;
-   private String fullDesc;
-   
-   private String[] params;
-   private int minParams, maxParams;
-   private HashMap<String,Boolean> restrictions = null;
+   private FunctionDefinition def;
 
    /**
     * Create a new function.
@@ -45,54 +38,41 @@ public class Function implements Comparable<Function>
    public Function( FunctionGroup group, String name, String desc, int minParams, int maxParams, 
       String[] restrictions, String[] params )
    {
-      this.name = name;
+      this( group, new FunctionDefinition( 
+         name, minParams, maxParams, restrictions, params, desc, null, 0 
+      ) );
+   }
+   
+   /**
+    * Create a function in a group using a definition, which may be shared 
+    * with the same function in other versions.
+    * @param group Its parent group.
+    * @param def The details of the function.
+    */
+   Function( FunctionGroup group, FunctionDefinition def )
+   {
       this.group = group;
-      this.lcName = name.toLowerCase();
-      this.params = params;
-      this.minParams = minParams;
-      this.maxParams = maxParams;
-      this.restrictions = new HashMap<String,Boolean>();
-      
-      // Put all the restrictions in a hash table
-      for( String restrict : restrictions ) {
-         this.restrictions.put( restrict, true );
-      }
-      
-      // Build up the full HTML description
-      StringBuffer buff = new StringBuffer( desc.length() + 100 );
-      buff.append( "<p><b>" );
-      buff.append( group ).append( '.' );
-      buff.append( name );
-      
-      // Parameters
-      buff.append( "(" );
-      if( params.length > 0 ) {
-         buff.append( " " );
-         int i = 0;
-         for( String param : params ) {
-            if( i > 0 )  buff.append( ", " );            
-            if( i >= minParams ) buff.append( "[" );
-            
-            buff.append( param );
-            
-            if( i >= minParams ) buff.append( "]" );
-            i++;
-         }
-         buff.append( " " );
-         if( maxParams == INFINITE ) {
-            buff.append( "... " );
-         }
-      } else if( maxParams == INFINITE ) {
-         buff.append( " ... " );
-      }
-            
-      buff.append( ")" );
-      
-      // Put the passed in description at the end
-      buff.append( "</b></p>" );
-      buff.append( desc.replaceAll( "\\s+|&nbsp;", " " ).trim() );
-      
-      this.fullDesc = buff.toString();      
+      this.def = def;
+      this.lcName = def.lcName;
+   }
+   
+   /**
+    * Get the description of this function as it appears in the code data, 
+    * loading it if necessary.
+    * @return The raw HTML description.
+    */
+   String getRawDescription()
+   {
+      return def.getRawDescription();
+   }
+   
+   /**
+    * Get the feature restrictions of this function.
+    * @return The restrictions of this function.
+    */
+   String[] getRestrictions()
+   {
+      return def.restrictions;
    }
    
    /** 
@@ -113,7 +93,7 @@ public class Function implements Comparable<Function>
     */
    public String getName()
    {
-      return name;
+      return def.name;
    }
    
    /**
@@ -128,12 +108,12 @@ public class Function implements Comparable<Function>
 
    /**
     * Returns a full HTML description of the function. Is usually pulled from
-    * the code data XML files.
+    * the code data XML files. It is built the first time it is needed.
     * @return The full HTML documentation of this function. 
     */
    public String getFullDescription()
    {
-      return fullDesc;
+      return def.getFullDescription( group.getLowerCaseName() );
    }
 
    /**
@@ -142,7 +122,7 @@ public class Function implements Comparable<Function>
     */
    public String[] getParams()
    {
-      return params;
+      return def.params;
    }
    
    /** 
@@ -151,7 +131,7 @@ public class Function implements Comparable<Function>
     */
    public int getMinParams()
    {
-      return minParams;
+      return def.minParams;
    }
 
    /**
@@ -160,7 +140,7 @@ public class Function implements Comparable<Function>
     */
    public int getMaxParams()
    {
-      return maxParams;
+      return def.maxParams;
    }
 
    /**
@@ -170,7 +150,10 @@ public class Function implements Comparable<Function>
     */
    public boolean hasRestriction( String restriction )
    {
-      return restrictions.containsKey( restriction );
+      for( String restrict : def.restrictions ) {
+         if( restrict.equals( restriction ) ) return true;
+      }
+      return false;
    }
    
    /**
@@ -182,6 +165,16 @@ public class Function implements Comparable<Function>
       return hasRestriction( DEPRECATED );
    }
 
+   /**
+    * Get how expensive this function is to call, which is the same in every
+    * version of the code data.
+    * @return The cost of this function.
+    */
+   public FunctionCost getCost()
+   {
+      return FunctionCost.getCost( group.getLowerCaseName(), lcName );
+   }
+
    /**
     * Returns the parent group of this function.
     * @return This functions group.
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.codedata;
+
+import java.util.HashMap;
+
+/**
+ * A rough idea of how much work a TrafficScript function does each time it
+ * is called, used to warn about rules that are expensive to run. The code
+ * data does not include this, so the costs of the functions that matter are
+ * listed here. They apply to every version of the code data.
+ *
+ * The weights are only meant to be compared with each other, they are not
+ * a measure of time.
+ */
+public enum FunctionCost
+{
+   /** Most functions, which do a small fixed amount of work. */
+   CHEAP         ( 1 ),
+
+   /** Looks something up in the message, e.g. a header. */
+   LOOKUP        ( 2 ),
+
+   /** Adds an entry to the shared data store, which lasts between requests. */
+   STORE         ( 2 ),
+
+   /** Removes entries from the shared data store. */
+   STORE_REMOVE  ( 1 ),
+
+   /** Hashes, encodes or parses its input. */
+   CPU           ( 5 ),
+
+   /** Compiles and runs a regular expression. */
+   REGEX         ( 5 ),
+
+   /** Reads a message body, all of it unless a length is passed. */
+   BODY          ( 20 ),
+
+   /** Waits for another server, e.g. a HTTP request or DNS lookup. */
+   NETWORK       ( 20 ),
+   ;
+
+   private int weight;
+
+   private FunctionCost( int weight )
+   {
+      this.weight = weight;
+   }
+
+   /**
+    * Get the relative cost of one call to a function of this cost.
+    * @return The weight of this cost.
+    */
+   public int getWeight()
+   {
+      return weight;
+   }
+
+   /** The costs of single functions, by lower-case full name. */
+   private static HashMap<String,FunctionCost> functions =
+      new HashMap<String,FunctionCost>();
+
+   /** The costs of every function in a group, by lower-case group name. */
+   private static HashMap<String,FunctionCost> groups =
+      new HashMap<String,FunctionCost>();
+
+   static {
+      for( String body : new String[] {
+         "http.getbody", "http.getbodylines", "http.getresponsebody",
+         "http.getresponsebodylines", "rtsp.getrequestbody",
+         "rtsp.getrequestbodylines", "rtsp.getresponsebody",
+         "rtsp.getresponsebodylines", "sip.getrequestbody",
+         "sip.getrequestbodylines", "sip.getresponsebody",
+         "sip.getresponsebodylines" } )
+      {
+         functions.put( body, BODY );
+      }
+
+      for( String lookup : new String[] {
+         "http.getheader", "http.getresponseheader", "http.getcookie",
+         "http.getresponsecookie", "http.getformparam", "rtsp.getrequestheader",
+         "rtsp.getresponseheader", "sip.getrequestheader",
+         "sip.getresponseheader" } )
+      {
+         functions.put( lookup, LOOKUP );
+      }
+
+      functions.put( "string.regexmatch", REGEX );
+      functions.put( "string.regexsub", REGEX );
+
+      functions.put( "data.set", STORE );
+      functions.put( "data.remove", STORE_REMOVE );
+      functions.put( "data.reset", STORE_REMOVE );
+
+      for( String cpu : new String[] {
+         "string.hash", "string.hashmd5", "string.hashsha1",
+         "string.hashsha256", "string.hashsha384", "string.hashsha512",
+         "string.base64encode", "string.base64decode" } )
+      {
+         functions.put( cpu, CPU );
+      }
+
+      for( String group : new String[] {
+         "json", "xml", "xml.validate", "xml.xpath", "xml.xslt" } )
+      {
+         groups.put( group, CPU );
+      }
+
+      for( String group : new String[] {
+         "http.request", "http.request.ssl", "net.dns", "java", "auth" } )
+      {
+         groups.put( group, NETWORK );
+      }
+   }
+
+   /**
+    * Get the cost of a function.
+    * @param group The lower-case name of the function's group.
+    * @param name The lower-case name of the function, NOT including the group
+    * prefix.
+    * @return The cost of the function, CHEAP if nothing is known about it.
+    */
+   static FunctionCost getCost( String group, String name )
+   {
+      FunctionCost cost = functions.get( group + "." + name );
+      if( cost == null ) cost = groups.get( group );
+
+      return cost == null ? CHEAP : cost;
+   }
+}
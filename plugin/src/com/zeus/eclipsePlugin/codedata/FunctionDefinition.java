@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.codedata;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The details of a function that don't depend on the code data version it is
+ * in: its name, parameters, restrictions and description.
+ *
+ * Most functions are the same in every version of the code data, so
+ * definitions are shared between the versions of a TrafficScriptCodeData
+ * using its Table. The table's define() method returns the existing
+ * definition if an identical function has already been loaded, and each
+ * version's Function objects just refer to it.
+ */
+class FunctionDefinition
+{
+   final String name;
+   final String lcName;
+   final String[] params;
+   final int minParams, maxParams;
+   final String[] restrictions;
+   private String fullDesc = null;
+
+   // The raw description, or where to load it from when it is needed.
+   private String desc = null;
+   private DescriptionSource descSource = null;
+   private int descPos;
+
+   /**
+    * Create a definition. Use Table.define() to get a shared definition 
+    * instead.
+    * @param name The name of the function, NOT including group prefix.
+    * @param minParams The minimum number of parameters.
+    * @param maxParams The maximum number of parameters or INFINITE.
+    * @param restrictions The feature restrictions of the function.
+    * @param params The names of each of the functions parameters.
+    * @param desc The raw HTML description, or null if it is loaded from
+    * descSource.
+    * @param descSource Where to load the description from, if desc is null.
+    * @param descPos The position of the description in the source.
+    */
+   FunctionDefinition( String name, int minParams, int maxParams,
+      String[] restrictions, String[] params, String desc,
+      DescriptionSource descSource, int descPos )
+   {
+      this.name = name;
+      this.lcName = name.toLowerCase();
+      this.minParams = minParams;
+      this.maxParams = maxParams;
+      this.restrictions = restrictions;
+      this.params = params;
+      this.desc = desc;
+      this.descSource = descSource;
+      this.descPos = descPos;
+   }
+
+   /**
+    * Get the description as it appears in the code data, loading it if
+    * necessary.
+    * @return The raw HTML description.
+    */
+   String getRawDescription()
+   {
+      if( desc != null ) return desc;
+      if( descSource != null ) return descSource.getDescription( descPos );
+      return "";
+   }
+
+   /**
+    * Get the full HTML description, building it the first time it is needed.
+    * The group is part of the definition's key, so the description is the same
+    * for every version.
+    * @param group The name of the function's group.
+    * @return The full HTML description.
+    */
+   String getFullDescription( String group )
+   {
+      if( fullDesc == null ) {
+         fullDesc = buildFullDescription( group );
+      }
+      return fullDesc;
+   }
+
+   /**
+    * Build the full HTML description, from the raw description and the
+    * function's parameters.
+    * @param group The name of the function's group.
+    * @return The full HTML description.
+    */
+   private String buildFullDescription( String group )
+   {
+      String desc = getRawDescription();
+
+      StringBuffer buff = new StringBuffer( desc.length() + 100 );
+      buff.append( "<p><b>" );
+      buff.append( group ).append( '.' );
+      buff.append( name );
+
+      // Parameters
+      buff.append( "(" );
+      if( params.length > 0 ) {
+         buff.append( " " );
+         int i = 0;
+         for( String param : params ) {
+            if( i > 0 )  buff.append( ", " );
+            if( i >= minParams ) buff.append( "[" );
+
+            buff.append( param );
+
+            if( i >= minParams ) buff.append( "]" );
+            i++;
+         }
+         buff.append( " " );
+         if( maxParams == Function.INFINITE ) {
+            buff.append( "... " );
+         }
+      } else if( maxParams == Function.INFINITE ) {
+         buff.append( " ... " );
+      }
+
+      buff.append( ")" );
+
+      // Put the passed in description at the end
+      buff.append( "</b></p>" );
+      buff.append( desc.replaceAll( "\\s+|&nbsp;", " " ).trim() );
+
+      return buff.toString();
+   }
+
+   /**
+    * The definitions loaded by the versions of a TrafficScriptCodeData, so
+    * they can be shared. The table belongs to the code data, so definitions
+    * (and the files their descriptions are loaded from) are only kept while
+    * the code data is.
+    */
+   static class Table
+   {
+      /** 
+       * All the definitions loaded so far, keyed by their details. The key 
+       * only includes the description's hash, so definitions whose 
+       * descriptions collide share a key and are told apart by comparing the 
+       * descriptions.
+       */
+      private HashMap<String,ArrayList<FunctionDefinition>> definitions =
+         new HashMap<String,ArrayList<FunctionDefinition>>();
+
+      /** Shared copies of parameter and restriction names. */
+      private HashMap<String,String> names = new HashMap<String,String>();
+
+      /**
+       * Get the shared definition of a function, creating it if no identical
+       * function has been loaded yet.
+       * @param group The name of the function's group.
+       * @param name The name of the function, NOT including group prefix.
+       * @param minParams The minimum number of parameters.
+       * @param maxParams The maximum number of parameters or INFINITE.
+       * @param restrictions The feature restrictions of the function.
+       * @param params The names of each of the functions parameters.
+       * @param descHash The hash code of the raw description, used to find
+       * definitions that may be the same. Their descriptions are only loaded
+       * and compared when the hashes match.
+       * @param desc The raw HTML description, or null if it is loaded from
+       * descSource.
+       * @param descSource Where to load the description from, if desc is null.
+       * @param descPos The position of the description in the source.
+       * @return The shared definition.
+       */
+      synchronized FunctionDefinition define( String group, String name,
+         int minParams, int maxParams, String[] restrictions, String[] params,
+         int descHash, String desc, DescriptionSource descSource, int descPos )
+      {
+         StringBuffer key = new StringBuffer( 100 );
+         key.append( group ).append( '.' ).append( name );
+         key.append( '(' ).append( minParams ).append( ',' ).append( maxParams );
+         for( String param : params ) key.append( ',' ).append( param );
+         key.append( ')' );
+         for( String restriction : restrictions ) key.append( restriction ).append( ',' );
+         key.append( descHash );
+
+         String keyString = key.toString();
+         ArrayList<FunctionDefinition> matches = definitions.get( keyString );
+         if( matches == null ) {
+            matches = new ArrayList<FunctionDefinition>( 1 );
+            definitions.put( keyString, matches );
+         }
+
+         FunctionDefinition def = new FunctionDefinition( name, minParams,
+            maxParams, restrictions, params, desc, descSource, descPos
+         );
+         
+         if( !matches.isEmpty() ) {
+            String rawDesc = def.getRawDescription();
+            for( FunctionDefinition match : matches ) {
+               if( match.getRawDescription().equals( rawDesc ) ) return match;
+            }
+         }
+
+         intern( restrictions );
+         intern( params );
+         matches.add( def );
+         return def;
+      }
+
+      /**
+       * Replace the strings in an array with shared copies.
+       * @param strings The array to intern.
+       * @return The passed array.
+       */
+      private String[] intern( String[] strings )
+      {
+         for( int i = 0; i < strings.length; i++ ) {
+            String shared = names.get( strings[i] );
+            if( shared == null ) {
+               names.put( strings[i], strings[i] );
+            } else {
+               strings[i] = shared;
+            }
+         }
+         return strings;
+      }
+   }
+
+}
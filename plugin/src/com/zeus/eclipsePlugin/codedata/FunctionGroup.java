@@ -27,9 +27,13 @@ public class FunctionGroup implements Iterable<Function>, Comparable<FunctionGro
 {
    private String name;
    private final String lcName;
-   private String description;
    private String fullDesc = null;
    
+   // The raw description, or where to load it from when it is needed.
+   private String description = null;
+   private DescriptionSource descSource = null;
+   private int descPos;
+   
    private HashMap<String, Function> functionTable = null;
    private TreeSet<Function> functionTree = null;
    
@@ -42,8 +46,26 @@ public class FunctionGroup implements Iterable<Function>, Comparable<FunctionGro
    {
       super();
       this.name = name;
-      this.description = desc.replaceAll( "\\s+|&nbsp;", " " ).trim();
       this.lcName = name.toLowerCase();
+      this.description = desc;
+      this.functionTable = new HashMap<String, Function>();
+      this.functionTree = new TreeSet<Function>();
+   }
+   
+   /**
+    * Creates a function group whose description is loaded when it is first
+    * needed.
+    * @param name The name of the group.
+    * @param descSource Where to load the HTML description of the group.
+    * @param descPos The position of the description in the source.
+    */
+   FunctionGroup( String name, DescriptionSource descSource, int descPos )
+   {
+      super();
+      this.name = name;
+      this.lcName = name.toLowerCase();
+      this.descSource = descSource;
+      this.descPos = descPos;
       this.functionTable = new HashMap<String, Function>();
       this.functionTree = new TreeSet<Function>();
    }
@@ -57,6 +79,18 @@ public class FunctionGroup implements Iterable<Function>, Comparable<FunctionGro
       ZDebug.print( 5, "FunctionGroup - ", name );
       this.lcName = name.toLowerCase();
    }
+   
+   /**
+    * Get the description of this group as it appears in the code data, 
+    * loading it if necessary.
+    * @return The raw HTML description.
+    */
+   String getRawDescription()
+   {
+      if( description != null ) return description;
+      if( descSource != null ) return descSource.getDescription( descPos );
+      return "";
+   }
   
    /**
     * Add a function to this group.
@@ -129,7 +163,7 @@ public class FunctionGroup implements Iterable<Function>, Comparable<FunctionGro
          buff.append( name );
          
          buff.append( "</b></p><p>" );
-         buff.append( description );
+         buff.append( getRawDescription().replaceAll( "\\s+|&nbsp;", " " ).trim() );
          
          buff.append( "</p>" );
          buff.append( ZLang.ZL_ContainsMethods );
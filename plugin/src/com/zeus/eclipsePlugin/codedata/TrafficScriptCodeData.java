@@ -27,6 +27,9 @@ public class TrafficScriptCodeData implements Iterable< VersionCodeData >
    
    private CodeDataLoader dataLoader = null;  
    
+   /** The function definitions shared by the versions. */
+   private FunctionDefinition.Table definitions = new FunctionDefinition.Table();
+   
    /**
     * Set the data loader callback class. This class will be used to load 
     * TrafficScriptVersions when we don't currently have one in memory.
@@ -64,7 +67,7 @@ public class TrafficScriptCodeData implements Iterable< VersionCodeData >
       if( version != null ) return version;
       
       if( dataLoader != null ) {
-         version = dataLoader.getTrafficScriptVersion( major, minor );
+         version = dataLoader.getTrafficScriptVersion( this, major, minor );
          if( version != null ) {
             String newVer = version.getVersionString();
             versionTable.put( newVer, version );
@@ -83,6 +86,15 @@ public class TrafficScriptCodeData implements Iterable< VersionCodeData >
       return null;
    }
    
+   /**
+    * Get the table the versions' function definitions are shared through.
+    * @return The function definition table of this code data.
+    */
+   FunctionDefinition.Table getDefinitions()
+   {
+      return definitions;
+   }
+   
    /**
     * Returns an array of all TrafficScriptVersions currently loaded.
     * @return An array of all TrafficScriptVersions currently loaded.
@@ -36,6 +36,9 @@ public class VersionCodeData implements Iterable<FunctionGroup>
    
    /** The longest possible group name */
    private int maxGroupLength = 0;
+   
+   /** Index used to classify words, built when first needed. */
+   private WordIndex wordIndex = null;
 
    /**
     * Creates a empty TrafficScriptVersion class for the specified version.
@@ -68,6 +71,7 @@ public class VersionCodeData implements Iterable<FunctionGroup>
       if( group.getName().length() > maxGroupLength ) {
          maxGroupLength = group.getName().length();
       }
+      wordIndex = null;
    }
    
    /**
@@ -138,7 +142,8 @@ public class VersionCodeData implements Iterable<FunctionGroup>
       this.keywords.clear();
       for( String keyword : keywords ) {
          this.keywords.add( keyword );
-      }      
+      }
+      wordIndex = null;
    }
 
    /**
@@ -183,6 +188,22 @@ public class VersionCodeData implements Iterable<FunctionGroup>
       return group.getFunction( functionName );      
    }
    
+   /**
+    * Get the index used to classify words as keywords, functions or 
+    * deprecated functions. It gives the same answers as getPossiblilities()
+    * but does not create any objects, so is used for syntax highlighting. 
+    * The index is built the first time it is needed, so should only be used 
+    * once the code data is loaded.
+    * @return The word index for this version.
+    */
+   public synchronized WordIndex getWordIndex()
+   {
+      if( wordIndex == null ) {
+         wordIndex = new WordIndex( this );
+      }
+      return wordIndex;
+   }
+   
    /**
     * Return all groups starting with the passed in prefix.
     * @param start The start of a groups you want to match.
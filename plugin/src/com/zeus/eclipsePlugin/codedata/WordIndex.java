@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.codedata;
+
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+/**
+ * A character trie of all the keywords, group names and full function names
+ * in a code data version, used to classify words for syntax highlighting.
+ *
+ * Each node of the trie stores what type of word the characters leading to it
+ * are the start of, worked out in the same way as getPossiblilities() in
+ * VersionCodeData. Words are classified one character at a time, so the
+ * editor can classify a word as it reads it without creating any objects.
+ *
+ * E.g.
+ * <pre>
+ * int node = WordIndex.ROOT;
+ * for( char c : word ) node = index.next( node, c );
+ * WordType type = index.getType( node );
+ * </pre>
+ */
+public class WordIndex
+{
+   /**
+    * What a word is the start of.
+    */
+   public enum WordType {
+      /** Not the start of anything. */
+      NONE,
+      /** The start of a keyword. */
+      KEYWORD,
+      /** The start of a group or function. */
+      FUNCTION,
+      /** The start of only one thing, a deprecated function. */
+      DEPRECATED
+   }
+
+   /** The node for the empty word, where classification starts. */
+   public static final int ROOT = 0;
+
+   /** The node returned when no words start with the characters read. */
+   public static final int NO_MATCH = -1;
+
+   private static final WordType[] TYPES = WordType.values();
+
+   // The trie, flattened into arrays. Each node's edges are stored in
+   // edgeChars/edgeNodes, starting at firstEdge[node], sorted by character.
+   private int[] firstEdge;
+   private int[] edgeCount;
+   private char[] edgeChars;
+   private int[] edgeNodes;
+   private byte[] types;
+
+   /**
+    * Build the index for a version of the code data. The version should be
+    * fully loaded, later changes are not reflected in the index.
+    * @param version The code data to index.
+    */
+   WordIndex( VersionCodeData version )
+   {
+      BuildNode root = new BuildNode();
+
+      // Keywords are matched as-is, everything else in lower-case, to match
+      // the lookups done by getPossiblilities().
+      for( String keyword : version.getKeywords() ) {
+         root.add( keyword, 0 ).keywords++;
+      }
+
+      for( FunctionGroup group : version.getGroups() ) {
+         String groupName = group.getLowerCaseName();
+         root.add( groupName, 0 ).entries++;
+
+         for( Function function : group ) {
+            BuildNode node = root.add( groupName + "." + function.getLowerCaseName(), 0 );
+            node.entries++;
+            if( function.isDeprecated() ) node.deprecated++;
+         }
+      }
+
+      root.total();
+      flatten( root );
+   }
+
+   /**
+    * Move on to the next character of a word.
+    * @param node The node reached by the previous characters, starting with
+    * ROOT.
+    * @param c The next character of the word, case is ignored.
+    * @return The node for the word so far, or NO_MATCH if nothing starts with
+    * it.
+    */
+   public int next( int node, char c )
+   {
+      if( node < 0 ) return NO_MATCH;
+      c = Character.toLowerCase( c );
+
+      // Binary search the node's sorted edges
+      int low = firstEdge[node];
+      int high = low + edgeCount[node] - 1;
+      while( low <= high ) {
+         int mid = ( low + high ) >>> 1;
+         char midChar = edgeChars[mid];
+         if( midChar < c ) {
+            low = mid + 1;
+         } else if( midChar > c ) {
+            high = mid - 1;
+         } else {
+            return edgeNodes[mid];
+         }
+      }
+
+      return NO_MATCH;
+   }
+
+   /**
+    * Get what the word leading to a node is the start of.
+    * @param node The node reached by next(), or NO_MATCH.
+    * @return The type of word.
+    */
+   public WordType getType( int node )
+   {
+      if( node < 0 ) return WordType.NONE;
+      return TYPES[types[node]];
+   }
+
+   /**
+    * Classify a whole word.
+    * @param word The word to classify.
+    * @return The type of the word.
+    */
+   public WordType classify( CharSequence word )
+   {
+      int node = ROOT;
+      for( int i = 0; i < word.length() && node != NO_MATCH; i++ ) {
+         node = next( node, word.charAt( i ) );
+      }
+      return getType( node );
+   }
+
+   /**
+    * Copy the build nodes into the arrays, numbering them breadth first.
+    * @param root The root of the built trie.
+    */
+   private void flatten( BuildNode root )
+   {
+      ArrayList<BuildNode> nodes = new ArrayList<BuildNode>();
+      nodes.add( root );
+      int edges = 0;
+      for( int i = 0; i < nodes.size(); i++ ) {
+         BuildNode node = nodes.get( i );
+         node.id = i;
+         nodes.addAll( node.children.values() );
+         edges += node.children.size();
+      }
+
+      firstEdge = new int[nodes.size()];
+      edgeCount = new int[nodes.size()];
+      types = new byte[nodes.size()];
+      edgeChars = new char[edges];
+      edgeNodes = new int[edges];
+
+      int edge = 0;
+      for( BuildNode node : nodes ) {
+         firstEdge[node.id] = edge;
+         edgeCount[node.id] = node.children.size();
+         types[node.id] = (byte) node.getType().ordinal();
+
+         for( BuildNode child : node.children.values() ) {
+            edgeChars[edge] = child.c;
+            edgeNodes[edge] = child.id;
+            edge++;
+         }
+      }
+   }
+
+   /**
+    * A trie node used while building the index.
+    */
+   private static class BuildNode
+   {
+      private char c;
+      private int id;
+      private TreeMap<Character,BuildNode> children = new TreeMap<Character,BuildNode>();
+
+      // Counts of the words ending at this node, then after total() the
+      // words ending at or below this node.
+      private int keywords = 0, entries = 0, deprecated = 0;
+
+      /**
+       * Add a word below this node.
+       * @param word The word to add.
+       * @param pos The position in the word this node represents.
+       * @return The node the word ends at.
+       */
+      BuildNode add( String word, int pos )
+      {
+         if( pos == word.length() ) return this;
+
+         char next = word.charAt( pos );
+         BuildNode child = children.get( next );
+         if( child == null ) {
+            child = new BuildNode();
+            child.c = next;
+            children.put( next, child );
+         }
+
+         return child.add( word, pos + 1 );
+      }
+
+      /**
+       * Add the counts of all the nodes below this one to this node's counts.
+       */
+      void total()
+      {
+         for( BuildNode child : children.values() ) {
+            child.total();
+            keywords += child.keywords;
+            entries += child.entries;
+            deprecated += child.deprecated;
+         }
+      }
+
+      /**
+       * Get the type of the words starting with this node's prefix.
+       * Keywords take priority, and a word is only deprecated if the single
+       * thing it could be is a deprecated function.
+       * @return The type of this node.
+       */
+      WordType getType()
+      {
+         if( keywords > 0 ) return WordType.KEYWORD;
+         if( entries == 1 && deprecated == 1 ) return WordType.DEPRECATED;
+         if( entries > 0 ) return WordType.FUNCTION;
+         return WordType.NONE;
+      }
+   }
+
+}
@@ -32,6 +32,9 @@ public enum Colour
    TS_CONTEXT_BG           ( 255, 255, 255 ),
    TS_CONTEXT_NORM         ( 50,  50,  50  ),
    TS_CONTEXT_BOLD         ( 0,   0,   0  ),
+   STATS_HEAT              ( 255, 140, 80  ),
+   STATS_EXECUTIONS        ( 40,  90,  180 ),
+   STATS_ABORTS            ( 200, 40,  40  ),
    ;
    
    private RGB colour;
@@ -26,6 +26,8 @@ import com.zeus.eclipsePlugin.ZLang;
 public enum Preference
 {   
    SOAP_RATE         ( "soap.rate", Format.MILISECONDS, 1000, ZLang.ZL_PREF_soap_rate ),
+   SOAP_BATCH_SIZE   ( "soap.batchSize", Format.POSITIVE_INT, 100, ZLang.ZL_PREF_soap_batchSize ),
+   STATS_RATE        ( "soap.statsRate", Format.MILISECONDS, 10000, ZLang.ZL_PREF_soap_statsRate ),
    
    DEBUG_ENABLED     ( "debug.enabled", Format.BOOLEAN, false, ZLang.ZL_PREF_debug_enabled ),
    DEBUG_UI          ( "debug.ui", Format.BOOLEAN, false, ZLang.ZL_PREF_debug_ui ),
@@ -60,6 +62,10 @@ public enum Preference
    TASK_TAGS         ( "editor.task.tags", Format.STRING_LIST, 
                        ZLang.ZL_FIXME + ":HIGH," + ZLang.ZL_TODO + ":NORMAL", 
                        ZLang.ZL_PREF_editor_task_tags ),
+   
+   COST_ENABLE       ( "editor.cost.enable", Format.BOOLEAN, true, ZLang.ZL_PREF_editor_cost_enable ),
+   COST_REPEAT       ( "editor.cost.repeat", Format.POSITIVE_INT, 2, ZLang.ZL_PREF_editor_cost_repeat ),
+   COST_LIMIT        ( "editor.cost.limit", Format.POSITIVE_INT, 40, ZLang.ZL_PREF_editor_cost_limit ),
    ;
    
    /**
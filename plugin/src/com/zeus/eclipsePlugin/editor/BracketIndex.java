@@ -0,0 +1,385 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.editor;
+
+import java.util.ArrayList;
+
+import org.eclipse.jface.text.Region;
+
+/**
+ * The brackets, commas and semicolons in the code of each line of a document,
+ * used to find which bracket the cursor is in without reading back through the
+ * document. Kept up to date by the CodeLineModel.
+ *
+ * For each line we store how it changes the bracket depth when read backwards,
+ * and the lowest the depth gets. These are kept in a tree so the line holding
+ * the bracket that encloses a position can be found in O(log n) steps, however
+ * far away it is. Changed lines are updated in the tree when it is next 
+ * needed. If lines were replaced by the same number of lines only they are
+ * updated, otherwise the tree is rebuilt.
+ */
+class BracketIndex
+{
+   /** Larger than any depth, used for lines with no opening brackets. */
+   private static final int NONE = Integer.MAX_VALUE / 4;
+
+   private ArrayList<Line> lines = new ArrayList<Line>();
+
+   // The tree, with the lines as leaves from position size. Each node has
+   // the total and lowest depth of its lines, read backwards.
+   private int size = 0;
+   private int[] total, lowest;
+   private int treeLines = -1;
+   
+   // The lines that have changed since the tree was last updated
+   private int changedFrom = Integer.MAX_VALUE, changedTo = -1;
+
+   /**
+    * Insert a line.
+    * @param pos The line number to insert it at.
+    * @param line The line to insert.
+    */
+   void add( int pos, Line line )
+   {
+      lines.add( pos, line );
+      changed( pos, pos );
+   }
+
+   /**
+    * Replace a line.
+    * @param pos The line number to replace.
+    * @param line The new line.
+    */
+   void set( int pos, Line line )
+   {
+      lines.set( pos, line );
+      changed( pos, pos );
+   }
+
+   /**
+    * Remove some lines.
+    * @param from The first line to remove.
+    * @param to The line after the last one to remove.
+    */
+   void remove( int from, int to )
+   {
+      if( from == to ) return;
+      lines.subList( from, to ).clear();
+      changed( from, to - 1 );
+   }
+
+   /**
+    * Remove all the lines.
+    */
+   void clear()
+   {
+      lines.clear();
+      treeLines = -1;
+   }
+   
+   /**
+    * Record that some lines have changed. Lines should only be removed and
+    * added within the changed range, lines after it are assumed not to move
+    * if the number of lines ends up the same.
+    * @param from The first changed line.
+    * @param to The last changed line.
+    */
+   private void changed( int from, int to )
+   {
+      changedFrom = Math.min( changedFrom, from );
+      changedTo = Math.max( changedTo, to );
+   }
+
+   /**
+    * Get a line.
+    * @param pos The line number.
+    * @return The brackets on the line.
+    */
+   Line get( int pos )
+   {
+      return lines.get( pos );
+   }
+
+   /**
+    * Find the innermost opening bracket that is still open at a position, or
+    * the end of the statement the position is in, whichever comes first.
+    * @param lineNum The line the position is on.
+    * @param pos The position relative to the start of the line.
+    * @return The line number and the token index within that line, or null
+    * if the position is not in any brackets.
+    */
+   int[] findOpen( int lineNum, int pos )
+   {
+      // Look back through the current line first
+      Line line = lines.get( lineNum );
+      int i = line.count - 1;
+      while( i >= 0 && line.positions[i] >= pos ) i--;
+
+      int[] needed = { 1 };
+      i = scanBack( line, i, needed );
+      if( i >= 0 ) return new int[] { lineNum, i };
+      if( lineNum == 0 ) return null;
+
+      // Find the line it is on using the tree
+      updateTree();
+      int found = search( 1, 0, size - 1, lineNum - 1, needed );
+      if( found < 0 ) return null;
+
+      line = lines.get( found );
+      i = scanBack( line, line.count - 1, needed );
+      if( i >= 0 ) return new int[] { found, i };
+
+      // The tree and the line disagree, shouldn't happen.
+      return null;
+   }
+
+   /**
+    * Read back through the tokens of a line, looking for the opening bracket
+    * or semicolon that ends the search.
+    * @param line The line to read.
+    * @param from The index of the token to start at.
+    * @param needed The number of opening brackets still needed, updated as
+    * the line is read.
+    * @return The index of the token found, or -1 if it is not on this line.
+    */
+   private static int scanBack( Line line, int from, int[] needed )
+   {
+      for( int i = from; i >= 0; i-- ) {
+         if( line.tokens[i] == ';' ) {
+            if( needed[0] == 1 ) return i;
+            continue;
+         }
+         needed[0] += change( line.tokens[i] );
+         if( needed[0] <= 0 ) return i;
+      }
+      return -1;
+   }
+
+   /**
+    * How does a token change the number of opening brackets we need to find,
+    * when reading backwards? Semicolons end the search like an opening 
+    * bracket if they are at the level we are looking at, but they don't 
+    * change the depth.
+    * @param token The token.
+    * @return The change, or 0 for tokens that don't matter.
+    */
+   private static int change( char token )
+   {
+      switch( token ) {
+         case ')': case ']': case '}': return 1;
+         case '(': case '[': case '{': case ';': return -1;
+         default: return 0;
+      }
+   }
+
+   /**
+    * Count the commas directly inside a bracket, before a position.
+    * @param lineNum The line of the bracket.
+    * @param token The token index of the bracket within its line.
+    * @param endLine The line of the end position.
+    * @param endPos The end position, relative to the start of its line.
+    * @return The number of commas at the top level of the bracket.
+    */
+   int countCommas( int lineNum, int token, int endLine, int endPos )
+   {
+      int depth = 0, commas = 0;
+      int i = token + 1;
+
+      for( ; lineNum <= endLine; lineNum++, i = 0 ) {
+         Line line = lines.get( lineNum );
+         for( ; i < line.count; i++ ) {
+            if( lineNum == endLine && line.positions[i] >= endPos ) break;
+
+            switch( line.tokens[i] ) {
+               case '(': case '[': case '{': depth++; break;
+               case ')': case ']': case '}': depth--; break;
+               case ',': if( depth == 0 ) commas++; break;
+            }
+         }
+      }
+
+      return commas;
+   }
+
+   /**
+    * Find the last line at or before maxLine containing the bracket we are
+    * looking for. Lines that are skipped are added to needed.
+    * @param node The node of the tree to search.
+    * @param from The first line covered by the node.
+    * @param to The last line covered by the node.
+    * @param maxLine The last line to look at.
+    * @param needed The number of opening brackets still needed.
+    * @return The line number, or -1 if it is not in this node.
+    */
+   private int search( int node, int from, int to, int maxLine, int[] needed )
+   {
+      if( from > maxLine ) return -1;
+
+      if( to <= maxLine && needed[0] + lowest[node] > 0 ) {
+         needed[0] += total[node];
+         return -1;
+      }
+
+      if( from == to ) return from;
+
+      int mid = ( from + to ) / 2;
+      int found = search( node * 2 + 1, mid + 1, to, maxLine, needed );
+      if( found >= 0 ) return found;
+      return search( node * 2, from, mid, maxLine, needed );
+   }
+
+   /**
+    * Bring the tree up to date with the lines.
+    */
+   private void updateTree()
+   {
+      if( treeLines != lines.size() ) {
+         build();
+      } else {
+         int to = Math.min( changedTo, lines.size() - 1 );
+         for( int i = changedFrom; i <= to; i++ ) update( i );
+      }
+      
+      changedFrom = Integer.MAX_VALUE;
+      changedTo = -1;
+   }
+   
+   /**
+    * Build the tree from the lines.
+    */
+   private void build()
+   {
+      size = 1;
+      while( size < lines.size() ) size *= 2;
+
+      total = new int[size * 2];
+      lowest = new int[size * 2];
+
+      for( int i = 0; i < size; i++ ) {
+         if( i < lines.size() ) {
+            total[size + i] = lines.get( i ).total;
+            lowest[size + i] = lines.get( i ).lowest;
+         } else {
+            lowest[size + i] = NONE;
+         }
+      }
+      for( int node = size - 1; node > 0; node-- ) {
+         combine( node );
+      }
+
+      treeLines = lines.size();
+   }
+
+   /**
+    * Update the tree after a line has changed.
+    * @param pos The line that changed.
+    */
+   private void update( int pos )
+   {
+      int node = size + pos;
+      total[node] = lines.get( pos ).total;
+      lowest[node] = lines.get( pos ).lowest;
+
+      for( node /= 2; node > 0; node /= 2 ) {
+         combine( node );
+      }
+   }
+
+   /**
+    * Work out a node of the tree from its children. The right hand child is
+    * read first, as we read backwards.
+    */
+   private void combine( int node )
+   {
+      int left = node * 2, right = node * 2 + 1;
+      total[node] = total[left] + total[right];
+      lowest[node] = Math.min( lowest[right], total[right] + lowest[left] );
+   }
+
+   /**
+    * The brackets, commas and semicolons in the code part of a line, with
+    * their positions relative to the start of the line.
+    */
+   static class Line
+   {
+      char[] tokens;
+      int[] positions;
+      int count = 0;
+
+      /** The change in depth reading backwards through the line. */
+      int total = 0;
+
+      /** The lowest depth reached before an opening bracket or semicolon. */
+      int lowest = NONE;
+
+      /**
+       * Find the tokens in a line.
+       * @param text The text of the line.
+       * @param info The areas of the line, relative to the start of the line.
+       */
+      Line( String text, CodeLine info )
+      {
+         int end = Math.min( text.length(), info.commentStart );
+         tokens = new char[4];
+         positions = new int[4];
+
+         int area = 0;
+         Region[] strings = info.stringAreas;
+
+         for( int i = 0; i < end; i++ ) {
+            // Skip over strings, which cover the characters after their start
+            while( area < strings.length &&
+                   strings[area].getOffset() + strings[area].getLength() < i )
+            {
+               area++;
+            }
+            if( area < strings.length && i > strings[area].getOffset() ) {
+               continue;
+            }
+
+            char c = text.charAt( i );
+            switch( c ) {
+               case '(': case '[': case '{': case ')': case ']': case '}':
+               case ',': case ';':
+                  addToken( c, i );
+            }
+         }
+
+         // Read it backwards to get the depth information
+         for( int i = count - 1; i >= 0; i-- ) {
+            int change = change( tokens[i] );
+            if( change < 0 ) lowest = Math.min( lowest, total - 1 );
+            if( tokens[i] != ';' ) total += change;
+         }
+      }
+
+      /**
+       * Add a token to the end of the line.
+       */
+      private void addToken( char c, int pos )
+      {
+         if( count == tokens.length ) {
+            char[] newTokens = new char[count * 2];
+            int[] newPositions = new int[count * 2];
+            System.arraycopy( tokens, 0, newTokens, 0, count );
+            System.arraycopy( positions, 0, newPositions, 0, count );
+            tokens = newTokens;
+            positions = newPositions;
+         }
+         tokens[count] = c;
+         positions[count] = pos;
+         count++;
+      }
+   }
+
+}
@@ -29,6 +29,9 @@ public class CodeLine
    
    public Character unterminatedString;
    
+   /** The string this line starts in, if known. */
+   public Character startString;
+   
    public Region[] stringAreas;
 
    /* Override */
@@ -41,6 +44,38 @@ public class CodeLine
              ZUtil.join( ", ", stringAreas );
    }
    
+   /**
+    * Copy this line information, moving it to a different position. Used to
+    * turn line information relative to the start of a line into information
+    * relative to the start of a document.
+    * @param offset The amount to add to every position.
+    * @param lineNum The line number of the copy.
+    * @return A copy of this line, moved by offset.
+    */
+   public CodeLine moveTo( int offset, int lineNum )
+   {
+      CodeLine line = new CodeLine();
+      line.num = lineNum;
+      line.length = length;
+      line.start = start + offset;
+      line.end = end + offset;
+      line.codeStart = codeStart + offset;
+      line.codeEnd = codeEnd + offset;
+      line.commentStart = commentStart + offset;
+      line.commentEnd = commentEnd + offset;
+      line.unterminatedString = unterminatedString;
+      line.startString = startString;
+      
+      line.stringAreas = new Region[stringAreas.length];
+      for( int i = 0; i < stringAreas.length; i++ ) {
+         line.stringAreas[i] = new Region( 
+            stringAreas[i].getOffset() + offset, stringAreas[i].getLength() 
+         );
+      }
+      
+      return line;
+   }
+   
    /**
     * Get the partition type for the specified offset. The offset must be within 
     * this line.
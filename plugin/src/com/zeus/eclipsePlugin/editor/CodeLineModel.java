@@ -0,0 +1,339 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.editor;
+
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.IRegion;
+
+import com.zeus.eclipsePlugin.ZDebug;
+
+/**
+ * Keeps the CodeLine information for every line of a TrafficScript document
+ * up to date as it is edited, so it doesn't have to be worked out from the
+ * whole text each time it is needed.
+ *
+ * Each line is stored relative to the start of the line, with the string
+ * state the line starts in. When the document changes only the changed lines
+ * are scanned, followed by any lines after them whose start state has changed
+ * (e.g. because a quote was added), stopping when the state settles.
+ * 
+ * The brackets on each line are also kept in a BracketIndex, so the bracket
+ * (and function call) a position is in can be found quickly.
+ */
+public class CodeLineModel implements IDocumentListener
+{
+   /** The models of all connected documents. */
+   private static WeakHashMap<IDocument,CodeLineModel> models =
+      new WeakHashMap<IDocument,CodeLineModel>();
+
+   /** The line information, relative to the start of each line. */
+   private ArrayList<CodeLine> lines = new ArrayList<CodeLine>();
+   
+   /** The brackets on each line. */
+   private BracketIndex brackets = new BracketIndex();
+
+   // Lines being changed, recorded before each change
+   private int changeFirstLine, changeLastLine;
+
+   /** The modification stamp of the document the lines are for. */
+   private long stamp = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+
+   /**
+    * Create a model, and scan the document's current contents.
+    * @param doc The document to model.
+    */
+   private CodeLineModel( IDocument doc )
+   {
+      try {
+         rescan( doc, 0, -1, null );
+      } catch( BadLocationException e ) {
+         ZDebug.printStackTrace( e, "Failed to scan document" );
+      }
+      stamp = getModificationStamp( doc );
+   }
+
+   /**
+    * Start keeping line information for a document. Does nothing if the
+    * document is already connected.
+    * @param doc The document to keep line information for.
+    */
+   public static synchronized void connect( IDocument doc )
+   {
+      if( models.containsKey( doc ) ) return;
+
+      CodeLineModel model = new CodeLineModel( doc );
+      doc.addDocumentListener( model );
+      models.put( doc, model );
+   }
+
+   /**
+    * Get the line model for a document.
+    * @param doc The document to get the model for.
+    * @return The model for the document, or null if it has not been connected.
+    */
+   public static synchronized CodeLineModel getModel( IDocument doc )
+   {
+      return models.get( doc );
+   }
+
+   /**
+    * Get the information for a line.
+    * @param doc The document this model is for.
+    * @param lineNum The line number, starting at 0.
+    * @return The line information, relative to the start of the document.
+    * @throws BadLocationException If the line does not exist.
+    */
+   public synchronized CodeLine getLine( IDocument doc, int lineNum )
+      throws BadLocationException
+   {
+      if( lineNum < 0 || lineNum >= lines.size() ) {
+         throw new BadLocationException( "No line " + lineNum );
+      }
+      return lines.get( lineNum ).moveTo( doc.getLineOffset( lineNum ), lineNum + 1 );
+   }
+
+   /**
+    * Get the information for every line in the document. This is the same as
+    * CodeUtil.getAllLineAreas() for the document's contents.
+    * @param doc The document this model is for.
+    * @return An array of CodeLines, one for each line.
+    * @throws BadLocationException If the document is out of sync with the 
+    * model.
+    */
+   public synchronized CodeLine[] getLines( IDocument doc ) 
+      throws BadLocationException
+   {
+      CodeLine[] result = new CodeLine[lines.size()];
+      for( int i = 0; i < result.length; i++ ) {
+         result[i] = lines.get( i ).moveTo( doc.getLineOffset( i ), i + 1 );
+      }
+      return result;
+   }
+   
+   /**
+    * Get the information for every line in a particular version of the
+    * document, for use outside the SWT thread where the document can change
+    * at any time. Lines are only returned if both the model and the document
+    * are still at that version afterwards.
+    * @param doc The document this model is for.
+    * @param docStamp The modification stamp of the version of the document
+    * the lines are wanted for, see getModificationStamp().
+    * @return An array of CodeLines, one for each line, or null if the model
+    * or document is not at that version.
+    * @throws BadLocationException If the document is out of sync with the 
+    * model.
+    */
+   public synchronized CodeLine[] getLines( IDocument doc, long docStamp ) 
+      throws BadLocationException
+   {
+      if( docStamp == IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP || 
+          docStamp != stamp ) 
+      {
+         return null;
+      }
+      
+      CodeLine[] result = getLines( doc );
+      return getModificationStamp( doc ) == docStamp ? result : null;
+   }
+   
+   /**
+    * Get the modification stamp of a document.
+    * @param doc The document to get the stamp of.
+    * @return The document's modification stamp, or UNKNOWN_MODIFICATION_STAMP
+    * if it does not have one.
+    */
+   public static long getModificationStamp( IDocument doc )
+   {
+      if( doc instanceof IDocumentExtension4 ) {
+         return ((IDocumentExtension4) doc).getModificationStamp();
+      }
+      return IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+   }
+
+   /**
+    * Find the innermost opening bracket that a position is inside. The search
+    * stops at the end of the statement the position is in.
+    * @param doc The document this model is for.
+    * @param offset The position to look from.
+    * @return The offset of the bracket, or -1 if the position is not inside
+    * any brackets in its statement.
+    * @throws BadLocationException If the offset is not in the document.
+    */
+   public synchronized int getEnclosingBracket( IDocument doc, int offset )
+      throws BadLocationException
+   {
+      int lineNum = doc.getLineOfOffset( offset );
+      if( lineNum >= lines.size() ) {
+         throw new BadLocationException( "No line " + lineNum );
+      }
+      
+      int[] found = brackets.findOpen( lineNum, offset - doc.getLineOffset( lineNum ) );
+      if( found == null ) return -1;
+      
+      BracketIndex.Line line = brackets.get( found[0] );
+      if( line.tokens[found[1]] == ';' ) return -1;
+      
+      return doc.getLineOffset( found[0] ) + line.positions[found[1]];
+   }
+   
+   /**
+    * Count the commas directly inside a bracket, i.e. work out which argument
+    * of a function call a position is in.
+    * @param doc The document this model is for.
+    * @param bracket The offset of the opening bracket.
+    * @param offset The position, after the bracket.
+    * @return The number of commas between the bracket and the position that
+    * are not inside other brackets.
+    * @throws BadLocationException If the offsets are not in the document, or
+    * there is no bracket at the passed offset.
+    */
+   public synchronized int countArguments( IDocument doc, int bracket, int offset )
+      throws BadLocationException
+   {
+      int lineNum = doc.getLineOfOffset( bracket );
+      int endLine = doc.getLineOfOffset( offset );
+      if( endLine >= lines.size() ) {
+         throw new BadLocationException( "No line " + endLine );
+      }
+      
+      BracketIndex.Line line = brackets.get( lineNum );
+      int pos = bracket - doc.getLineOffset( lineNum );
+      int token = 0;
+      while( token < line.count && line.positions[token] != pos ) token++;
+      if( token == line.count ) {
+         throw new BadLocationException( "No bracket at " + bracket );
+      }
+      
+      return brackets.countCommas( lineNum, token, endLine, 
+         offset - doc.getLineOffset( endLine ) 
+      );
+   }
+
+   /**
+    * Record which lines are about to change.
+    */
+   /* Override */
+   public synchronized void documentAboutToBeChanged( DocumentEvent event )
+   {
+      try {
+         IDocument doc = event.getDocument();
+         changeFirstLine = doc.getLineOfOffset( event.getOffset() );
+         changeLastLine = doc.getLineOfOffset( event.getOffset() + event.getLength() );
+      } catch( BadLocationException e ) {
+         ZDebug.printStackTrace( e, "Bad document event ", event );
+         changeFirstLine = -1;
+      }
+   }
+
+   /**
+    * Re-scan the lines that have changed.
+    */
+   /* Override */
+   public synchronized void documentChanged( DocumentEvent event )
+   {
+      IDocument doc = event.getDocument();
+      try {
+         if( changeFirstLine < 0 || changeLastLine >= lines.size() ) {
+            throw new BadLocationException( "Lines out of sync" );
+         }
+
+         int textLength = event.getText() == null ? 0 : event.getText().length();
+         int newLastLine = doc.getLineOfOffset( event.getOffset() + textLength );
+
+         Character inString = null;
+         if( changeFirstLine > 0 ) {
+            inString = lines.get( changeFirstLine - 1 ).unterminatedString;
+         }
+
+         lines.subList( changeFirstLine, changeLastLine + 1 ).clear();
+         brackets.remove( changeFirstLine, changeLastLine + 1 );
+         rescan( doc, changeFirstLine, newLastLine, inString );
+
+      } catch( BadLocationException e ) {
+         ZDebug.printStackTrace( e, "Failed to update lines, scanning document" );
+         lines.clear();
+         brackets.clear();
+         try {
+            rescan( doc, 0, -1, null );
+         } catch( BadLocationException e2 ) {
+            ZDebug.printStackTrace( e2, "Failed to scan document" );
+         }
+      }
+      
+      stamp = event.getModificationStamp();
+   }
+
+   /**
+    * Scan lines of the document and insert them into the list of lines. Lines
+    * after lastLine are also scanned if their start state no longer matches,
+    * replacing the old information.
+    * @param doc The document to scan.
+    * @param firstLine The first line to scan.
+    * @param lastLine The last line that must be scanned, or -1 for all lines.
+    * @param inString The string state the first line starts in.
+    * @throws BadLocationException If the document changed during the scan.
+    */
+   private void rescan( IDocument doc, int firstLine, int lastLine,
+      Character inString ) throws BadLocationException
+   {
+      int numLines = doc.getNumberOfLines();
+      if( lastLine < 0 ) lastLine = numLines - 1;
+
+      int lineNum = firstLine;
+      int pos = firstLine;
+      int scanned = 0;
+
+      for( ; lineNum < numLines; lineNum++ ) {
+         // After the changed lines, stop once the state matches what we had
+         boolean replace = lineNum > lastLine;
+         if( replace ) {
+            if( pos >= lines.size() ) break;
+            if( equal( lines.get( pos ).startString, inString ) ) break;
+         }
+
+         IRegion region = doc.getLineInformation( lineNum );
+         String text = doc.get( region.getOffset(), region.getLength() );
+         CodeLine line = CodeUtil.getLineAreas( text, 0, inString );
+         line.startString = inString;
+         inString = line.unterminatedString;
+
+         BracketIndex.Line lineBrackets = new BracketIndex.Line( text, line );
+         if( replace ) {
+            brackets.set( pos, lineBrackets );
+            lines.set( pos++, line );
+         } else {
+            brackets.add( pos, lineBrackets );
+            lines.add( pos++, line );
+         }
+         scanned++;
+      }
+
+      ZDebug.print( 6, "Scanned ", scanned, " lines from line ", firstLine );
+   }
+
+   /**
+    * Compare two string states, either of which may be null.
+    */
+   private static boolean equal( Character a, Character b )
+   {
+      return a == null ? b == null : a.equals( b );
+   }
+
+}
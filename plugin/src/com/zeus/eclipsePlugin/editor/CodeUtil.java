@@ -12,6 +12,7 @@
 
 package com.zeus.eclipsePlugin.editor;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -32,6 +33,8 @@ import com.zeus.eclipsePlugin.consts.Partition;
  */
 public class CodeUtil
 {
+   private static final ZDebug.Logger log = ZDebug.getLogger( CodeUtil.class );
+   
    private static HashMap<String,Partition> partitionMap = null;
    
    /** 
@@ -78,7 +81,9 @@ public class CodeUtil
     */
    public static CodeLine getLineAreas( String line, int offset, Character inString ) 
    {
-      ZDebug.print( 3, "getLineAreas( '", line, "', ", offset, ", ", inString, " )" ); 
+      if( log.isEnabled( 3 ) ) {
+         log.print( 3, "getLineAreas( '", line, "', ", offset, ", ", inString, " )" );
+      }
       CodeLine lineData = new CodeLine();
 
       lineData.num = -1; // We don't know the line
@@ -126,7 +131,7 @@ public class CodeUtil
       
       if( inString != null ) {
          stringAreas.add( 
-            new Region( stringStart + offset, (lineData.end  + 1)- stringStart) 
+            new Region( stringStart + offset, (line.length() + 1) - stringStart ) 
          );
       }
       
@@ -147,6 +152,12 @@ public class CodeUtil
    public static CodeLine getLineAreas( IDocument doc, int offset ) 
    {
       try {
+         // Use the line model if the document has one
+         CodeLineModel model = CodeLineModel.getModel( doc );
+         if( model != null ) {
+            return model.getLine( doc, doc.getLineOfOffset( offset ) );
+         }
+         
          IRegion lineRegion = doc.getLineInformationOfOffset( offset );
          String line = doc.get( lineRegion.getOffset(), lineRegion.getLength() );
          Character inString = null;
@@ -173,21 +184,47 @@ public class CodeUtil
     * line).
     */
    public static CodeLine[] getAllLineAreas( String text ) {
-      LinkedList<CodeLine> startList = new LinkedList<CodeLine>();
+      ArrayList<CodeLine> lines = new ArrayList<CodeLine>();
       
       int len = 0, lineNum = 0;
       Character inString = null;
-      for( String line : text.split( "\n", -10000 ) ) {
+      while( true ) {
+         int end = text.indexOf( '\n', len );
+         String line = text.substring( len, end == -1 ? text.length() : end );
+         
          lineNum++;
          CodeLine lineData = getLineAreas( line, len, inString );
+         lineData.startString = inString;
          inString = lineData.unterminatedString;
          lineData.num = lineNum;
-               
-         len += line.length() + 1;
-         startList.add( lineData );   
+         lines.add( lineData );
+         
+         if( end == -1 ) break;
+         len = end + 1;
+      }
+      
+      return lines.toArray( new CodeLine[lines.size()] );
+   }
+   
+   /**
+    * Get the CodeLines for an entire document. If the document has a 
+    * {@link CodeLineModel} its lines are used rather than scanning the whole
+    * document.
+    * @param doc The document to get the lines of.
+    * @return An array of CodeLine objects, one for each line in the document.
+    */
+   public static CodeLine[] getAllLineAreas( IDocument doc ) 
+   {
+      CodeLineModel model = CodeLineModel.getModel( doc );
+      if( model != null ) {
+         try {
+            return model.getLines( doc );
+         } catch( BadLocationException e ) {
+            ZDebug.printStackTrace( e, "Line model out of sync with document" );
+         }
       }
       
-      return startList.toArray( new CodeLine[startList.size()] );
+      return getAllLineAreas( doc.get() );
    }
    
    /**
@@ -239,10 +276,10 @@ public class CodeUtil
       int start = offset, end = offset;
       
       // Expand left
-      ZDebug.print( 7, "Expand Left" );
+      log.print( 7, "Expand Left" );
       while( start >= 0 ) {
          c = line.charAt( start );
-         ZDebug.print( 9, c, " - ", start );
+         if( log.isEnabled( 9 ) ) log.print( 9, c, " - ", start );
          if( Character.isLetterOrDigit( c ) || c == '.' ) {
             start--;
          } else if( c == '$' ) {
@@ -254,10 +291,10 @@ public class CodeUtil
       start++;
       
       // Expand right
-      ZDebug.print( 7, "Expand Right" );
+      log.print( 7, "Expand Right" );
       while( end < line.length() ) {
          c = line.charAt( end );
-         ZDebug.print( 9, c, " - ", end );
+         if( log.isEnabled( 9 ) ) log.print( 9, c, " - ", end );
          if( Character.isLetterOrDigit( c ) || c == '.' ) {
             end++;
          } else if( c == '(' || c == ' ' ) {
@@ -15,9 +15,14 @@ package com.zeus.eclipsePlugin.editor;
 import org.eclipse.jface.text.source.ISourceViewer;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.events.PaintEvent;
+import org.eclipse.swt.events.PaintListener;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.events.SelectionListener;
 import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Canvas;
@@ -25,6 +30,7 @@ import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Label;
 
+import com.zeus.eclipsePlugin.ColourManager;
 import com.zeus.eclipsePlugin.ZDebug;
 import com.zeus.eclipsePlugin.ZXTMPlugin;
 import com.zeus.eclipsePlugin.consts.Colour;
@@ -33,13 +39,16 @@ import com.zeus.eclipsePlugin.swt.SWTUtil;
 
 /**
  * This class creates the notification bar at the bottom of the TrafficScript
- * editor when there is a problem.
+ * editor when there is a problem. It can also show a small graph (sparkline)
+ * of the recent load of the rule.
  */
 public class EditorNotification extends Thread
 {
    private TrafficScriptEditor editor;
    
    private static final int NOTIFY_HEIGHT = 38; 
+   private static final int SPARKLINE_WIDTH = 120;
+   private static final int SPARKLINE_HEIGHT = 24;
    
    /**
     * Create the notification bar, and start the setup thread.
@@ -67,11 +76,16 @@ public class EditorNotification extends Thread
    private GridLayout layout;
    private AnimationTimer timer;   
    private Label labelText;
+   private Canvas sparkline;
    private Button button1;
    
    private String msg = "";
    private String buttonText1 = "";
    private ButtonListener buttonListener1;
+   
+   // The executions and aborts drawn by the sparkline, or null for none
+   private float[][] sparkRates = null;
+   private boolean sparkChanged = false;
       
    private int last;
    private Color bgColour;
@@ -164,6 +178,13 @@ public class EditorNotification extends Thread
             labelText.setBackground( bgColour );
             SWTUtil.gridDataFillHorizontal( labelText );
             
+            sparkline = new Canvas( group, SWT.NONE );
+            sparkline.setBackground( bgColour );
+            sparkline.addPaintListener( new SparklinePainter() );
+            SWTUtil.gridDataPreferredWidth( sparkline, SPARKLINE_WIDTH );
+            SWTUtil.gridDataPreferredHeight( sparkline, SPARKLINE_HEIGHT );
+            showSparkline( sparkRates != null );
+            
             text = buttonText1 != null ? buttonText1 : ""; 
             button1 = SWTUtil.addButton( group, text );
             button1.addSelectionListener( buttonListener1 );
@@ -196,6 +217,15 @@ public class EditorNotification extends Thread
             button1.setVisible( false );
          }
          
+         if( sparkChanged ) {
+            sparkChanged = false;
+            if( sparkline.getVisible() != ( sparkRates != null ) ) {
+               showSparkline( sparkRates != null );
+               group.layout( true );
+            }
+            sparkline.redraw();
+         }
+         
          if( timer.getTime() == last ) {
             return;
          }
@@ -238,6 +268,39 @@ public class EditorNotification extends Thread
       this.msg = msg;      
    }
    
+   /**
+    * Set the rates shown by the sparkline in the bar. Both arrays are drawn
+    * against the same scale, NaN values leave gaps.
+    * @param executions The recent execution rates, oldest first, or null to
+    * hide the sparkline.
+    * @param aborts The recent abort rates, oldest first.
+    * @param count The number of rates to use from each array.
+    */
+   public void setSparkline( float[] executions, float[] aborts, int count )
+   {
+      float[][] rates = null;
+      if( executions != null && count > 1 ) {
+         rates = new float[2][count];
+         System.arraycopy( executions, 0, rates[0], 0, count );
+         System.arraycopy( aborts, 0, rates[1], 0, count );
+      }
+      
+      if( rates == null && sparkRates == null ) return;
+      this.sparkRates = rates;
+      this.sparkChanged = true;
+   }
+   
+   /**
+    * Show or hide the sparkline, removing it from the layout when hidden.
+    * Must be called from the SWT thread.
+    * @param show True to show the sparkline.
+    */
+   private void showSparkline( boolean show )
+   {
+      sparkline.setVisible( show );
+      ((GridData) sparkline.getLayoutData()).exclude = !show;
+   }
+   
    /**
     * Add a button to the bar, which will call the passed action when clicked.
     * @param text The text on the button.
@@ -278,6 +341,7 @@ public class EditorNotification extends Thread
       if( superParent != null && (
             superParent.isDisposed() ||
             labelText.isDisposed() ||
+            sparkline.isDisposed() ||
             button1.isDisposed() ) 
         ) 
       {
@@ -288,6 +352,57 @@ public class EditorNotification extends Thread
       return false;
    }
    
+   /**
+    * Draws the sparkline, the executions with the aborts underneath, scaled
+    * so the highest rate reaches the top.
+    */
+   class SparklinePainter implements PaintListener
+   {
+      /* Override */
+      public void paintControl( PaintEvent event )
+      {
+         float[][] rates = sparkRates;
+         if( rates == null ) return;
+         
+         float max = 0;
+         for( float[] line : rates ) {
+            for( float rate : line ) {
+               if( rate > max ) max = rate;
+            }
+         }
+         if( max <= 0 ) max = 1;
+         
+         Point size = sparkline.getSize();
+         ColourManager colours = ZXTMPlugin.getDefault().getColourManager();
+         event.gc.setForeground( colours.getColour( Colour.STATS_ABORTS ) );
+         drawLine( event.gc, rates[1], max, size );
+         event.gc.setForeground( colours.getColour( Colour.STATS_EXECUTIONS ) );
+         drawLine( event.gc, rates[0], max, size );
+      }
+      
+      /**
+       * Draw the line for one set of rates across the whole sparkline.
+       */
+      private void drawLine( GC gc, float[] rates, float max, Point size )
+      {
+         int lastX = -1, lastY = 0;
+         for( int i = 0; i < rates.length; i++ ) {
+            if( Float.isNaN( rates[i] ) ) {
+               lastX = -1;
+               continue;
+            }
+            
+            int x = i * ( size.x - 1 ) / ( rates.length - 1 );
+            int y = size.y - 2 - Math.round( rates[i] / max * ( size.y - 3 ) );
+            if( lastX >= 0 ) {
+               gc.drawLine( lastX, lastY, x, y );
+            }
+            lastX = x;
+            lastY = y;
+         }
+      }
+   }
+   
    /**
     * Listener for buttons being clicked. Runs the passed Runnable.
     */
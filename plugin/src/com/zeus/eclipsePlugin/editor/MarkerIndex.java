@@ -0,0 +1,461 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.editor;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IMarkerDelta;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+
+import com.zeus.eclipsePlugin.ZDebug;
+import com.zeus.eclipsePlugin.consts.Ids;
+import com.zeus.eclipsePlugin.editor.MarkerUtil.MarkerType;
+
+/**
+ * An in-memory index of this plug-in's markers on a file, so the markers at a
+ * position or on a line can be found without reading the attributes of every
+ * marker on the file. Used by MarkerUtil.
+ *
+ * The index for a file is loaded the first time it is needed, and lookups
+ * wait until the load has finished. Markers created or deleted while it is
+ * loading are still applied, so nothing is missed. After that it
+ * is told about markers MarkerUtil creates and deletes straight away, and is
+ * kept in sync with other changes using the marker deltas of resource change
+ * events. The markers are kept sorted by start position and by line, and the
+ * sorted arrays are rebuilt the next time they are needed after a change.
+ */
+class MarkerIndex
+{
+   private static HashMap<IPath,MarkerIndex> indexes =
+      new HashMap<IPath,MarkerIndex>();
+
+   private static boolean listening = false;
+
+   private IFile file;
+   private HashMap<Long,Entry> entries = new HashMap<Long,Entry>();
+   private boolean loaded = false;
+
+   // The entries sorted by start, with the furthest end of each entry and
+   // those before it. Null when they need to be rebuilt.
+   private Entry[] byStart = null;
+   private int[] maxEnd = null;
+
+   // The entries sorted by line
+   private Entry[] byLine = null;
+
+   /**
+    * Get the index for a file, loading it if it hasn't been used before.
+    * @param file The file to get the index of.
+    * @return The index for the file.
+    */
+   static MarkerIndex get( IFile file )
+   {
+      MarkerIndex index;
+      synchronized( MarkerIndex.class ) {
+         if( !listening ) {
+            ResourcesPlugin.getWorkspace().addResourceChangeListener(
+               new MarkerChangeListener(), IResourceChangeEvent.POST_CHANGE
+            );
+            listening = true;
+         }
+
+         index = indexes.get( file.getFullPath() );
+         if( index != null ) return index;
+
+         index = new MarkerIndex( file );
+         indexes.put( file.getFullPath(), index );
+      }
+
+      index.load();
+      return index;
+   }
+
+   /**
+    * Get the index for a file if it has already been created. It may still be
+    * loading, but changes can be applied to it straight away.
+    * @param file The file to get the index of.
+    * @return The index, or null if it has not been created.
+    */
+   private static synchronized MarkerIndex getLoaded( IFile file )
+   {
+      return indexes.get( file.getFullPath() );
+   }
+
+   /**
+    * Record a marker that has just been created on a file. Does nothing if
+    * the file's index has not been created, as it will be read when it is.
+    * @param file The file the marker is on.
+    * @param marker The new marker.
+    * @param type The type of the marker.
+    * @param line The line the marker is on.
+    * @param start The start of the marker.
+    * @param end The end of the marker.
+    * @param message The marker's message.
+    */
+   static void markerCreated( IFile file, IMarker marker, MarkerType type,
+      int line, int start, int end, String message )
+   {
+      MarkerIndex index = getLoaded( file );
+      if( index != null ) {
+         index.put( new Entry( marker, type, line, start, end, message ) );
+      }
+   }
+
+   /**
+    * Record that a marker has just been deleted.
+    * @param file The file the marker was on.
+    * @param marker The deleted marker.
+    */
+   static void markerDeleted( IFile file, IMarker marker )
+   {
+      MarkerIndex index = getLoaded( file );
+      if( index != null ) {
+         index.remove( marker.getId() );
+      }
+   }
+
+   /**
+    * Create an empty index, use get().
+    */
+   private MarkerIndex( IFile file )
+   {
+      this.file = file;
+   }
+
+   /**
+    * Read all of the plug-in's markers on the file, then let the lookups that
+    * are waiting for it carry on.
+    */
+   private void load()
+   {
+      ZDebug.print( 4, "Indexing markers of ", file );
+      try {
+         IMarker[] markers = file.findMarkers( null, true, IResource.DEPTH_ZERO );
+         for( IMarker marker : markers ) {
+            refresh( marker );
+         }
+      } catch( CoreException e ) {
+         ZDebug.printStackTrace( e, "Exception when finding markers" );
+      } finally {
+         synchronized( this ) {
+            loaded = true;
+            notifyAll();
+         }
+      }
+   }
+
+   /**
+    * Wait until the index has been loaded by the thread that created it. Must
+    * be called holding the index's lock, which is released while waiting so
+    * that load() can add its entries.
+    */
+   private void waitUntilLoaded()
+   {
+      boolean interrupted = false;
+      while( !loaded ) {
+         try {
+            wait();
+         } catch( InterruptedException e ) {
+            interrupted = true;
+         }
+      }
+      if( interrupted ) Thread.currentThread().interrupt();
+   }
+
+   /**
+    * Re-read a marker, adding it to the index if it is one of ours, or
+    * removing it if it is not (or no longer exists).
+    * @param marker The marker to read.
+    */
+   private void refresh( IMarker marker )
+   {
+      try {
+         if( marker.exists() ) {
+            Entry entry = Entry.read( marker );
+            if( entry != null ) {
+               put( entry );
+               return;
+            }
+         }
+      } catch( CoreException e ) {
+         ZDebug.printStackTrace( e, "Exception for marker ", marker );
+      }
+
+      remove( marker.getId() );
+   }
+
+   /**
+    * Add or replace an entry.
+    */
+   private synchronized void put( Entry entry )
+   {
+      entries.put( entry.marker.getId(), entry );
+      byStart = null;
+   }
+
+   /**
+    * Remove the entry for a marker, if there is one.
+    */
+   private synchronized void remove( long id )
+   {
+      if( entries.remove( id ) != null ) {
+         byStart = null;
+      }
+   }
+
+   /**
+    * Get the marker at a position. If more than one marker covers the
+    * position, the one that starts last is returned.
+    * @param position The position from the start of the file.
+    * @return The marker, or null if there are none at the position.
+    */
+   synchronized IMarker findForPos( int position )
+   {
+      waitUntilLoaded();
+      sort();
+
+      // Find the last marker starting at or before the position
+      int low = 0, high = byStart.length - 1, found = -1;
+      while( low <= high ) {
+         int mid = ( low + high ) >>> 1;
+         if( byStart[mid].start <= position ) {
+            found = mid;
+            low = mid + 1;
+         } else {
+            high = mid - 1;
+         }
+      }
+
+      // Go back until no earlier markers reach the position
+      for( int i = found; i >= 0 && maxEnd[i] >= position; i-- ) {
+         Entry entry = byStart[i];
+         if( entry.start >= 0 && entry.end >= position ) {
+            return entry.marker;
+         }
+      }
+
+      return null;
+   }
+
+   /**
+    * Get the markers on a line.
+    * @param line The line number (starting at 1)
+    * @return The markers on the line, in order of their start.
+    */
+   synchronized IMarker[] findForLine( int line )
+   {
+      waitUntilLoaded();
+      sort();
+
+      // Find the first entry on the line
+      int low = 0, high = byLine.length;
+      while( low < high ) {
+         int mid = ( low + high ) >>> 1;
+         if( byLine[mid].line < line ) {
+            low = mid + 1;
+         } else {
+            high = mid;
+         }
+      }
+
+      int end = low;
+      while( end < byLine.length && byLine[end].line == line ) end++;
+
+      IMarker[] markers = new IMarker[end - low];
+      for( int i = low; i < end; i++ ) {
+         markers[i - low] = byLine[i].marker;
+      }
+      return markers;
+   }
+
+   /**
+    * Get the markers of some types, with their details.
+    * @param types The types of marker to find.
+    * @return The entries for the markers of these types.
+    */
+   synchronized Entry[] findOfType( MarkerType ... types )
+   {
+      waitUntilLoaded();
+      LinkedList<Entry> found = new LinkedList<Entry>();
+      for( Entry entry : entries.values() ) {
+         for( MarkerType type : types ) {
+            if( entry.type == type ) {
+               found.add( entry );
+               break;
+            }
+         }
+      }
+
+      return found.toArray( new Entry[found.size()] );
+   }
+
+   /**
+    * Rebuild the sorted arrays if the entries have changed.
+    */
+   private void sort()
+   {
+      if( byStart != null ) return;
+
+      byStart = entries.values().toArray( new Entry[entries.size()] );
+      Arrays.sort( byStart, START_ORDER );
+
+      maxEnd = new int[byStart.length];
+      int furthest = -1;
+      for( int i = 0; i < byStart.length; i++ ) {
+         if( byStart[i].start >= 0 ) {
+            furthest = Math.max( furthest, byStart[i].end );
+         }
+         maxEnd[i] = furthest;
+      }
+
+      byLine = byStart.clone();
+      Arrays.sort( byLine, LINE_ORDER );
+   }
+
+   /** Sorts entries by their start position. */
+   private static final Comparator<Entry> START_ORDER = new Comparator<Entry>() {
+      /* Override */
+      public int compare( Entry a, Entry b )
+      {
+         return a.start < b.start ? -1 : a.start == b.start ? 0 : 1;
+      }
+   };
+
+   /** Sorts entries by their line, and then by start (the sort is stable). */
+   private static final Comparator<Entry> LINE_ORDER = new Comparator<Entry>() {
+      /* Override */
+      public int compare( Entry a, Entry b )
+      {
+         return a.line < b.line ? -1 : a.line == b.line ? 0 : 1;
+      }
+   };
+
+   /**
+    * The details of a marker that the lookups and updates need.
+    */
+   static class Entry
+   {
+      IMarker marker;
+      MarkerType type;
+      int line, start, end;
+      String message;
+
+      Entry( IMarker marker, MarkerType type, int line, int start, int end,
+         String message )
+      {
+         this.marker = marker;
+         this.type = type;
+         this.line = line;
+         this.start = start;
+         this.end = end;
+         this.message = message;
+      }
+
+      /**
+       * Read a marker's attributes in one go.
+       * @param marker The marker to read.
+       * @return The entry for the marker, or null if it isn't one of ours.
+       * @throws CoreException If the marker's attributes can't be read.
+       */
+      static Entry read( IMarker marker ) throws CoreException
+      {
+         Map<?,?> attributes = marker.getAttributes();
+         if( attributes == null ) return null;
+         if( !Ids.PLUGIN.equals( attributes.get( MarkerUtil.MARKER_OWNER ) ) ) {
+            return null;
+         }
+
+         MarkerType type = null;
+         Object typeName = attributes.get( MarkerUtil.MARKER_TYPE );
+         if( typeName != null ) {
+            try {
+               type = MarkerType.valueOf( typeName.toString() );
+            } catch( IllegalArgumentException e ) {}
+         }
+
+         return new Entry( marker, type,
+            getInt( attributes, IMarker.LINE_NUMBER ),
+            getInt( attributes, IMarker.CHAR_START ),
+            getInt( attributes, IMarker.CHAR_END ),
+            (String) attributes.get( IMarker.MESSAGE )
+         );
+      }
+
+      /**
+       * Get an integer attribute, or -1 if it is not set.
+       */
+      private static int getInt( Map<?,?> attributes, String key )
+      {
+         Object value = attributes.get( key );
+         return value instanceof Integer ? (Integer) value : -1;
+      }
+   }
+
+   /**
+    * Applies marker changes to the loaded indexes, and forgets the indexes of
+    * files that have been removed.
+    */
+   private static class MarkerChangeListener implements IResourceChangeListener
+   {
+      /* Override */
+      public void resourceChanged( IResourceChangeEvent event )
+      {
+         IResourceDelta delta = event.getDelta();
+         if( delta == null ) return;
+
+         MarkerIndex[] loaded;
+         synchronized( MarkerIndex.class ) {
+            if( indexes.isEmpty() ) return;
+            loaded = indexes.values().toArray( new MarkerIndex[indexes.size()] );
+         }
+
+         for( MarkerIndex index : loaded ) {
+            IResourceDelta fileDelta = delta.findMember(
+               index.file.getFullPath().makeRelative()
+            );
+            if( fileDelta == null ) continue;
+
+            if( fileDelta.getKind() == IResourceDelta.REMOVED ) {
+               ZDebug.print( 5, "Dropping marker index of ", index.file );
+               synchronized( MarkerIndex.class ) {
+                  indexes.remove( index.file.getFullPath() );
+               }
+               continue;
+            }
+
+            if( ( fileDelta.getFlags() & IResourceDelta.MARKERS ) == 0 ) continue;
+
+            for( IMarkerDelta markerDelta : fileDelta.getMarkerDeltas() ) {
+               if( markerDelta.getKind() == IResourceDelta.REMOVED ) {
+                  index.remove( markerDelta.getId() );
+               } else {
+                  index.refresh( markerDelta.getMarker() );
+               }
+            }
+         }
+      }
+   }
+
+}
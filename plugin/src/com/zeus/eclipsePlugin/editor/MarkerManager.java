@@ -13,17 +13,27 @@
 package com.zeus.eclipsePlugin.editor;
 
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 
 import com.zeus.eclipsePlugin.PreferenceManager;
 import com.zeus.eclipsePlugin.ZDebug;
+import com.zeus.eclipsePlugin.ZLang;
+import com.zeus.eclipsePlugin.ZXTMPlugin;
+import com.zeus.eclipsePlugin.codedata.VersionCodeData;
 import com.zeus.eclipsePlugin.consts.Preference;
+import com.zeus.eclipsePlugin.editor.MarkerUtil.MarkerDetails;
 import com.zeus.eclipsePlugin.editor.MarkerUtil.MarkerType;
 import com.zeus.eclipsePlugin.model.ModelElement;
+import com.zeus.eclipsePlugin.model.ModelController;
 import com.zeus.eclipsePlugin.model.ModelListener;
 import com.zeus.eclipsePlugin.model.Rule;
 import com.zeus.eclipsePlugin.model.RuleProblem;
@@ -42,6 +52,8 @@ import com.zeus.eclipsePlugin.project.ZXTMProject;
  */
 public class MarkerManager implements ModelListener
 {
+   private static CostJob costJob = new CostJob();
+   
    private static String taskTagPref = null;
    private static Pattern pattern = null;
    private static HashMap<String, TaskTag> taskMap = new HashMap<String,TaskTag>();
@@ -89,6 +101,11 @@ public class MarkerManager implements ModelListener
       
       updateErrorMarkers( rule, errors );      
       updateTaskMarkers( rule );
+      
+      // An open editor works out the cost of its own (possibly unsaved) code
+      if( TrafficScriptEditor.getEditorForRule( rule ) == null ) {
+         updateCostMarkers( rule );
+      }
    }
    
    /**
@@ -111,20 +128,20 @@ public class MarkerManager implements ModelListener
    public static void updateErrorMarkers( IFile file, RuleProblem[] errors )
    {
       if( file != null ) {
-         MarkerUtil.removeMarkersOfType( file, 
-            MarkerType.ERROR, MarkerType.WARNING 
-         );
-         
+         LinkedList<MarkerDetails> markers = new LinkedList<MarkerDetails>();
          for( RuleProblem error : errors ){
-            MarkerUtil.createMarker(
+            markers.add( new MarkerDetails(
                error.isError() ? MarkerType.ERROR : MarkerType.WARNING,
-               file, 
                error.getLine(), 
                error.getStart(),
                error.getEnd(),
                error.getDescription()
-            );
+            ) );
          }
+         
+         MarkerUtil.replaceMarkersOfType( file, markers,
+            MarkerType.ERROR, MarkerType.WARNING 
+         );
       }
    }
    
@@ -146,17 +163,25 @@ public class MarkerManager implements ModelListener
     * @param contents The contents of the file
     */
    public static void updateTaskMarkers( IFile file, String contents ) 
+   {
+      if( file == null ) return;
+      updateTaskMarkers( file, contents, CodeUtil.getAllLineAreas( contents ) );
+   }
+   
+   /**
+    * Update the task markers for a particular file, using line information 
+    * that has already been worked out (e.g. by a {@link CodeLineModel}).
+    * @param file The file to update
+    * @param contents The contents of the file
+    * @param lineStarts The line information for the contents.
+    */
+   public static void updateTaskMarkers( IFile file, String contents, CodeLine[] lineStarts ) 
    {
       ZDebug.print( 5, "updateTodoMarkers( ", file, ", contents )" );
       if( file == null ) return;
       
-      MarkerUtil.removeMarkersOfType( file, 
-         MarkerType.TASK_LOW, MarkerType.TASK_NORMAL, MarkerType.TASK_HIGH 
-      );
-      
-      CodeLine[] lineStarts = CodeUtil.getAllLineAreas( contents );
-      
       updateTaskTags();
+      LinkedList<MarkerDetails> markers = new LinkedList<MarkerDetails>();
       
       for( CodeLine line : lineStarts ) {
          ZDebug.print( 10, line.toString() );
@@ -177,14 +202,13 @@ public class MarkerManager implements ModelListener
                ZDebug.print( 5, "Final Tag: ", lastTag, " Text: ", lastText );
                TaskTag tagData = taskMap.get( lastTag );
                
-               MarkerUtil.createMarker(
+               markers.add( new MarkerDetails(
                   MarkerUtil.getTaskTagMarkerType( tagData ),
-                  file, 
                   line.num, 
                   line.commentStart + lastTextStart,
                   line.commentStart + lastTextStart + lastText.length(),
                   lastTag + " " + lastText
-               );
+               ) );
             }
             
             lastTag = tag;
@@ -197,20 +221,92 @@ public class MarkerManager implements ModelListener
             ZDebug.print( 5, "Final Tag: ", lastTag, " Text: ", lastText );
             TaskTag tagData = taskMap.get( lastTag );
             
-            MarkerUtil.createMarker(
+            markers.add( new MarkerDetails(
                MarkerUtil.getTaskTagMarkerType( tagData ),
-               file, 
                line.num, 
                line.commentStart + lastTextStart,
                line.commentStart + lastTextStart + lastText.length(),
                lastTag + " " + lastText
-            );
+            ) );
          }
         
       }
+      
+      MarkerUtil.replaceMarkersOfType( file, markers,
+         MarkerType.TASK_LOW, MarkerType.TASK_NORMAL, MarkerType.TASK_HIGH 
+      );
          
    }
 
+   /**
+    * Update the cost warnings for a rule, using the code data for the
+    * version of its ZXTM.
+    * @param rule The rule to update.
+    */
+   public static void updateCostMarkers( Rule rule )
+   {
+      IFile file = ZXTMProject.getFileForRule( rule );
+      if( file == null || !file.exists() ) return;
+      
+      ZXTM zxtm = (ZXTM) rule.getModelParent();
+      int major = 1000, minor = 1000;
+      if( zxtm != null && zxtm.getModelState() == State.UP_TO_DATE ) {
+         major = zxtm.getMajorVersion();
+         minor = zxtm.getMinorVersion();
+      }
+      
+      String contents = rule.getTrafficScriptCode();
+      updateCostMarkers( file, contents, CodeUtil.getAllLineAreas( contents ),
+         ZXTMPlugin.getDefault().getTrafficScriptCodeData().getVersion( major, minor )
+      );
+   }
+   
+   /**
+    * Update the cost warnings of every rule that is not open in an editor, 
+    * in the background. Used when the cost warning preferences change, open 
+    * editors check their own code.
+    */
+   public static void scheduleCostUpdate()
+   {
+      costJob.cancel();
+      costJob.schedule();
+   }
+   
+   /**
+    * Update the cost warnings for a particular file, using line information 
+    * that has already been worked out (e.g. by a {@link CodeLineModel}). If 
+    * cost warnings are turned off any existing warnings are removed.
+    * @param file The file to update.
+    * @param contents The contents of the file.
+    * @param lines The line information for the contents.
+    * @param version The code data to look up functions in.
+    */
+   public static void updateCostMarkers( IFile file, String contents, 
+      CodeLine[] lines, VersionCodeData version ) 
+   {
+      if( file == null ) return;
+      
+      LinkedList<MarkerDetails> markers = new LinkedList<MarkerDetails>();
+      if( PreferenceManager.getPreferenceBool( Preference.COST_ENABLE ) ) {
+         RuleProblem[] problems = TrafficScriptCostAnalyser.analyse( 
+            contents, lines, version,
+            PreferenceManager.getPreferenceInt( Preference.COST_REPEAT ),
+            PreferenceManager.getPreferenceInt( Preference.COST_LIMIT )
+         );
+         
+         for( RuleProblem problem : problems ) {
+            markers.add( new MarkerDetails( MarkerType.COST,
+               problem.getLine(), 
+               problem.getStart(),
+               problem.getEnd(),
+               problem.getDescription()
+            ) );
+         }
+      }
+      
+      MarkerUtil.replaceMarkersOfType( file, markers, MarkerType.COST );
+   }
+
    /**
     * Called by the Model every time a new model object is updated. Use to 
     * listen to new rules.
@@ -260,5 +356,39 @@ public class MarkerManager implements ModelListener
    {
       
    }
+   
+   /**
+    * Updates the cost warnings of all the rules that are not open in an
+    * editor, see scheduleCostUpdate(). 
+    */
+   private static class CostJob extends Job
+   {
+      public CostJob()
+      {
+         super( ZLang.ZL_UpdatingCostWarnings );
+         setSystem( true );
+      }
+      
+      /* Override */
+      protected IStatus run( IProgressMonitor monitor )
+      {
+         ModelController model = ZXTMPlugin.getDefault().getModelController();
+         for( ZXTM zxtm : model.getSortedZXTMs() ) {
+            for( Rule rule : zxtm.getRules() ) {
+               if( monitor.isCanceled() ) return Status.CANCEL_STATUS;
+               
+               try {
+                  if( TrafficScriptEditor.getEditorForRule( rule ) == null ) {
+                     updateCostMarkers( rule );
+                  }
+               } catch( RuntimeException e ) {
+                  ZDebug.printStackTrace( e, "Failed to update cost warnings of ", rule );
+               }
+            }
+         }
+         
+         return Status.OK_STATUS;
+      }
+   }
 
 }
@@ -15,18 +15,22 @@ package com.zeus.eclipsePlugin.editor;
 import java.security.InvalidParameterException;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
-import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
 
 import com.zeus.eclipsePlugin.ZDebug;
 import com.zeus.eclipsePlugin.consts.Ids;
 
 /**
  * This is a set of utility functions that help with finding and creating 
- * markers. 
+ * markers. Lookups go through a MarkerIndex of the file's markers.
  */
 public class MarkerUtil
 {
@@ -45,6 +49,7 @@ public class MarkerUtil
       ERROR          ( IMarker.PROBLEM, IMarker.SEVERITY_ERROR, false ),
       WARNING        ( IMarker.PROBLEM, IMarker.SEVERITY_WARNING, false ),
       INFO           ( IMarker.PROBLEM, IMarker.SEVERITY_INFO, false ),
+      COST           ( IMarker.PROBLEM, IMarker.SEVERITY_WARNING, false ),
       
       TASK_LOW       ( IMarker.TASK, IMarker.PRIORITY_LOW, true ),
       TASK_NORMAL    ( IMarker.TASK, IMarker.PRIORITY_NORMAL, true ),
@@ -100,6 +105,25 @@ public class MarkerUtil
       }
    }
    
+   /** The attributes set on problem markers, see getAttributes(). */
+   private static final String[] PROBLEM_ATTRIBUTES = {
+      MARKER_OWNER, MARKER_TYPE, IMarker.LINE_NUMBER, IMarker.SEVERITY,
+      IMarker.MESSAGE, IMarker.CHAR_START, IMarker.CHAR_END, 
+      IMarker.USER_EDITABLE
+   };
+   
+   /** The attributes set on task markers, see getAttributes(). */
+   private static final String[] TASK_ATTRIBUTES = {
+      MARKER_OWNER, MARKER_TYPE, IMarker.LINE_NUMBER, IMarker.PRIORITY,
+      IMarker.MESSAGE, IMarker.CHAR_START, IMarker.CHAR_END, 
+      IMarker.USER_EDITABLE
+   };
+   
+   /** The attributes that change when a marker moves. */
+   private static final String[] POSITION_ATTRIBUTES = {
+      IMarker.LINE_NUMBER, IMarker.CHAR_START, IMarker.CHAR_END
+   };
+   
    /**
     * Create a marker and add it to a file.
     * @param type The type of the marker.
@@ -115,21 +139,17 @@ public class MarkerUtil
       try {        
          IMarker marker = file.createMarker( type.getMarkerType() );
          
-         marker.setAttribute( MARKER_OWNER, Ids.PLUGIN );
-         marker.setAttribute( MARKER_TYPE, type.toString() );
-         marker.setAttribute( IMarker.LINE_NUMBER, line );
-         
-         if( type.isTask() ) {
-            marker.setAttribute( IMarker.PRIORITY, type.getPriority() );
-         } else {
-            marker.setAttribute( IMarker.SEVERITY, type.getSeverity() );
-         }
-         
-         marker.setAttribute( IMarker.MESSAGE, message );
-         marker.setAttribute( IMarker.CHAR_START, start );
-         marker.setAttribute( IMarker.CHAR_END, end );
-         marker.setAttribute( IMarker.USER_EDITABLE, false );
+         // Set them all at once, so there is only one change
+         marker.setAttributes( 
+            type.isTask() ? TASK_ATTRIBUTES : PROBLEM_ATTRIBUTES,
+            new Object[] {
+               Ids.PLUGIN, type.toString(), line, 
+               type.isTask() ? type.getPriority() : type.getSeverity(),
+               message, start, end, false 
+            }
+         );
          
+         MarkerIndex.markerCreated( file, marker, type, line, start, end, message );
          return marker;
       } catch( Exception e ) {
          ZDebug.printStackTrace( e, "Error whilst creating marker" );
@@ -145,32 +165,175 @@ public class MarkerUtil
     */
    public static void removeMarkersOfType( IFile file, MarkerType ... types )  
    {
-      HashMap<String,Boolean> typeMap = new HashMap<String,Boolean>();
-      for( MarkerType type : types ) {
-         typeMap.put( type.toString(), true );
+      for( MarkerIndex.Entry entry : MarkerIndex.get( file ).findOfType( types ) ) {
+         deleteMarker( file, entry.marker );
+      }
+   }
+   
+   /**
+    * Delete a marker, and remove it from the file's index.
+    */
+   private static void deleteMarker( IFile file, IMarker marker )
+   {
+      try {
+         if( marker.exists() ) marker.delete();
+         MarkerIndex.markerDeleted( file, marker );
+      } catch( CoreException e ) {
+         ZDebug.printStackTrace( e, "Exception for marker ", marker );
       }
+   }
+   
+   /**
+    * Replace the markers of the specified types with a new set of markers. 
+    * Existing markers that match a new one are kept (and moved if their 
+    * position has changed), so only the markers that have actually changed 
+    * are touched. All the changes are made in one workspace operation.
+    * @param file The file to update the markers of.
+    * @param markers The markers the file should have.
+    * @param types The types of marker being replaced. All the new markers 
+    * should be one of these types.
+    */
+   public static void replaceMarkersOfType( final IFile file, 
+      final List<MarkerDetails> markers, final MarkerType ... types )
+   {
+      IWorkspaceRunnable update = new IWorkspaceRunnable() {
+         /* Override */
+         public void run( IProgressMonitor monitor ) throws CoreException
+         {
+            updateMarkers( file, markers, types );
+         }
+      };
       
       try {
-         IMarker[] markers = file.findMarkers( null, true, IResource.DEPTH_ZERO );
+         IWorkspace workspace = ResourcesPlugin.getWorkspace();
+         workspace.run( update, workspace.getRuleFactory().markerRule( file ), 
+            IWorkspace.AVOID_UPDATE, null 
+         );
+      } catch( CoreException e ) {
+         ZDebug.printStackTrace( e, "Failed to update markers of ", file );
+      }
+   }
+   
+   /**
+    * Work out the differences between a file's markers and the markers it 
+    * should have, and apply them. Called by replaceMarkersOfType().
+    */
+   private static void updateMarkers( IFile file, List<MarkerDetails> markers, 
+      MarkerType ... types ) throws CoreException
+   {
+      // The existing markers, by type and message
+      HashMap<String,LinkedList<MarkerIndex.Entry>> existing = 
+         new HashMap<String,LinkedList<MarkerIndex.Entry>>();
+      
+      for( MarkerIndex.Entry entry : MarkerIndex.get( file ).findOfType( types ) ) {
+         String key = entry.type + ":" + entry.message;
+         LinkedList<MarkerIndex.Entry> list = existing.get( key );
+         if( list == null ) {
+            list = new LinkedList<MarkerIndex.Entry>();
+            existing.put( key, list );
+         }
+         list.add( entry );
+      }
+      
+      // Keep the markers that haven't changed at all
+      LinkedList<MarkerDetails> changed = new LinkedList<MarkerDetails>();
+      for( MarkerDetails details : markers ) {
+         LinkedList<MarkerIndex.Entry> list = existing.get( details.getKey() );
+         MarkerIndex.Entry same = null;
+         if( list != null ) {
+            for( MarkerIndex.Entry entry : list ) {
+               if( entry.line == details.line && entry.start == details.start &&
+                   entry.end == details.end && entry.marker.exists() ) 
+               {
+                  same = entry;
+                  break;
+               }
+            }
+         }
          
-         for( IMarker marker : markers ) {
-            try {
-               if( !marker.exists() ) continue;
-               
-               String owner = (String) marker.getAttribute( MARKER_OWNER );
-               if( owner == null || !owner.equals( Ids.PLUGIN ) ) continue;
-               
-               String type = (String) marker.getAttribute( MARKER_TYPE );
-               if( type == null || !typeMap.containsKey( type ) ) continue;
-               
-               marker.delete();
-            } catch( CoreException e ) {
-               ZDebug.printStackTrace( e, "Exception for marker ", marker );
+         if( same != null ) {
+            list.remove( same );
+         } else {
+            changed.add( details );
+         }
+      }
+      
+      // Move markers with the same message, or create new ones
+      int moved = 0;
+      for( MarkerDetails details : changed ) {
+         LinkedList<MarkerIndex.Entry> list = existing.get( details.getKey() );
+         IMarker marker = null;
+         while( marker == null && list != null && !list.isEmpty() ) {
+            marker = list.removeFirst().marker;
+            if( !marker.exists() ) {
+               MarkerIndex.markerDeleted( file, marker );
+               marker = null;
             }
          }
          
-      } catch( CoreException e ) {
-         ZDebug.printStackTrace( e, "Exception when finding markers");
+         if( marker != null ) {
+            marker.setAttributes( POSITION_ATTRIBUTES, new Object[] { 
+               details.line, details.start, details.end 
+            } );
+            MarkerIndex.markerCreated( file, marker, details.type, 
+               details.line, details.start, details.end, details.message 
+            );
+            moved++;
+         } else {
+            createMarker( details.type, file, details.line, details.start, 
+               details.end, details.message 
+            );
+         }
+      }
+      
+      // Anything left over is no longer needed
+      int deleted = 0;
+      for( LinkedList<MarkerIndex.Entry> list : existing.values() ) {
+         for( MarkerIndex.Entry entry : list ) {
+            deleteMarker( file, entry.marker );
+            deleted++;
+         }
+      }
+      
+      ZDebug.print( 5, "Markers of ", file, ": ", markers.size() - changed.size(), 
+         " kept, ", moved, " moved, ", changed.size() - moved, " created, ",
+         deleted, " deleted" 
+      );
+   }
+   
+   /**
+    * The details of a marker that a file should have, used with 
+    * replaceMarkersOfType().
+    */
+   public static class MarkerDetails
+   {
+      private MarkerType type;
+      private int line, start, end;
+      private String message;
+      
+      /**
+       * Create the details of a marker.
+       * @param type The type of the marker.
+       * @param line The line the marker is on.
+       * @param start The start of the marker (position form start of file)
+       * @param end The end of the marker (position form start of file)
+       * @param message The message associated with this marker
+       */
+      public MarkerDetails( MarkerType type, int line, int start, int end, String message )
+      {
+         this.type = type;
+         this.line = line;
+         this.start = start;
+         this.end = end;
+         this.message = message;
+      }
+      
+      /**
+       * Get the key used to match this with existing markers.
+       */
+      private String getKey()
+      {
+         return type + ":" + message;
       }
    }
    
@@ -204,32 +367,7 @@ public class MarkerUtil
     */
    public static IMarker findMarkerForPos( IFile file, int position )
    {
-      try {
-         IMarker[] markers = file.findMarkers( null, true, IResource.DEPTH_ZERO );
-         
-         for( IMarker marker : markers ) {
-            try {
-               if( !marker.exists() ) continue;
-               
-               String owner = (String) marker.getAttribute( MARKER_OWNER );
-               if( owner == null || !owner.equals( Ids.PLUGIN ) ) continue;
-                  
-               int start = (Integer) marker.getAttribute( IMarker.CHAR_START );
-               int end = (Integer) marker.getAttribute( IMarker.CHAR_END );
-               
-               if( position >= start && position <= end ) {
-                  return marker;
-               }
-            } catch( CoreException e ) {         
-               ZDebug.printStackTrace( e, "Exception for marker ", marker );
-            }
-         }
-         
-      } catch( CoreException e ) {         
-         ZDebug.printStackTrace( e, "Exception when finding markers of type" );
-      }
-      
-      return null;
+      return MarkerIndex.get( file ).findForPos( position );
    }
 
    /**
@@ -240,32 +378,7 @@ public class MarkerUtil
     */
    public static IMarker[] findMarkersForLine( IFile file, int line )
    {
-      LinkedList<IMarker> markerList = new LinkedList<IMarker>();
-      
-      try {
-         IMarker[] markers = file.findMarkers( null, true, IResource.DEPTH_ZERO );
-         
-         for( IMarker marker : markers ) {
-            try {
-               if( !marker.exists() ) continue;
-               
-               String owner = (String) marker.getAttribute( MARKER_OWNER );
-               if( owner == null || !owner.equals( Ids.PLUGIN ) ) continue;      
-               
-               int markerLine = (Integer) marker.getAttribute( IMarker.LINE_NUMBER );
-               if( markerLine == line ) {
-                  markerList.add( marker );
-               }
-            } catch( CoreException e ) {         
-               ZDebug.printStackTrace( e, "Exception for marker ", marker );
-            }
-         }
-         
-      } catch( CoreException e ) {         
-         ZDebug.printStackTrace( e, "Exception when finding markers of type" );
-      }
-      
-      return markerList.toArray( new IMarker[markerList.size()] );
+      return MarkerIndex.get( file ).findForLine( line );
    }
    
    
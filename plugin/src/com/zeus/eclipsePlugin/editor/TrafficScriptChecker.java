@@ -0,0 +1,349 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.editor;
+
+import java.util.LinkedList;
+
+import com.zeus.eclipsePlugin.ZDebug;
+import com.zeus.eclipsePlugin.ZLang;
+import com.zeus.eclipsePlugin.codedata.Function;
+import com.zeus.eclipsePlugin.codedata.VersionCodeData;
+import com.zeus.eclipsePlugin.model.RuleProblem;
+import com.zeus.eclipsePlugin.model.ZXTM;
+
+/**
+ * Checks TrafficScript code for simple mistakes without asking a ZXTM. It
+ * finds unterminated strings, unbalanced brackets, and calls to unknown
+ * functions or with the wrong number of arguments (using the code data).
+ *
+ * This is not a full parser, it only reports problems it is sure of. The ZXTM
+ * remains the authority on whether code is valid, this just saves asking it
+ * about code that is obviously broken.
+ */
+public class TrafficScriptChecker
+{
+   private String code;
+   private VersionCodeData version;
+   private boolean checkFunctions;
+
+   private LinkedList<RuleProblem> problems = new LinkedList<RuleProblem>();
+   private LinkedList<Bracket> brackets = new LinkedList<Bracket>();
+
+   /**
+    * Check some TrafficScript code.
+    * @param code The code to check.
+    * @param version The code data to check function calls against. If null
+    * function calls are not checked.
+    * @param checkFunctions Should unknown functions and argument counts be
+    * reported as errors? If false they are reported as warnings, use this if
+    * the code data is not for the exact version of the ZXTM.
+    * @return The problems found in the code.
+    */
+   public static RuleProblem[] check( String code, VersionCodeData version, boolean checkFunctions )
+   {
+      TrafficScriptChecker checker = new TrafficScriptChecker( code, version, checkFunctions );
+      checker.check();
+      return checker.problems.toArray( new RuleProblem[checker.problems.size()] );
+   }
+
+   /**
+    * Check some TrafficScript code that will be run on a ZXTM, using the code
+    * data for its version. Function problems are only reported as errors if
+    * we have the code data for the ZXTM's exact version.
+    * @param code The code to check.
+    * @param version The code data to check function calls against.
+    * @param zxtm The ZXTM the code is for, or null if unknown.
+    * @return The problems found in the code.
+    */
+   public static RuleProblem[] check( String code, VersionCodeData version, ZXTM zxtm )
+   {
+      boolean exact = version != null && zxtm != null &&
+         version.getMajorVersion() == zxtm.getMajorVersion() &&
+         version.getMinorVersion() == zxtm.getMinorVersion();
+
+      return check( code, version, exact );
+   }
+
+   /**
+    * Are any of the passed problems errors?
+    * @param problems The problems to check.
+    * @return True if there is at least one error.
+    */
+   public static boolean hasErrors( RuleProblem[] problems )
+   {
+      for( RuleProblem problem : problems ) {
+         if( problem.isError() ) return true;
+      }
+      return false;
+   }
+
+   /**
+    * Create a checker, use the static check() function.
+    */
+   private TrafficScriptChecker( String code, VersionCodeData version, boolean checkFunctions )
+   {
+      this.code = code;
+      this.version = version;
+      this.checkFunctions = checkFunctions;
+   }
+
+   /**
+    * Go through the code character by character, keeping track of strings,
+    * comments and brackets.
+    */
+   private void check()
+   {
+      int line = 1;
+      char inString = 0;
+      int stringStart = -1, stringLine = -1;
+
+      // The last word read, and where it ended
+      int wordStart = -1, wordEnd = -1;
+      boolean wordIsVariable = false;
+
+      int length = code.length();
+      for( int i = 0; i < length; i++ ) {
+         char c = code.charAt( i );
+
+         if( c == '\n' ) line++;
+
+         // Strings, which can go over several lines
+         if( inString != 0 ) {
+            if( c == '\\' ) {
+               i++;
+               if( i < length && code.charAt( i ) == '\n' ) line++;
+            } else if( c == inString ) {
+               inString = 0;
+               argumentFound();
+            }
+            continue;
+         }
+
+         // Comments go to the end of the line
+         if( c == '#' ) {
+            while( i + 1 < length && code.charAt( i + 1 ) != '\n' ) i++;
+            continue;
+         }
+
+         if( CodeUtil.isStringChar( c ) ) {
+            inString = c;
+            stringStart = i;
+            stringLine = line;
+            wordStart = -1;
+            continue;
+         }
+
+         // Words, which could be function names
+         if( Character.isLetterOrDigit( c ) || c == '_' || c == '.' ) {
+            if( wordStart == -1 || wordEnd != i ) {
+               wordStart = i;
+               wordIsVariable = i > 0 && code.charAt( i - 1 ) == '$';
+            }
+            wordEnd = i + 1;
+            argumentFound();
+            continue;
+         }
+
+         if( Character.isWhitespace( c ) ) {
+            // Allow space between a function name and its bracket
+            if( wordEnd == i ) wordEnd = i + 1;
+            continue;
+         }
+
+         switch( c ) {
+            case '(': {
+               Function function = null;
+               int nameStart = -1, nameEnd = -1;
+               if( wordStart != -1 && wordEnd == i && !wordIsVariable ) {
+                  nameStart = wordStart;
+                  nameEnd = code.substring( wordStart, i ).trim().length() + wordStart;
+                  function = getFunction( nameStart, nameEnd, line );
+               }
+               argumentFound();
+               brackets.addLast( new Bracket( c, i, line, function, nameStart, nameEnd ) );
+               break;
+            }
+            case '[': case '{': {
+               argumentFound();
+               brackets.addLast( new Bracket( c, i, line, null, -1, -1 ) );
+               break;
+            }
+            case ')': case ']': case '}': {
+               closeBracket( c, i, line );
+               break;
+            }
+            case ',': {
+               if( !brackets.isEmpty() ) brackets.getLast().commas++;
+               break;
+            }
+            default: {
+               argumentFound();
+            }
+         }
+
+         wordStart = -1;
+      }
+
+      if( inString != 0 ) {
+         problems.add( new RuleProblem(
+            ZLang.ZL_CheckUnterminatedString, stringLine,
+            stringStart, stringStart + 1, true
+         ) );
+      }
+
+      for( Bracket bracket : brackets ) {
+         problems.add( new RuleProblem(
+            ZLang.bind( ZLang.ZL_CheckUnclosedBracket, bracket.type ),
+            bracket.line, bracket.pos, bracket.pos + 1, true
+         ) );
+      }
+
+      ZDebug.print( 5, "Local check found ", problems.size(), " problems" );
+   }
+
+   /**
+    * Record that the innermost bracket has something in it, so a function
+    * call has at least one argument.
+    */
+   private void argumentFound()
+   {
+      if( !brackets.isEmpty() ) brackets.getLast().hasArgs = true;
+   }
+
+   /**
+    * Close the innermost bracket, checking it matches and checking the
+    * arguments of any function call.
+    * @param c The closing bracket.
+    * @param pos The position of the closing bracket.
+    * @param line The line of the closing bracket.
+    */
+   private void closeBracket( char c, int pos, int line )
+   {
+      char open = c == ')' ? '(' : c == ']' ? '[' : '{';
+
+      if( brackets.isEmpty() || brackets.getLast().type != open ) {
+         problems.add( new RuleProblem(
+            ZLang.bind( ZLang.ZL_CheckUnmatchedBracket, c ),
+            line, pos, pos + 1, true
+         ) );
+
+         // If it closes something further out, assume the inner brackets
+         // were left open.
+         for( Bracket bracket : brackets ) {
+            if( bracket.type == open ) {
+               while( brackets.getLast().type != open ) {
+                  Bracket unclosed = brackets.removeLast();
+                  problems.add( new RuleProblem(
+                     ZLang.bind( ZLang.ZL_CheckUnclosedBracket, unclosed.type ),
+                     unclosed.line, unclosed.pos, unclosed.pos + 1, true
+                  ) );
+               }
+               brackets.removeLast();
+               break;
+            }
+         }
+         return;
+      }
+
+      Bracket bracket = brackets.removeLast();
+      if( bracket.function != null ) {
+         checkArguments( bracket );
+      }
+      argumentFound();
+   }
+
+   /**
+    * Look up a function call in the code data. Reports calls to functions in
+    * known groups that don't exist.
+    * @param start The start of the function name.
+    * @param end The end of the function name.
+    * @param line The line the call is on.
+    * @return The function, or null if it is unknown or not a function in the
+    * code data (e.g. a subroutine).
+    */
+   private Function getFunction( int start, int end, int line )
+   {
+      if( version == null ) return null;
+
+      String name = code.substring( start, end );
+      int dot = name.lastIndexOf( '.' );
+      if( dot <= 0 || dot == name.length() - 1 ) return null;
+
+      Function function = version.getFunctionMatching( name );
+
+      // Only report unknown functions in known groups, anything else could
+      // be a function from an imported library.
+      if( function == null && version.getGroup( name.substring( 0, dot ) ) != null ) {
+         problems.add( new RuleProblem(
+            ZLang.bind( ZLang.ZL_CheckUnknownFunction, name ),
+            line, start, end, checkFunctions
+         ) );
+      }
+
+      return function;
+   }
+
+   /**
+    * Check the number of arguments passed to a function.
+    * @param call The bracket of the function call.
+    */
+   private void checkArguments( Bracket call )
+   {
+      Function function = call.function;
+      int args = call.hasArgs ? call.commas + 1 : 0;
+      String name = code.substring( call.nameStart, call.nameEnd );
+
+      String message = null;
+      if( args < function.getMinParams() ) {
+         message = ZLang.bind( ZLang.ZL_CheckTooFewArguments,
+            name, function.getMinParams()
+         );
+      } else if( function.getMaxParams() != Function.INFINITE &&
+                 args > function.getMaxParams() )
+      {
+         message = ZLang.bind( ZLang.ZL_CheckTooManyArguments,
+            name, function.getMaxParams()
+         );
+      }
+
+      if( message != null ) {
+         problems.add( new RuleProblem(
+            message, call.line, call.nameStart, call.nameEnd, checkFunctions
+         ) );
+      }
+   }
+
+   /**
+    * An open bracket, possibly of a function call.
+    */
+   private static class Bracket
+   {
+      char type;
+      int pos, line;
+      Function function;
+      int nameStart, nameEnd;
+      int commas = 0;
+      boolean hasArgs = false;
+
+      Bracket( char type, int pos, int line, Function function, int nameStart, int nameEnd )
+      {
+         this.type = type;
+         this.pos = pos;
+         this.line = line;
+         this.function = function;
+         this.nameStart = nameStart;
+         this.nameEnd = nameEnd;
+      }
+   }
+
+}
@@ -0,0 +1,450 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.editor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+
+import org.eclipse.jface.text.Region;
+
+import com.zeus.eclipsePlugin.ZDebug;
+import com.zeus.eclipsePlugin.ZLang;
+import com.zeus.eclipsePlugin.codedata.Function;
+import com.zeus.eclipsePlugin.codedata.FunctionCost;
+import com.zeus.eclipsePlugin.codedata.VersionCodeData;
+import com.zeus.eclipsePlugin.model.RuleProblem;
+
+/**
+ * Looks for TrafficScript that is expensive to run on every request, using
+ * the cost of each function (see {@link FunctionCost}). It warns about:
+ *
+ * - Reading a whole message body without a length.
+ * - Regular expressions and network calls inside loops.
+ * - Storing data with keys built at run time, in a rule that never removes
+ *   anything from the data store.
+ * - Looking up the same header (or cookie etc.) several times.
+ * - Rules whose total cost is over a limit, where calls in loops count as
+ *   LOOP_FACTOR calls.
+ *
+ * Like the {@link TrafficScriptChecker} this is not a full parser. It works
+ * from the editor's line information, which already knows where the strings
+ * and comments are, and all the problems it finds are warnings.
+ */
+public class TrafficScriptCostAnalyser
+{
+   /** How many times a call in a loop is counted towards the total cost. */
+   private static final int LOOP_FACTOR = 10;
+
+   private String code;
+   private CodeLine[] lines;
+   private VersionCodeData version;
+   private int repeatLimit, costLimit;
+
+   private LinkedList<RuleProblem> problems = new LinkedList<RuleProblem>();
+
+   // The open round brackets, and for each open curly bracket whether it is
+   // the body of a loop.
+   private LinkedList<Call> brackets = new LinkedList<Call>();
+   private LinkedList<Boolean> blocks = new LinkedList<Boolean>();
+   private int loops = 0;
+
+   // A loop keyword has been read, and its body has not started yet
+   private boolean loopPending = false;
+   private int loopPendingDepth = 0;
+
+   // Every call to a known function, in the order they were closed
+   private ArrayList<Call> calls = new ArrayList<Call>();
+
+   /**
+    * Analyse some TrafficScript code.
+    * @param code The code to analyse.
+    * @param lines The line information for the code, e.g. from
+    * CodeUtil.getAllLineAreas() or a {@link CodeLineModel}.
+    * @param version The code data to look up functions in. If null nothing is
+    * reported.
+    * @param repeatLimit How many times the same lookup can be made before it
+    * is reported.
+    * @param costLimit The total cost a rule can have before it is reported.
+    * @return The warnings found in the code.
+    */
+   public static RuleProblem[] analyse( String code, CodeLine[] lines,
+      VersionCodeData version, int repeatLimit, int costLimit )
+   {
+      if( version == null ) return new RuleProblem[0];
+
+      TrafficScriptCostAnalyser analyser = new TrafficScriptCostAnalyser(
+         code, lines, version, repeatLimit, costLimit
+      );
+      analyser.analyse();
+      return analyser.problems.toArray( new RuleProblem[analyser.problems.size()] );
+   }
+
+   /**
+    * Create an analyser, use the static analyse() function.
+    */
+   private TrafficScriptCostAnalyser( String code, CodeLine[] lines,
+      VersionCodeData version, int repeatLimit, int costLimit )
+   {
+      this.code = code;
+      this.lines = lines;
+      this.version = version;
+      this.repeatLimit = repeatLimit;
+      this.costLimit = costLimit;
+   }
+
+   /**
+    * Find the function calls in the code, then check them.
+    */
+   private void analyse()
+   {
+      for( CodeLine line : lines ) {
+         scanLine( line );
+      }
+
+      checkCalls();
+      checkStore();
+      checkRepeats();
+      checkTotal();
+
+      ZDebug.print( 5, "Cost analysis found ", problems.size(), " problems in ",
+         calls.size(), " calls"
+      );
+   }
+
+   /**
+    * Go through the code of a line, skipping its comment. Strings are read
+    * as single tokens, using the line's string areas.
+    * @param line The line to scan.
+    */
+   private void scanLine( CodeLine line )
+   {
+      int end = Math.min( line.commentStart, code.length() );
+
+      // The last word read, which is finished when something else is read
+      int wordStart = -1, wordEnd = -1;
+      int nextString = 0;
+
+      for( int i = line.start; i < end; i++ ) {
+         char c = code.charAt( i );
+
+         if( Character.isWhitespace( c ) ) continue;
+
+         boolean inString = nextString < line.stringAreas.length &&
+            i >= line.stringAreas[nextString].getOffset();
+
+         if( !inString &&
+             ( Character.isLetterOrDigit( c ) || c == '_' || c == '.' || c == '$' ) )
+         {
+            if( wordStart != -1 && wordEnd == i ) {
+               wordEnd = i + 1;
+               continue;
+            }
+            if( wordStart != -1 ) word( wordStart, wordEnd );
+            wordStart = i;
+            wordEnd = i + 1;
+            continue;
+         }
+
+         // Allow space between a function name and its bracket
+         Function function = null;
+         if( wordStart != -1 ) {
+            if( !inString && c == '(' ) {
+               function = getFunction( code.substring( wordStart, wordEnd ) );
+            }
+            word( wordStart, wordEnd );
+         }
+
+         // Strings are a single token. The area of a string that started on
+         // an earlier line starts before this line.
+         if( inString ) {
+            Region area = line.stringAreas[nextString++];
+            if( area.getOffset() >= line.start ) {
+               int close = Math.min( area.getOffset() + area.getLength(), line.end );
+               token( code.substring( area.getOffset() + 1, close ) );
+            }
+            i = area.getOffset() + area.getLength();
+            wordStart = -1;
+            continue;
+         }
+
+         switch( c ) {
+            case '(': {
+               token( null );
+               brackets.addLast( new Call( function, line.num,
+                  wordStart, wordEnd, loops > 0
+               ) );
+               break;
+            }
+            case ')': {
+               if( brackets.isEmpty() ) break;
+               Call call = brackets.removeLast();
+               if( call.function != null ) calls.add( call );
+               break;
+            }
+            case '{': {
+               blocks.addLast( loopPending );
+               if( loopPending ) loops++;
+               loopPending = false;
+               break;
+            }
+            case '}': {
+               if( !blocks.isEmpty() && blocks.removeLast() ) loops--;
+               break;
+            }
+            case ',': {
+               if( !brackets.isEmpty() ) brackets.getLast().commas++;
+               break;
+            }
+            case ';': {
+               if( loopPending && brackets.size() == loopPendingDepth ) {
+                  loopPending = false;
+               }
+               break;
+            }
+            default: {
+               token( null );
+            }
+         }
+
+         wordStart = -1;
+      }
+
+      if( wordStart != -1 ) word( wordStart, wordEnd );
+   }
+
+   /**
+    * Handle a word, which is a keyword, variable, number or function name.
+    * Function names are only looked up when their bracket is found.
+    * @param start The start of the word.
+    * @param end The end of the word.
+    */
+   private void word( int start, int end )
+   {
+      String word = code.substring( start, end );
+
+      if( word.equals( "while" ) || word.equals( "for" ) ||
+          word.equals( "foreach" ) || word.equals( "do" ) )
+      {
+         loopPending = true;
+         loopPendingDepth = brackets.size();
+         return;
+      }
+
+      // Numbers are literal values, anything else is not
+      token( Character.isDigit( word.charAt( 0 ) ) ? word : null );
+   }
+
+   /**
+    * Record a token inside the innermost bracket.
+    * @param literal The value of the token if it is a string or number, null
+    * if it is anything else.
+    */
+   private void token( String literal )
+   {
+      if( brackets.isEmpty() ) return;
+
+      Call call = brackets.getLast();
+      call.hasArgs = true;
+      if( call.commas == 0 ) {
+         call.firstTokens++;
+         call.firstLiteral = literal;
+      }
+   }
+
+   /**
+    * Look up a function in the code data.
+    * @param name The name of the function, including its group.
+    * @return The function, or null if this is not a function in the code
+    * data (e.g. a subroutine).
+    */
+   private Function getFunction( String name )
+   {
+      if( name.indexOf( '.' ) <= 0 || name.charAt( 0 ) == '$' ) return null;
+      return version.getFunctionMatching( name );
+   }
+
+   /**
+    * Check the calls that are expensive by themselves, wherever they are.
+    */
+   private void checkCalls()
+   {
+      for( Call call : calls ) {
+         FunctionCost cost = call.function.getCost();
+         String literal = call.getFirstLiteral();
+
+         if( cost == FunctionCost.BODY &&
+             ( call.getArgs() == 0 || "0".equals( literal ) ) )
+         {
+            warn( call, ZLang.bind( ZLang.ZL_CostUnboundedBody, call.getName() ) );
+         }
+
+         if( call.inLoop && cost == FunctionCost.REGEX ) {
+            warn( call, ZLang.bind( ZLang.ZL_CostRegexInLoop, call.getName() ) );
+         } else if( call.inLoop && cost == FunctionCost.NETWORK ) {
+            warn( call, ZLang.bind( ZLang.ZL_CostNetworkInLoop, call.getName() ) );
+         }
+      }
+   }
+
+   /**
+    * Check for data being stored under keys that are built at run time, when
+    * nothing is ever removed from the store. Each request could add a new
+    * entry that stays until the store is full.
+    */
+   private void checkStore()
+   {
+      LinkedList<Call> stores = new LinkedList<Call>();
+      for( Call call : calls ) {
+         FunctionCost cost = call.function.getCost();
+         if( cost == FunctionCost.STORE_REMOVE ) return;
+         if( cost == FunctionCost.STORE && call.getFirstLiteral() == null ) {
+            stores.add( call );
+         }
+      }
+
+      for( Call call : stores ) {
+         warn( call, ZLang.bind( ZLang.ZL_CostUnboundedStore, call.getName() ) );
+      }
+   }
+
+   /**
+    * Check for the same lookup being made repeatedly, which should be made
+    * once and kept in a variable.
+    */
+   private void checkRepeats()
+   {
+      LinkedHashMap<String,LinkedList<Call>> lookups =
+         new LinkedHashMap<String,LinkedList<Call>>();
+
+      for( Call call : calls ) {
+         String literal = call.getFirstLiteral();
+         if( call.function.getCost() != FunctionCost.LOOKUP || literal == null ) {
+            continue;
+         }
+
+         // Header names are not case sensitive, other names are
+         Function function = call.function;
+         String key = function.getFunctionGroup().getLowerCaseName() + "." +
+            function.getLowerCaseName() + "(";
+         key += function.getLowerCaseName().indexOf( "header" ) != -1 ?
+            literal.toLowerCase() : literal;
+
+         LinkedList<Call> same = lookups.get( key );
+         if( same == null ) {
+            same = new LinkedList<Call>();
+            lookups.put( key, same );
+         }
+         same.add( call );
+      }
+
+      for( LinkedList<Call> same : lookups.values() ) {
+         if( same.size() < repeatLimit ) continue;
+
+         // The first lookup is needed, the rest are the repeats
+         Call first = same.removeFirst();
+         for( Call call : same ) {
+            warn( call, ZLang.bind( ZLang.ZL_CostRepeatedLookup, new Object[] {
+               call.getName(), first.getFirstLiteral(), same.size() + 1
+            } ) );
+         }
+      }
+   }
+
+   /**
+    * Add up the cost of every call, and report rules that cost more than the
+    * limit at their most expensive call.
+    */
+   private void checkTotal()
+   {
+      int total = 0, worstCost = 0;
+      Call worst = null;
+
+      for( Call call : calls ) {
+         int cost = call.function.getCost().getWeight();
+         if( call.inLoop ) cost *= LOOP_FACTOR;
+
+         total += cost;
+         if( cost > worstCost ) {
+            worstCost = cost;
+            worst = call;
+         }
+      }
+
+      if( worst != null && total > costLimit ) {
+         warn( worst, ZLang.bind( ZLang.ZL_CostRuleTotal, new Object[] {
+            total, costLimit, worst.getName()
+         } ) );
+      }
+   }
+
+   /**
+    * Add a warning at the name of a function call.
+    * @param call The call to warn about.
+    * @param message The warning.
+    */
+   private void warn( Call call, String message )
+   {
+      problems.add( new RuleProblem(
+         message, call.line, call.nameStart, call.nameEnd, false
+      ) );
+   }
+
+   /**
+    * A round bracket, which is a call if it has a function.
+    */
+   private class Call
+   {
+      Function function;
+      int line, nameStart, nameEnd;
+      boolean inLoop;
+
+      int commas = 0;
+      boolean hasArgs = false;
+
+      // The tokens of the first argument, and the last token's value if it
+      // was a literal.
+      int firstTokens = 0;
+      String firstLiteral = null;
+
+      Call( Function function, int line, int nameStart, int nameEnd, boolean inLoop )
+      {
+         this.function = function;
+         this.line = line;
+         this.nameStart = nameStart;
+         this.nameEnd = nameEnd;
+         this.inLoop = inLoop;
+      }
+
+      /** Get the number of arguments passed. */
+      int getArgs()
+      {
+         return hasArgs ? commas + 1 : 0;
+      }
+
+      /**
+       * Get the first argument if it is a single string or number, rather
+       * than something worked out at run time.
+       */
+      String getFirstLiteral()
+      {
+         return firstTokens == 1 ? firstLiteral : null;
+      }
+
+      /** Get the function name as it is written in the code. */
+      String getName()
+      {
+         return code.substring( nameStart, nameEnd );
+      }
+   }
+}
@@ -13,9 +13,12 @@
 package com.zeus.eclipsePlugin.editor;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.core.filesystem.EFS;
 import org.eclipse.core.filesystem.IFileStore;
@@ -23,6 +26,13 @@ import org.eclipse.core.filesystem.IFileSystem;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
 import org.eclipse.jface.text.TextViewerUndoManager;
 import org.eclipse.jface.text.contentassist.ContentAssistant;
 import org.eclipse.jface.text.source.ISourceViewer;
@@ -30,6 +40,7 @@ import org.eclipse.swt.graphics.Image;
 import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.IEditorReference;
+import org.eclipse.ui.IPropertyListener;
 import org.eclipse.ui.IWorkbenchPage;
 import org.eclipse.ui.IWorkbenchWindow;
 import org.eclipse.ui.PlatformUI;
@@ -39,6 +50,7 @@ import org.eclipse.ui.part.FileEditorInput;
 import com.zeus.eclipsePlugin.ImageManager;
 import com.zeus.eclipsePlugin.ZDebug;
 import com.zeus.eclipsePlugin.ZLang;
+import com.zeus.eclipsePlugin.ZUtil;
 import com.zeus.eclipsePlugin.ZXTMPlugin;
 import com.zeus.eclipsePlugin.codedata.VersionCodeData;
 import com.zeus.eclipsePlugin.consts.Ids;
@@ -49,10 +61,13 @@ import com.zeus.eclipsePlugin.model.ModelController;
 import com.zeus.eclipsePlugin.model.ModelElement;
 import com.zeus.eclipsePlugin.model.ModelListener;
 import com.zeus.eclipsePlugin.model.Rule;
+import com.zeus.eclipsePlugin.model.RuleBindings;
 import com.zeus.eclipsePlugin.model.RuleProblem;
+import com.zeus.eclipsePlugin.model.RuleStatistics;
 import com.zeus.eclipsePlugin.model.ZXTM;
 import com.zeus.eclipsePlugin.model.ModelElement.Event;
 import com.zeus.eclipsePlugin.model.ModelElement.State;
+import com.zeus.eclipsePlugin.model.RuleStatistics.Counter;
 import com.zeus.eclipsePlugin.project.ZXTMProject;
 import com.zeus.eclipsePlugin.swt.SWTUtil;
 import com.zeus.eclipsePlugin.swt.dialogs.ZDialog;
@@ -75,9 +90,21 @@ public class TrafficScriptEditor extends TextEditor
    private TrafficScriptEditor thisEditor;
    protected boolean disposed = false;
    private boolean lastSaveFailed = false;
+   private volatile boolean dirty = false;
    private TextViewerUndoManager undoManager = null;
    private ContentAssistant assistant;
    private ZXTMScanner[] scanners;
+   private IDocument checkedDoc = null;
+   private CheckListener checkListener = new CheckListener();
+   private CheckJob checkJob = new CheckJob();
+   private StatisticsListener statsListener = new StatisticsListener();
+   private StatisticsJob statsJob = new StatisticsJob();
+   
+   /** How long to wait after typing stops before checking the code (ms) */
+   private static final int CHECK_DELAY = 500;
+   
+   /** The shortest time between updates of the rule's statistics (ms) */
+   private static final int STATS_FRAME = 1000;
    
    private static HashMap<String,TrafficScriptEditor> openEditors = 
       new HashMap<String,TrafficScriptEditor>();
@@ -96,6 +123,7 @@ public class TrafficScriptEditor extends TextEditor
       setSourceViewerConfiguration( new TrafficScriptConf( this ) );     
       notify = new EditorNotification( this );
       thisEditor = this;
+      addPropertyListener( new DirtyListener() );
    }
       
    /**
@@ -130,7 +158,8 @@ public class TrafficScriptEditor extends TextEditor
    {
       ZDebug.print( 4, "doSave()" );
       try {
-         String text = this.getSourceViewer().getTextWidget().getText();
+         IDocument doc = getDocumentProvider().getDocument( getEditorInput() );
+         String text = doc.get();
          
          ZXTM closestZXTM = this.getClosestZXTM();
                  
@@ -146,7 +175,7 @@ public class TrafficScriptEditor extends TextEditor
          
          // If code contains errors, add markers to the file
          MarkerManager.updateErrorMarkers( file, errors );    
-         MarkerManager.updateTaskMarkers( file, text );
+         MarkerManager.updateTaskMarkers( file, text, CodeUtil.getAllLineAreas( doc ) );
          
          boolean hasErrors = false;
          for( RuleProblem error : errors ) {
@@ -184,6 +213,7 @@ public class TrafficScriptEditor extends TextEditor
    protected void updateNotifyBar()
    {
       ZDebug.print( 4, "updateNotifyBar() - ", rule );
+      notify.setSparkline( null, null, 0 );
       
       // Last save failed, show bar with warning and revert option
       if( lastSaveFailed ) {
@@ -252,10 +282,16 @@ public class TrafficScriptEditor extends TextEditor
             setTitleImage( rulebuilderImage );
          }
      
-      // No problems to report, hide the notification bar
+      // No problems to report, show where the rule is used and how busy it
+      // is if that is known, otherwise hide the notification bar
       } else {
-         ZDebug.print( 5, "Hide" );
-         notify.hideNotifyBar();
+         if( showUsage() ) {
+            ZDebug.print( 5, "Show: Usage" );
+            notify.showNotifyBar();
+         } else {
+            ZDebug.print( 5, "Hide" );
+            notify.hideNotifyBar();
+         }
          
          ImageManager images = ZXTMPlugin.getDefault().getImageManager();         
          Image ruleImage = images.getImage( ImageFile.RULE );
@@ -266,6 +302,63 @@ public class TrafficScriptEditor extends TextEditor
       }
    }
 
+   /**
+    * Put the live virtual servers that use the rule, and its recent execution
+    * and abort rates, in the notification bar. These come from the bindings 
+    * and statistics cached by the model, so this is quick enough to do 
+    * whenever they change.
+    * @return False if neither is known, so there is nothing to show.
+    */
+   private boolean showUsage()
+   {
+      if( rule == null || zxtm == null ) return false;
+      
+      String name = rule.getName();
+      StringBuffer message = new StringBuffer();
+      
+      RuleBindings bindings = zxtm.getRuleBindings();
+      if( bindings.isLoaded() ) {
+         String[] servers = bindings.getLiveServers( name );
+         switch( servers.length ) {
+            case 0: message.append( ZLang.ZL_EditorRuleUnused ); break;
+            case 1: message.append( ZLang.bind( ZLang.ZL_EditorRuleUsedOnce, servers[0] ) ); break;
+            default: message.append( ZLang.bind( ZLang.ZL_EditorRuleUsed, 
+               servers.length, ZUtil.join( ", ", servers ) 
+            ) );
+         }
+      }
+      
+      RuleStatistics stats = zxtm.getRuleStatistics();
+      float[] executions = new float[RuleStatistics.HISTORY_SIZE];
+      float[] aborts = new float[RuleStatistics.HISTORY_SIZE];
+      float rate, abortRate;
+      int count;
+      
+      // Hold the lock so a new sample can't arrive between the calls
+      synchronized( stats ) {
+         rate = stats.getRate( name, Counter.EXECUTIONS );
+         abortRate = stats.getRate( name, Counter.ABORTS );
+         count = stats.getRates( name, Counter.EXECUTIONS, executions );
+         stats.getRates( name, Counter.ABORTS, aborts );
+      }
+      
+      if( !Float.isNaN( rate ) ) {
+         if( message.length() > 0 ) message.append( "  " );
+         message.append( ZLang.bind( ZLang.ZL_EditorRuleLoad, 
+            RuleStatistics.formatRate( rate ), 
+            RuleStatistics.formatRate( abortRate )
+         ) );
+         notify.setSparkline( executions, aborts, count );
+      }
+      
+      if( message.length() == 0 ) return false;
+      
+      notify.setMessage( message.toString() );
+      notify.setButton1( null, null );
+      
+      return true;
+   }
+   
    /**
     * The file has been changed externally, update markers if change was
     * accepted.
@@ -310,6 +403,12 @@ public class TrafficScriptEditor extends TextEditor
       ZDebug.print( 3, "doSetInput( ", input, " )" );
       super.doSetInput( input );
       lastSaveFailed = false;
+      dirty = isDirty();
+      
+      // Check the code as it is typed
+      if( checkedDoc != null ) checkedDoc.removeDocumentListener( checkListener );
+      checkedDoc = getDocumentProvider().getDocument( input );
+      if( checkedDoc != null ) checkedDoc.addDocumentListener( checkListener );
       
       String name = input.getName();
       if( name.endsWith( ZXTMFileSystem.TS_FILE_EXTENSION ) ) {
@@ -335,6 +434,10 @@ public class TrafficScriptEditor extends TextEditor
       
       // Try and get the ZXTM for this rule
       ModelController model = ZXTMPlugin.getDefault().getModelController();
+      if( zxtm != null ) {
+         zxtm.getRuleStatistics().removeListener( statsListener );
+         zxtm.getRuleBindings().removeListener( statsListener );
+      }
       zxtm = model.getZXTM( uri.getHost(), uri.getPort() );
       
       if( zxtm == null ) {
@@ -342,6 +445,9 @@ public class TrafficScriptEditor extends TextEditor
          updateNotifyBar();
          return;
       } 
+      
+      zxtm.getRuleStatistics().addListener( statsListener );
+      zxtm.getRuleBindings().addListener( statsListener );
             
       // Try and get the rule
       rule = zxtm.getRule( ruleName );
@@ -355,7 +461,7 @@ public class TrafficScriptEditor extends TextEditor
       } 
       
       // We have the rule, update quick lookup table
-      openEditors.put( zxtm + " > " + rule, this );
+      setOpenEditor( zxtm, rule, this );
       rule.addListener( listener );
       
       updateNotifyBar();
@@ -369,11 +475,15 @@ public class TrafficScriptEditor extends TextEditor
    public void close( boolean save )
    {
       ZDebug.print( 4, "close( ", save, " )"  );
-      openEditors.put( zxtm + " > " + rule, null );
+      setOpenEditor( zxtm, rule, null );
       disposed = true;
       
       if( rule != null ) rule.removeListener( listener );
-      if( zxtm != null ) zxtm.removeListener( listener );
+      if( zxtm != null ) {
+         zxtm.removeListener( listener );
+         zxtm.getRuleStatistics().removeListener( statsListener );
+         zxtm.getRuleBindings().removeListener( statsListener );
+      }
       thisEditor = null;
       super.close( save );
       
@@ -392,12 +502,22 @@ public class TrafficScriptEditor extends TextEditor
    {
       ZDebug.print( 3, "dispose()"  );
       disposed = true;
-      openEditors.put( zxtm + " > " + rule, null );
+      setOpenEditor( zxtm, rule, null );
       if( rule != null ) rule.removeListener( listener );
-      if( zxtm != null ) zxtm.removeListener( listener );
+      if( zxtm != null ) {
+         zxtm.removeListener( listener );
+         zxtm.getRuleStatistics().removeListener( statsListener );
+         zxtm.getRuleBindings().removeListener( statsListener );
+      }
       if( scanners != null ) {
          for( ZXTMScanner scanner : scanners ) scanner.dispose();
       }
+      if( checkedDoc != null ) {
+         checkedDoc.removeDocumentListener( checkListener );
+         checkedDoc = null;
+      }
+      checkJob.cancel();
+      statsJob.cancel();
       thisEditor = null;
       super.dispose();
       
@@ -433,6 +553,10 @@ public class TrafficScriptEditor extends TextEditor
             default: {
                ZDebug.print( 4, "Rule altered - Using default update action." );
                SWTUtil.exec( new UpdateAction( rule.getTrafficScriptCode() ) );
+               
+               // The rule's problems may have changed
+               checkJob.cancel();
+               checkJob.schedule( CHECK_DELAY );
                break;
             }
          }
@@ -453,7 +577,7 @@ public class TrafficScriptEditor extends TextEditor
             ZXTM zxtm = (ZXTM) parent;
             rule = zxtm.getRule( ruleName );
             if( rule != null ) {
-               openEditors.put( zxtm + " > " + rule, TrafficScriptEditor.this );
+               setOpenEditor( zxtm, rule, TrafficScriptEditor.this );
                SWTUtil.exec( reopenAction );
             }
          }
@@ -551,6 +675,235 @@ public class TrafficScriptEditor extends TextEditor
       }      
    }
    
+   /**
+    * Schedules a check of the code whenever the document changes. The check
+    * is delayed so it only runs once typing has stopped.
+    */
+   class CheckListener implements IDocumentListener
+   {
+      /* Override */
+      public void documentAboutToBeChanged( DocumentEvent event ) {}
+
+      /* Override */
+      public void documentChanged( DocumentEvent event )
+      {
+         if( disposed ) return;
+         checkJob.cancel();
+         checkJob.schedule( CHECK_DELAY );
+      }
+   }
+   
+   /**
+    * Keeps track of whether the editor has unsaved changes, as the CheckJob
+    * can't call isDirty() outside the SWT thread. When the editor is saved
+    * the code is checked again, to show the rule's own problems.
+    */
+   class DirtyListener implements IPropertyListener
+   {
+      /* Override */
+      public void propertyChanged( Object source, int propId )
+      {
+         if( propId != PROP_DIRTY || disposed ) return;
+         
+         dirty = isDirty();
+         if( !dirty ) {
+            checkJob.cancel();
+            checkJob.schedule( CHECK_DELAY );
+         }
+      }
+   }
+   
+   /**
+    * Check the code again now, e.g. because the cost warning preferences have
+    * changed.
+    */
+   public void recheck()
+   {
+      if( disposed ) return;
+      checkJob.cancel();
+      checkJob.settingsChanged();
+      checkJob.schedule();
+   }
+   
+   /**
+    * Checks the code in the editor with the TrafficScriptChecker and updates
+    * the problem markers. Whilst the code is unsaved only the problems found
+    * locally are shown, once it is saved the rule's problems (found by the 
+    * ZXTM) are shown as well.
+    * 
+    * The code is also checked with the TrafficScriptCostAnalyser, using the
+    * line model's information. This is skipped if the code, the code data and
+    * the cost warning preferences have not changed since it was last analysed.
+    */
+   class CheckJob extends Job
+   {
+      /** Incremented by recheck() when the cost warning preferences change */
+      private AtomicInteger settings = new AtomicInteger();
+      
+      // The code, code data and settings that the cost warnings are for. Only
+      // used by the job, which never runs twice at once.
+      private String costText = null;
+      private VersionCodeData costVersion = null;
+      private int costSettings = -1;
+      
+      public CheckJob()
+      {
+         super( ZLang.ZL_CheckingTrafficScript );
+         setSystem( true );
+      }
+      
+      /**
+       * Make the next run analyse the cost of the code, even if it hasn't
+       * changed. A run that is already analysing it will not be skipped.
+       */
+      void settingsChanged()
+      {
+         settings.incrementAndGet();
+      }
+      
+      /* Override */
+      protected IStatus run( IProgressMonitor monitor )
+      {
+         IDocument doc = checkedDoc;
+         if( disposed || doc == null || file == null || !file.exists() ) {
+            return Status.OK_STATUS;
+         }
+         
+         try {
+            boolean saved = !dirty;
+            int currentSettings = settings.get();
+            long stamp = CodeLineModel.getModificationStamp( doc );
+            String text = doc.get();
+            VersionCodeData version = getCodeDataVersion();
+            RuleProblem[] problems = TrafficScriptChecker.check( 
+               text, version, getClosestZXTM() 
+            );
+            
+            if( monitor.isCanceled() || disposed ) return Status.CANCEL_STATUS;
+            
+            if( rule != null && saved ) {
+               problems = mergeProblems( rule.getCodeErrors(), problems );
+            }
+            MarkerManager.updateErrorMarkers( file, problems );
+            
+            if( text.equals( costText ) && version == costVersion && 
+                currentSettings == costSettings ) 
+            {
+               return Status.OK_STATUS;
+            }
+            
+            // The document may have changed since its text was read, so the
+            // line model is only used if it is for the same version of the 
+            // document. Otherwise the lines are worked out from the text.
+            CodeLine[] lines = null;
+            CodeLineModel model = CodeLineModel.getModel( doc );
+            if( model != null ) {
+               try {
+                  lines = model.getLines( doc, stamp );
+               } catch( BadLocationException e ) {
+                  ZDebug.printStackTrace( e, "Line model out of sync with document" );
+               }
+            }
+            if( lines == null ) lines = CodeUtil.getAllLineAreas( text );
+            
+            if( monitor.isCanceled() || disposed ) return Status.CANCEL_STATUS;
+            
+            MarkerManager.updateCostMarkers( file, text, lines, version );
+            costText = text;
+            costVersion = version;
+            costSettings = currentSettings;
+            
+         } catch( RuntimeException e ) {
+            ZDebug.printStackTrace( e, "Failed to check code for ", file );
+         }
+         
+         return Status.OK_STATUS;
+      }
+   }
+   
+   /**
+    * Combine the problems the ZXTM found in a rule with those found locally.
+    * Where both report a problem at the same place only the ZXTM's is kept.
+    * @param remote The rule's problems, found by the ZXTM.
+    * @param local The problems found by the TrafficScriptChecker.
+    * @return The problems from both, without duplicates.
+    */
+   private static RuleProblem[] mergeProblems( RuleProblem[] remote, RuleProblem[] local )
+   {
+      if( local.length == 0 ) return remote;
+      if( remote.length == 0 ) return local;
+      
+      HashSet<String> places = new HashSet<String>();
+      ArrayList<RuleProblem> merged = new ArrayList<RuleProblem>( remote.length + local.length );
+      for( RuleProblem problem : remote ) {
+         places.add( problem.getLine() + ":" + problem.getStart() );
+         merged.add( problem );
+      }
+      for( RuleProblem problem : local ) {
+         if( places.add( problem.getLine() + ":" + problem.getStart() ) ) {
+            merged.add( problem );
+         }
+      }
+      
+      return merged.toArray( new RuleProblem[merged.size()] );
+   }
+   
+   /**
+    * Schedules an update of the notification bar when the rule statistics
+    * are sampled or the rule bindings change. Samples can arrive often, so 
+    * the bar is updated at most once every STATS_FRAME milliseconds.
+    */
+   class StatisticsListener implements RuleStatistics.Listener, RuleBindings.Listener
+   {
+      /* Override */
+      public void statisticsUpdated( RuleStatistics stats )
+      {
+         scheduleUpdate();
+      }
+      
+      /* Override */
+      public void bindingsUpdated( RuleBindings bindings )
+      {
+         scheduleUpdate();
+      }
+      
+      private void scheduleUpdate()
+      {
+         if( disposed ) return;
+         if( statsJob.getState() == Job.NONE ) {
+            statsJob.schedule( STATS_FRAME );
+         }
+      }
+   }
+   
+   /**
+    * Updates the notification bar with the latest rule statistics, in the
+    * SWT thread.
+    */
+   class StatisticsJob extends Job implements Runnable
+   {
+      public StatisticsJob()
+      {
+         super( ZLang.ZL_UpdatingRuleStatistics );
+         setSystem( true );
+      }
+      
+      /* Override */
+      protected IStatus run( IProgressMonitor monitor )
+      {
+         if( !disposed && ZXTMPlugin.isEclipseLoaded() ) {
+            SWTUtil.asyncExec( this );
+         }
+         return Status.OK_STATUS;
+      }
+      
+      /* Override */
+      public void run()
+      {
+         if( !disposed ) updateNotifyBar();
+      }
+   }
+   
    // Static methods
    
    /**
@@ -614,6 +967,19 @@ public class TrafficScriptEditor extends TextEditor
       return openEditors.get( rule.getModelParent() + " > " + rule ); 
    }
    
+   /**
+    * Update the quick lookup table of open editors, and tell the rule whether
+    * it is being edited.
+    * @param zxtm The ZXTM the rule belongs to.
+    * @param rule The rule being opened or closed, may be null.
+    * @param editor The editor for the rule, or null if it has been closed.
+    */
+   private static void setOpenEditor( ZXTM zxtm, Rule rule, TrafficScriptEditor editor )
+   {
+      openEditors.put( zxtm + " > " + rule, editor );
+      if( rule != null ) rule.setEditorOpen( editor != null );
+   }
+   
    /**
     * Open an editor for a particular rule if one isn't already open. Otherwise
     * just focus on the currently open editor.
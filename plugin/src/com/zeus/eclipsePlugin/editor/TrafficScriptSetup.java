@@ -22,12 +22,13 @@ import com.zeus.eclipsePlugin.ZXTMPlugin;
 import com.zeus.eclipsePlugin.consts.Partition;
 
 /**
- * Class sets up document (just the partitioner) for .zts (TrafficScript) files.
+ * Class sets up document (the partitioner and line model) for .zts 
+ * (TrafficScript) files.
  */
 public class TrafficScriptSetup implements IDocumentSetupParticipant
 {
    /**
-    * Setup the TrafficScript Partitioner for .zts files
+    * Setup the TrafficScript Partitioner and line model for .zts files
     */
    /* Override */
    public void setup( IDocument document )
@@ -46,6 +47,8 @@ public class TrafficScriptSetup implements IDocumentSetupParticipant
          );
         
          partitioner.connect( document );
+         
+         CodeLineModel.connect( document );
 
       }
 
@@ -14,17 +14,25 @@ package com.zeus.eclipsePlugin.editor.assist;
 
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IViewportListener;
 import org.eclipse.jface.text.Region;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.CaretEvent;
+import org.eclipse.swt.custom.CaretListener;
 import org.eclipse.swt.custom.StyleRange;
 import org.eclipse.swt.custom.StyledText;
 import org.eclipse.swt.events.ControlEvent;
 import org.eclipse.swt.events.ControlListener;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.events.FocusEvent;
 import org.eclipse.swt.events.FocusListener;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
 
 import com.zeus.eclipsePlugin.ColourManager;
@@ -38,6 +46,7 @@ import com.zeus.eclipsePlugin.consts.ExternalPreference;
 import com.zeus.eclipsePlugin.consts.Partition;
 import com.zeus.eclipsePlugin.consts.Preference;
 import com.zeus.eclipsePlugin.editor.CodeLine;
+import com.zeus.eclipsePlugin.editor.CodeLineModel;
 import com.zeus.eclipsePlugin.editor.CodeUtil;
 import com.zeus.eclipsePlugin.editor.TrafficScriptEditor;
 import com.zeus.eclipsePlugin.swt.SWTUtil;
@@ -45,14 +54,27 @@ import com.zeus.eclipsePlugin.swt.SWTUtil;
 /**
  * This class updates and displays the parameter pop-up, which shows you the 
  * parameters for the function you are currently editing.
+ * 
+ * The pop-up is updated in response to caret, modify, scroll, resize and
+ * focus events. Updates are delayed until the editor settles, using a timer
+ * shared by all the editors so nothing runs whilst they are idle.
  */
-public class PopupManager implements FocusListener, ControlListener
+public class PopupManager implements FocusListener, ControlListener, 
+   CaretListener, ModifyListener, IViewportListener, DisposeListener
 {
+   /** How long to wait before updating a pop-up that is already shown (ms) */
+   private static final int MOVE_DELAY = 50;
+   
+   /** The manager waiting for the shared timer, if any. */
+   private static PopupManager pending = null;
+   
+   /** The timer shared by all the pop-up managers. */
+   private static final Runnable timer = new PopupTimer();
+   
    private TrafficScriptEditor editor;
    private Shell popupShell = null;
    private StyledText popupText;
    private boolean hasFocus = true;
-   private Update updateThread = null;
    private Point lastCursorPos = null;
    
    /**
@@ -64,14 +86,68 @@ public class PopupManager implements FocusListener, ControlListener
       this.editor = editor;
       
       // Add listeners to events which indicate the pop-up needs to be redrawn.
-      editor.getViewer().getTextWidget().addFocusListener( this );
-      editor.getViewer().getTextWidget().addControlListener( this );
+      StyledText textEditor = editor.getViewer().getTextWidget();
+      textEditor.addFocusListener( this );
+      textEditor.addControlListener( this );
+      textEditor.addCaretListener( this );
+      textEditor.addModifyListener( this );
+      textEditor.addDisposeListener( this );
+      editor.getViewer().addViewportListener( this );
+   }
+   
+   /**
+    * Update the pop-up after a delay, replacing any update that is already
+    * waiting. Only one update can be waiting at a time, as only the editor 
+    * with focus shows a pop-up.
+    * @param delay How long to wait before updating (ms).
+    */
+   private void scheduleUpdate( int delay )
+   {
+      StyledText textEditor = editor.getViewer().getTextWidget();
+      if( textEditor == null || textEditor.isDisposed() ) return;
+      
+      if( !PreferenceManager.getPreferenceBool( Preference.CONTEXT_ENABLE ) ) {
+         hidePopup();
+         return;
+      }
       
-      // Spawn the update thread, which monitors the text editor for changes.
-      // Tried doing it using just listeners but there aren't enough events and 
-      // we run the risk of missing some obscure event.
-      updateThread = new Update( editor.getViewer().getTextWidget() );
-      updateThread.start();
+      pending = this;
+      textEditor.getDisplay().timerExec( delay, timer );
+   }
+   
+   /**
+    * Cancel any waiting update for this pop-up manager.
+    */
+   private void cancelUpdate()
+   {
+      if( pending == this ) {
+         pending = null;
+         Display display = Display.getCurrent();
+         if( display != null ) display.timerExec( -1, timer );
+      }
+   }
+   
+   /**
+    * The caret offset has changed. If the pop-up is shown update it quickly,
+    * otherwise wait for the user to stop typing.
+    */
+   private void offsetChanged()
+   {
+      if( popupShell != null ) {
+         scheduleUpdate( MOVE_DELAY );
+      } else {
+         scheduleUpdate( PreferenceManager.getPreferenceInt( Preference.CONTEXT_WAIT ) );
+      }
+   }
+   
+   /**
+    * The text has moved on screen, hide the pop-up until it stops moving.
+    */
+   private void positionChanged()
+   {
+      lastCursorPos = null; // Force position recalculation
+      hidePopup();
+      scheduleUpdate( PreferenceManager.getPreferenceInt( Preference.CONTEXT_WAIT ) );
    }
 
    /**
@@ -156,7 +232,9 @@ public class PopupManager implements FocusListener, ControlListener
    
    /**
     * Calculate the context data (what function we are in, its open bracket 
-    * position etc) for the current offset.
+    * position etc) for the current offset. The enclosing brackets are found 
+    * using the document's CodeLineModel, so this does not depend on how far
+    * back the function call starts.
     * @param doc The document the offset is in.
     * @param offset The offset we want to work out context data for.
     * @return The context data for this position, or null if there is none (if
@@ -167,120 +245,41 @@ public class PopupManager implements FocusListener, ControlListener
       ZDebug.print( 6, "computeContextData( ", offset, " )" );
       
       try {         
-         // Read in the last 500 characters, hopefully we wont need any more 
-         // than this (if so this will break)
-         int lastN = Math.max( 0, offset - 2000 );
-         String before = doc.get( lastN, (offset - (lastN)));
+         CodeLineModel.connect( doc );
+         CodeLineModel model = CodeLineModel.getModel( doc );
          
          CodeLine currentLine = CodeUtil.getLineAreas( doc, Math.max( 0, offset ) );
          ZDebug.print( 7, "CURRENT LINE: ", currentLine );
          
-         int start = before.length() - 1;
-         int commas = 0;
-         int neededOpenBrackets = 1;
-         int bracketPos = -1;
-         StringBuffer functionBuffer = new StringBuffer( 20 );
-         
-         Partition partition = currentLine.getRegionType( offset );
-         if( partition == Partition.COMMENT ) {
+         if( currentLine == null || 
+             currentLine.getRegionType( offset ) == Partition.COMMENT ) 
+         {
             ZDebug.print( 6, "In a comment, return null" );
             return null;
          }
          
-         // Search through the characters before the offset in reverse.
-         while( start >= 0 ) {
-            char c = before.charAt( start );
-            
-            if( c == '\n' || c == '\r' ) {
-               currentLine = CodeUtil.getLineAreas( doc, Math.max( 0, start - 1 ) );
-               ZDebug.print( 7, "CURRENT LINE: ", currentLine );
-               start--;
-               continue;
+         // Find the function call we are in. Brackets that are not function 
+         // calls are skipped, e.g. foo( 1 + (2-3 <CURSOR>) )
+         int bracketPos = offset;
+         String functionName = null;
+         while( functionName == null ) {
+            bracketPos = model.getEnclosingBracket( doc, bracketPos );
+            if( bracketPos < 0 || doc.getChar( bracketPos ) == '{' ) {
+               ZDebug.print( 6, "Not in a function call" );
+               return null;
             }
             
-            partition = currentLine.getRegionType( start );
-            
-            if( partition == Partition.CODE ) {
-
-               // We have hit the end of a statement, we can't be in a parameter 
-               // block any more
-               if( c == ';' ) {
-                  ZDebug.print( 8, "Breaking: semicolon" );
-                  break;
-               
-               // We've started to read a function name and we've hit a 
-               // non-function character
-               } else if( 
-                  functionBuffer.length() > 0 &&
-                  !(Character.isLetterOrDigit( c ) || c == '.' ) )
-               {
-                  ZDebug.print( 8, "Breaking: function chars and an invalid char" );
-               
-                  // This wasn't a function just some brackets 
-                  // e.g. foo( 1 + (2-3 <CURSOR>) )
-                  if( functionBuffer.length() == 0 || 
-                     functionBuffer.toString().startsWith( "." ) ) // Starts with == ends with
-                  {
-                     ZDebug.print( 8, "False Match [", functionBuffer, "]" );
-                     neededOpenBrackets++;
-                     functionBuffer = new StringBuffer( 20 );
-                  
-                  // Its a function, lets break
-                  } else {
-                     break;
-                  }
-               
-            
-               // We just hit a close bracket, looks like we just entered another
-               // function call or set of brackets.
-               } else if( c == ')' ) {
-                  neededOpenBrackets++; 
-            
-               // We just left a function call parameter block. We might be able to
-               // look for the function name now!
-               } else if( c == '(' ) {
-                  neededOpenBrackets--;
-                  if( neededOpenBrackets < 0 ) {
-                     neededOpenBrackets = 0;
-                  }
-                  
-                  if( neededOpenBrackets == 0 ) {
-                     bracketPos = offset - (before.length() - start);
-                  }
-            
-               // If this is a function character and we've seen the end of the 
-               // parameter block this must be the function name
-               } else if( 
-                  neededOpenBrackets == 0 && 
-                  (Character.isLetterOrDigit( c ) || c == '.' ) ) 
-               {
-                  functionBuffer.append( c );
-                              
-               // If we are expecting a function name and we hit non-whitespace 
-               // and non-function, must be a brackets set.
-               } else if( neededOpenBrackets == 0 && !Character.isWhitespace( c ) ) {
-                  ZDebug.print( 8, "Not a function bracket set, increasing needed brackets." );
-                  
-                  neededOpenBrackets++;
-                                 
-               // Count the commas, this tells us which parameter we are in
-               } else if( neededOpenBrackets == 1 && c == ',' ) {
-                  commas++;
-               }
+            if( doc.getChar( bracketPos ) == '(' ) {
+               functionName = getFunctionName( doc, bracketPos );
             }
-            
-            ZDebug.print( 6, "Char: ", c, " - ", partition );
-            start--;
          }
-         start++;
          
-         functionBuffer.reverse();
-            
-         ZDebug.print( 7, "Function: [", functionBuffer, "] Commas: ", commas );
+         int commas = model.countArguments( doc, bracketPos, offset );
+         ZDebug.print( 7, "Function: [", functionName, "] Commas: ", commas );
                      
          // Is this a function with parameters?
          VersionCodeData version = editor.getCodeDataVersion();
-         Function function = version.getFunctionMatching( functionBuffer.toString() );
+         Function function = version.getFunctionMatching( functionName );
          if( function == null || function.getParams().length == 0 ) return null;
          
          // Work out which parameter we are in
@@ -344,6 +343,33 @@ public class PopupManager implements FocusListener, ControlListener
       return null;
    }
 
+   /**
+    * Read the name of the function called by an opening bracket.
+    * @param doc The document containing the bracket.
+    * @param bracketPos The position of the bracket.
+    * @return The name of the function, or null if the bracket is not a 
+    * function call. The name may be a keyword such as 'if'.
+    * @throws BadLocationException If the bracket is not in the document.
+    */
+   private static String getFunctionName( IDocument doc, int bracketPos ) 
+      throws BadLocationException
+   {
+      int end = bracketPos;
+      while( end > 0 && Character.isWhitespace( doc.getChar( end - 1 ) ) ) end--;
+      
+      int start = end;
+      while( start > 0 ) {
+         char c = doc.getChar( start - 1 );
+         if( !Character.isLetterOrDigit( c ) && c != '.' && c != '_' ) break;
+         start--;
+      }
+      
+      if( start == end || doc.getChar( end - 1 ) == '.' ) return null;
+      if( start > 0 && doc.getChar( start - 1 ) == '$' ) return null;
+      
+      return doc.get( start, end - start );
+   }
+
    /**
     * Get the context data for the current offset and update the pop-up 
     * accordingly.
@@ -394,6 +420,7 @@ public class PopupManager implements FocusListener, ControlListener
    {
       ZDebug.print( 2, "focusLost( ", e, " )" );
       hasFocus = false;
+      cancelUpdate();
       hidePopup();
    }
    
@@ -412,6 +439,38 @@ public class PopupManager implements FocusListener, ControlListener
       hidePopup();
       updatePopup();
    }
+   
+   /* Override */
+   public void caretMoved( CaretEvent e )
+   {
+      offsetChanged();
+   }
+
+   /* Override */
+   public void modifyText( ModifyEvent e )
+   {
+      offsetChanged();
+   }
+
+   /* Override */
+   public void viewportChanged( int verticalOffset )
+   {
+      positionChanged();
+   }
+   
+   /**
+    * The editor has been closed, remove the pop-up and stop listening.
+    */
+   /* Override */
+   public void widgetDisposed( DisposeEvent e )
+   {
+      ZDebug.print( 3, "widgetDisposed( ", e, " )" );
+      cancelUpdate();
+      hidePopup();
+      if( editor.getViewer() != null ) {
+         editor.getViewer().removeViewportListener( this );
+      }
+   }
 
    /**
     * Information on function parameters the user is currently editing.
@@ -444,169 +503,21 @@ public class PopupManager implements FocusListener, ControlListener
    }
    
    /**
-    * This class monitors a text editor, waiting for it to change. When it does
-    * it updates the pop-up.
+    * The timer shared by all pop-up managers, which updates the pop-up of the
+    * manager that scheduled it last. Run in the SWT thread.
     */
-   class Update extends Thread
+   private static class PopupTimer implements Runnable
    {
-      private StyledText textEditor;
-      private HidePopup hidePopup = new HidePopup();
-      private UpdatePopup updatePopup = new UpdatePopup();
-      
-      public Update( StyledText textEditor )
-      {
-         super( "Parameter Pop-up Updater" );
-         this.textEditor = textEditor;
-      }
-      
-      /** Runnable that hides the pop-up */
-      private class HidePopup implements Runnable
-      {
-         /* Override */
-         public void run()
-         {
-            hidePopup();
-         }
-      }
-      
-      /** Runnable that update the pop-up */
-      private class UpdatePopup implements Runnable
-      {
-         /* Override */
-         public void run()
-         {
-            updatePopup();
-         }
-      }
-      /**
-       * This checks for changes in the text editor. It checks the x/y position
-       * of the cursor relative to the editor, and the cursors offset.
-       */
-      private class GetOffset implements Runnable
-      {
-         /** The last offset that was measured */
-         public int offset = -1; 
-         
-         /** The X/Y location of the cursor realtive to the editor */
-         public Point cursorPos = null;
-         
-         // These tell us what has changed.
-         public boolean disposed = false, offsetChanged = false, 
-                        cursorChanged = false;
-         
-         /**
-          * This updates the offset and cursor pos. Needs to be run in the SWT
-          * thread.
-          */
-         /* Override */
-         public void run()
-         {
-            if( textEditor.isDisposed() ) {
-               disposed = true;
-               return;
-            }
-            
-            if( textEditor.getText().length() == 0 ) return;
-            
-            offset = textEditor.getSelection().x;
-            
-            Rectangle cursorRect = textEditor.getTextBounds(
-               Math.max( 0, offset - 1 ), Math.max( 0, offset - 1 )
-            );
-            cursorPos = new Point( cursorRect.x, cursorRect.y );
-         }
-
-         /**
-          * This method checks if the editor has changed. It also updates 
-          * the public variables of this class.
-          * @return True if the editor has changed, false otherwise.
-          */
-         public boolean updateOffset()
-         {
-            int oldOffset = offset;
-            Point oldCursorPos = cursorPos;
-            
-            SWTUtil.exec( this );
-            if( disposed || cursorPos == null ) return false;
-            
-            ZDebug.print( 10, "Update - offset: ", offset, " Cursor: ", cursorPos.x, ",", cursorPos.y );
-            
-            if( oldOffset != offset ) { 
-               offsetChanged = true;
-               cursorChanged = false;
-               return true;
-            } else if ( oldCursorPos == null || 
-               oldCursorPos.x != cursorPos.x || oldCursorPos.y != cursorPos.y ) 
-            {
-               offsetChanged = false;
-               cursorChanged = true;
-               return true;
-            } else {
-               offsetChanged = false;
-               cursorChanged = false;
-               return false;
-            }
-         }
-      }
-      
-      /**
-       * This is the thread update code. It continually checks the editor for 
-       * changes and updates the pop-up.
-       */
       /* Override */
       public void run()
       {
-         GetOffset getOffset = new GetOffset();
-         getOffset.updateOffset();
-         
-         while( true ) {
-            
-            if( !PreferenceManager.getPreferenceBool( Preference.CONTEXT_ENABLE ) ) {
-               if( popupShell != null ) {
-                  SWTUtil.exec( hidePopup );
-               }
-               if( textEditor.isDisposed() ) return;
-               try { sleep( 2000 ); } catch( InterruptedException e ) { }
-               if( textEditor.isDisposed() ) return;
-               continue;
-            }
-            
-            // Wait for a change          
-            do {
-               if( textEditor.isDisposed() ) return;
-               try { sleep( 50 ); } catch( InterruptedException e ) { }
-               if( textEditor.isDisposed() ) return;
-   
-               ZDebug.print( 10, "Tick!" );
-   
-            } while( !getOffset.updateOffset() );
-            
-            // Wait for changes to stabilise    
-            if( getOffset.cursorChanged || popupShell == null ) {
-               if( popupShell != null ) {
-                  SWTUtil.exec( hidePopup );
-               }
-               
-               do {
-                  if( textEditor.isDisposed() ) return;
-                  try { sleep( PreferenceManager.getPreferenceInt( Preference.CONTEXT_WAIT ) ); } catch( InterruptedException e ) { }
-                  if( textEditor.isDisposed() ) return;
-      
-                  ZDebug.print( 8, "Tick!" );
-      
-               } while( getOffset.updateOffset() );
-            }
-            
-            ZDebug.print( 4, "Finished sleep..." );
-   
-            // Update the pop-up
-            SWTUtil.asyncExec( updatePopup );
-            
-            if( textEditor.isDisposed() ) return;
+         PopupManager manager = pending;
+         pending = null;
+         if( manager != null ) {
+            ZDebug.print( 4, "Pop-up timer fired" );
+            manager.updatePopup();
          }
-         
-      }        
+      }
    }
-
   
 }
@@ -26,6 +26,8 @@ import com.zeus.eclipsePlugin.ZDebug;
  */
 public class EscapeCharacterRule implements IRule
 {
+   private static final ZDebug.Logger log = ZDebug.getLogger( EscapeCharacterRule.class );
+   
    private IToken escapeToken;
    private Pattern escapePattern;
    
@@ -63,7 +65,7 @@ public class EscapeCharacterRule implements IRule
    /* Override */
    public synchronized IToken evaluate( ICharacterScanner scanner )
    {
-      ZDebug.print( 3, "evaluate( ", scanner, " )" );
+      if( log.isEnabled( 3 ) ) log.print( 3, "evaluate( ", scanner, " )" );
       readCount = 0;
       
       char c;
@@ -78,7 +80,7 @@ public class EscapeCharacterRule implements IRule
       }
       rewind( scanner );
       
-      ZDebug.print( 4, "Processing word: '", buffer, "'" );
+      if( log.isEnabled( 4 ) ) log.print( 4, "Processing word: '", buffer, "'" );
       
       // Match the longest escape pattern we can with the characters me have
       while( buffer.length() > 0 && !escapePattern.matcher( buffer.toString() ).matches() ) {
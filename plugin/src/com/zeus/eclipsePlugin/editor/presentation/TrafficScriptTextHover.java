@@ -86,7 +86,7 @@ public class TrafficScriptTextHover implements ITextHover, IAnnotationHover, ITe
          } else if( marker != null &&
             !PreferenceManager.getPreferenceBool( Preference.HOVER_PROBLEMS ) && 
             MarkerUtil.markerIsOfType( marker, MarkerType.ERROR, 
-               MarkerType.WARNING, MarkerType.INFO ) ) 
+               MarkerType.WARNING, MarkerType.INFO, MarkerType.COST ) ) 
          {
             ZDebug.print( 4, "Marker is a problem, not returning" );
             marker = null;
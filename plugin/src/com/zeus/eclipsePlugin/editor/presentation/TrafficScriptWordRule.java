@@ -12,24 +12,24 @@
 
 package com.zeus.eclipsePlugin.editor.presentation;
 
-import java.util.Collection;
-
 import org.eclipse.jface.text.rules.ICharacterScanner;
 import org.eclipse.jface.text.rules.IRule;
 import org.eclipse.jface.text.rules.IToken;
 import org.eclipse.jface.text.rules.Token;
 
 import com.zeus.eclipsePlugin.ZDebug;
-import com.zeus.eclipsePlugin.codedata.CodePossibility;
 import com.zeus.eclipsePlugin.codedata.VersionCodeData;
-import com.zeus.eclipsePlugin.codedata.CodePossibility.Type;
+import com.zeus.eclipsePlugin.codedata.WordIndex;
 
 /**
  * This matches various bits of TrafficScript code and returns the appropriate 
- * style token. It uses the editors code data to determine what to colour.
+ * style token. It uses the editors code data to determine what to colour, 
+ * classifying each word with the code data's WordIndex as it is read.
  */
 public class TrafficScriptWordRule implements IRule
 {
+   private static final ZDebug.Logger log = ZDebug.getLogger( TrafficScriptWordRule.class );
+   
    private VersionCodeData version;
    private IToken functionToken, keywordToken, deprecatedToken, defaultToken;
    
@@ -65,59 +65,49 @@ public class TrafficScriptWordRule implements IRule
    /* Override */
    public synchronized IToken evaluate( ICharacterScanner scanner )
    {
-      ZDebug.print( 4, "evaluate( ", scanner, " )" );
+      if( log.isEnabled( 4 ) ) log.print( 4, "evaluate( ", scanner, " )" );
       readCount = 0;
       
       // Read in code until we hit something that can't be part of a keyword or
-      // function
+      // function, following the word through the code data's index.
+      WordIndex index = version.getWordIndex();
+      int node = WordIndex.ROOT;
+      int length = 0;
       char c;
-      StringBuffer buffer = new StringBuffer( 50 );
       
       while( (c = readChar( scanner )) != 0 ) {  
          if( !Character.isLetterOrDigit( c ) && c != '.' ) {
-            ZDebug.print( 8, "Breaking on: ", c );
+            log.print( 8, "Breaking on: ", c );
             break;         
          }
          if( readCount == 1 && !Character.isLetter( c ) ) {
-            ZDebug.print( 8, "Breaking on: ", c );
+            log.print( 8, "Breaking on: ", c );
             break;  
          }
          
-         buffer.append( c );      
+         node = index.next( node, c );
+         length++;
       }
       rewind( scanner );
       
-      ZDebug.print( 4, "Processing word: '", buffer, "'" );
+      if( length == 0 ) {
+         rewindToBeginning( scanner );
+         return Token.UNDEFINED;
+      }
       
-      // Use code matching functions to find any keywords/functions that match.
-      if( buffer.length() > 0 ) {
-         Collection<CodePossibility> possibilities = version.getPossiblilities( 
-            buffer.toString(), new Type[] { Type.KEYWORD }
-         );
-         
-         if( possibilities.size() > 0 ) {
-            ZDebug.print( 5, "Word is keyword." );
+      switch( index.getType( node ) ) {
+         case KEYWORD: {
+            log.print( 5, "Word is keyword." );
             return keywordToken;
          }
-         
-         possibilities = version.getPossiblilities( 
-            buffer.toString(), new Type[] { Type.FUNCTION, Type.GROUP }
-         );
-         
-         if( possibilities.size() > 0 ) {
-            if( possibilities.size() == 1  ) {
-               CodePossibility first = possibilities.iterator().next();
-               if( first.getFunction() != null && first.getFunction().isDeprecated() ) {
-                  ZDebug.print( 5, "Word is deprecated." );
-                  return deprecatedToken;
-               }
-            }
-            ZDebug.print( 5, "Word is function." );
+         case DEPRECATED: {
+            log.print( 5, "Word is deprecated." );
+            return deprecatedToken;
+         }
+         case FUNCTION: {
+            log.print( 5, "Word is function." );
             return functionToken;
          }
-      } else {
-         rewindToBeginning( scanner );
-         return Token.UNDEFINED;
       }
       
       if( defaultToken.isUndefined() ) {
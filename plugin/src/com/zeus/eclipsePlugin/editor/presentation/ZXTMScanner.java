@@ -30,6 +30,8 @@ import com.zeus.eclipsePlugin.swt.ColourSetting;
  */
 public abstract class ZXTMScanner extends RuleBasedScanner
 {
+   private static final ZDebug.Logger log = ZDebug.getLogger( ZXTMScanner.class );
+   
    protected TrafficScriptEditor editor;
    private boolean invalidated = false;
    private boolean disposed = false;
@@ -119,7 +121,7 @@ public abstract class ZXTMScanner extends RuleBasedScanner
    /* Override */
    public void setRange( IDocument document, int offset, int length )
    {
-      ZDebug.print( 4, "setRange( ", document, ", ", offset, ", ", length );
+      if( log.isEnabled( 4 ) ) log.print( 4, "setRange( ", document, ", ", offset, ", ", length );
       if( !disposed && (invalidated || needUpdate()) ) {
          update();
          invalidated = false;
@@ -12,7 +12,6 @@
 
 package com.zeus.eclipsePlugin.filesystem;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
@@ -143,11 +142,7 @@ public class RuleFileStore extends FileStore
       } else {      
          info.setExists( true );
          info.setDirectory( false );
-         if( rule.getTrafficScriptCode() != null ) {
-            info.setLength( rule.getTrafficScriptCode().length() );
-         } else {
-            info.setLength( 0 );
-         }
+         info.setLength( rule.getCodeLength() );
          info.setLastModified( EFS.NONE );
          info.setAttribute( EFS.ATTRIBUTE_READ_ONLY, false );
       }
@@ -198,7 +193,7 @@ public class RuleFileStore extends FileStore
    /** 
     * Open an input stream to the rule. If the rule is not accessible, throws 
     * an exception. Otherwise returns an input stream that returns the contents
-    * of the rule.
+    * of the rule as UTF-8, read from the model without copying.
     */
    /* Override */
    public InputStream openInputStream( int options, IProgressMonitor monitor )
@@ -248,7 +243,7 @@ public class RuleFileStore extends FileStore
          
       }
       
-      return new ByteArrayInputStream( rule.getTrafficScriptCode().getBytes() );
+      return rule.openCodeStream();
    }
    
    /**
@@ -16,12 +16,14 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 import com.zeus.eclipsePlugin.ZDebug;
+import com.zeus.eclipsePlugin.ZUtil;
 import com.zeus.eclipsePlugin.model.Rule;
 import com.zeus.eclipsePlugin.model.ZXTM;
 
 /**
  * Version of an byte array output stream that writes to a rule when the stream
- * is closed.
+ * is closed. The written bytes are UTF-8, and the stream's buffer is passed to
+ * the rule as it is.
  */
 public class RuleOutputStream extends ByteArrayOutputStream
 {
@@ -63,13 +65,13 @@ public class RuleOutputStream extends ByteArrayOutputStream
       super.close();
       try {
          if( rule != null ) {
-            rule.setCode( this.toString() );
+            rule.setCode( buf, count );
          } else if( zxtm.getRule( ruleName ) != null ){
-            zxtm.getRule( ruleName ).setCode( this.toString() );
+            zxtm.getRule( ruleName ).setCode( buf, count );
          } else {
             
             try {                             
-               zxtm.addRule( ruleName, this.toString() );
+               zxtm.addRule( ruleName, ZUtil.fromUTF8( buf, 0, count ) );
             } catch( Exception e ) {              
                ZDebug.printStackTrace( e, "Add rule for outstream failed: ", ruleName );
                throw new IOException( e.getMessage() );
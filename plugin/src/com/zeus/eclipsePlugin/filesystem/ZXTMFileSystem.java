@@ -13,11 +13,14 @@
 package com.zeus.eclipsePlugin.filesystem;
 
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.util.HashMap;
+import java.util.Iterator;
 
 import org.eclipse.core.filesystem.EFS;
 import org.eclipse.core.filesystem.IFileStore;
@@ -37,6 +40,11 @@ import com.zeus.eclipsePlugin.project.ZXTMProject;
  * This class is the main class for the ZXTM file-system. It is responsible for 
  * decoding URIs and creating file store objects (classes that represent a file
  * in the file-system), when they are requested by eclipse.
+ * 
+ * File stores are cached so the same store is returned for the same URI. The
+ * cache only holds weak references, so stores nothing else is using can be
+ * garbage collected, and stores for deleted rules and ZXTMs are removed 
+ * straight away (see forget()).
  */
 public class ZXTMFileSystem extends FileSystem
 {
@@ -55,7 +63,11 @@ public class ZXTMFileSystem extends FileSystem
     */
    public static final String PROTOCOL = "zxtm";
    
-   private HashMap< String, IFileStore > filesTable = new HashMap< String, IFileStore >();
+   private HashMap< String, StoreReference > filesTable = new HashMap< String, StoreReference >();
+   private ReferenceQueue<IFileStore> collected = new ReferenceQueue<IFileStore>();
+   
+   /** The cache key of each cached rule store, by ZXTM and rule name. */
+   private HashMap< String, String > ruleKeys = new HashMap< String, String >();
   
       
    /** Default constructor, writes some debug info. */
@@ -83,16 +95,9 @@ public class ZXTMFileSystem extends FileSystem
       }
       
       // Check for alternate names ending or missing '/'
-      IFileStore hashedStore = filesTable.get( uri.toString() );
+      IFileStore hashedStore = getCached( uri.toString() );
       if( hashedStore == null ) {
-         String uString = uri.toString();
-         if( uString.endsWith( "/" ) ) {
-            uString = uString.substring( 0, uString.length() - 1 );
-         } else {
-            uString += "/";
-         }
-         
-         hashedStore = filesTable.get( uString );
+         hashedStore = getCached( alternateName( uri.toString() ) );
       }
       
       // If we have a hashed file store return that.
@@ -201,12 +206,144 @@ public class ZXTMFileSystem extends FileSystem
       }
       
       //
-      filesTable.put( uri.toString(), hashedStore );
+      cache( uri.toString(), hashedStore );
       ZDebug.print( 2, "Cached '", uri.toString(), "' -> ", hashedStore );
       return hashedStore;
       
    }
    
+   /**
+    * Get the other form of a URI string, with or without a trailing '/'.
+    * @param uString The URI string.
+    * @return The URI string with '/' removed from or added to the end.
+    */
+   private static String alternateName( String uString )
+   {
+      if( uString.endsWith( "/" ) ) {
+         return uString.substring( 0, uString.length() - 1 );
+      } else {
+         return uString + "/";
+      }
+   }
+   
+   /**
+    * Get a cached file store.
+    * @param key The URI string of the store.
+    * @return The store, or null if it is not cached.
+    */
+   private synchronized IFileStore getCached( String key )
+   {
+      expunge();
+      StoreReference ref = filesTable.get( key );
+      return ref == null ? null : ref.get();
+   }
+   
+   /**
+    * Add a file store to the cache.
+    * @param key The URI string of the store.
+    * @param store The store to cache.
+    */
+   private synchronized void cache( String key, IFileStore store )
+   {
+      expunge();
+      
+      String ruleKey = null;
+      if( store instanceof RuleFileStore ) {
+         RuleFileStore ruleStore = (RuleFileStore) store;
+         ruleKey = getRuleKey( ruleStore.zxtm, ruleStore.ruleName );
+         ruleKeys.put( ruleKey, key );
+      }
+      
+      filesTable.put( key, new StoreReference( key, ruleKey, store, collected ) );
+   }
+   
+   /**
+    * Get the key used to find the cached store of a rule.
+    * @param zxtm The rule's ZXTM.
+    * @param ruleName The name of the rule.
+    * @return The key for the rule.
+    */
+   private static String getRuleKey( ZXTM zxtm, String ruleName )
+   {
+      return zxtm.getHostname() + ":" + zxtm.getAdminPort() + "/" + ruleName;
+   }
+   
+   /**
+    * Remove the entries for file stores that have been garbage collected.
+    */
+   private void expunge()
+   {
+      StoreReference ref;
+      while( (ref = (StoreReference) collected.poll()) != null ) {
+         if( filesTable.get( ref.key ) == ref ) {
+            filesTable.remove( ref.key );
+         }
+         if( ref.ruleKey != null && ref.key.equals( ruleKeys.get( ref.ruleKey ) ) ) {
+            ruleKeys.remove( ref.ruleKey );
+         }
+      }
+   }
+   
+   /**
+    * Remove the cached file stores for a model element that has been deleted,
+    * so they don't stay in memory. For a ZXTM all the stores below it are 
+    * removed.
+    * @param element The deleted element.
+    */
+   public synchronized void forget( ModelElement element )
+   {
+      ZDebug.print( 4, "forget( ", element, " )" );
+      
+      switch( element.getModelType() ) {
+         case RULE: {
+            Rule rule = (Rule) element;
+            String key = ruleKeys.remove( 
+               getRuleKey( (ZXTM) rule.getModelParent(), rule.getName() ) 
+            );
+            if( key != null ) {
+               filesTable.remove( key );
+               filesTable.remove( alternateName( key ) );
+            }
+            break;
+         }
+         case ZXTM: {
+            ZXTM zxtm = (ZXTM) element;
+            String key = getURIForModelElement( zxtm ).normalize().toString();
+            filesTable.remove( alternateName( key ) );
+            Iterator<String> keys = filesTable.keySet().iterator();
+            while( keys.hasNext() ) {
+               if( keys.next().startsWith( key ) ) keys.remove();
+            }
+            
+            String rulePrefix = getRuleKey( zxtm, "" );
+            keys = ruleKeys.keySet().iterator();
+            while( keys.hasNext() ) {
+               if( keys.next().startsWith( rulePrefix ) ) keys.remove();
+            }
+            break;
+         }
+      }
+      
+      expunge();
+   }
+   
+   /**
+    * A weak reference to a cached file store, which remembers its key so it
+    * can be removed from the cache once the store is collected.
+    */
+   private static class StoreReference extends WeakReference<IFileStore>
+   {
+      final String key, ruleKey;
+      
+      StoreReference( String key, String ruleKey, IFileStore store, 
+         ReferenceQueue<IFileStore> queue )
+      {
+         super( store, queue );
+         this.key = key;
+         this.ruleKey = ruleKey;
+      }
+   }
+   
    /** As a general rule you can write to the file system, though file stores
     *  themselves have the last say. */
    /* Override */
@@ -13,46 +13,102 @@
 package com.zeus.eclipsePlugin.filesystem;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 
 import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 
 import com.zeus.eclipsePlugin.ZDebug;
+import com.zeus.eclipsePlugin.ZLang;
 import com.zeus.eclipsePlugin.ZXTMPlugin;
 import com.zeus.eclipsePlugin.model.ModelElement;
 import com.zeus.eclipsePlugin.model.ModelListener;
+import com.zeus.eclipsePlugin.model.Rule;
 import com.zeus.eclipsePlugin.model.ZXTM;
 import com.zeus.eclipsePlugin.model.ModelElement.Event;
 import com.zeus.eclipsePlugin.model.ModelElement.State;
 import com.zeus.eclipsePlugin.project.ZXTMProject;
 import com.zeus.eclipsePlugin.project.operations.RefreshResourceOp;
-import com.zeus.eclipsePlugin.swt.SWTUtil;
 
 /**
  * Listens to the model and refreshes the rules directory when something 
  * changes.
+ * 
+ * Refreshes are not done straight away, they are collected for a short time
+ * and then done together, so a burst of events (e.g. when a ZXTM reconnects 
+ * and all its rules change state) only causes one refresh of each project. 
+ * If only existing rules changed, just their files are refreshed rather than
+ * the whole rules directory.
  */
 public class ZXTMFileSystemRefresher implements ModelListener
 {
+   /** How long to collect events for before refreshing (ms) */
+   private static final int REFRESH_DELAY = 250;
+   
+   /** If more than this many rules change, refresh the whole directory */
+   private static final int MAX_FILE_REFRESHES = 20;
+   
+   /** The refreshes waiting to be done, for each ZXTM */
+   private HashMap<ZXTM,PendingRefresh> pending = 
+      new HashMap<ZXTM,PendingRefresh>();
+   
+   private RefreshJob job = new RefreshJob();
+   
    /**
-    * Adds this as a listener to the new child and runs the main update method.
+    * Adds this as a listener to the new child and refreshes the rules 
+    * directory, as it may have a new file in it.
     */
    /* Override */
    public void childAdded( ModelElement parent, ModelElement child )
    {
       child.addListener( this );
-      modelUpdated( child, ModelElement.Event.CHANGED );      
+      requestRefresh( child, true );
    }
 
    /**
-    * Refreshes the correct rules directory for this element's ZXTM.
+    * Refreshes the correct rules directory for this element's ZXTM. If a rule
+    * has changed only its file is refreshed.
     */
    /* Override */
    public void modelUpdated( ModelElement element, Event event )
    {
       ZDebug.print( 2, "modelUpdated( ", element, ", ", event, " )" );
       
+      // Deleted elements no longer need their file stores
+      if( event == Event.DELETED && 
+          ( element.getModelType() == ModelElement.Type.RULE || 
+            element.getModelType() == ModelElement.Type.ZXTM ) ) 
+      {
+         ZXTMFileSystem fs = ZXTMFileSystem.getFileSystem();
+         if( fs != null ) fs.forget( element );
+      }
+      
+      requestRefresh( element, event != Event.CHANGED );
+   }
+
+   /** Refreshes the element's file, or its ZXTM's rules directory. */
+   /* Override */
+   public void stateChanged( ModelElement element, State state )
+   {
+      requestRefresh( element, false );
+   }
+   
+   /**
+    * Add a refresh for an element to the pending refreshes, and make sure the
+    * refresh job is scheduled.
+    * @param element The element that has changed.
+    * @param folder Should the whole rules directory be refreshed? If false
+    * and the element is a rule, only the rule's file is refreshed.
+    */
+   private void requestRefresh( ModelElement element, boolean folder )
+   {
       // Find the ZXTM for the current element
       ModelElement current = element;     
       while( current != null && current.getModelType() != ModelElement.Type.ZXTM ){
@@ -62,38 +118,120 @@ public class ZXTMFileSystemRefresher implements ModelListener
       if( current == null ) return;
       
       ZXTM zxtm = (ZXTM) current;            
-      ZDebug.print( 2, "Parent ZXTM: ", zxtm );
+      ZDebug.print( 4, "Parent ZXTM: ", zxtm );
       
-      // Get the project for this ZXTM
-      IProject project = ZXTMProject.getProjectForZXTM( zxtm );
+      synchronized( pending ) {
+         PendingRefresh refresh = pending.get( zxtm );
+         if( refresh == null ) {
+            refresh = new PendingRefresh();
+            pending.put( zxtm, refresh );
+         }
+         
+         if( !folder && element.getModelType() == ModelElement.Type.RULE ) {
+            refresh.rules.add( (Rule) element );
+         } else {
+            refresh.folder = true;
+         }
+      }
       
-      if( project == null || !project.isOpen() || !project.isAccessible() ) {
-         ZDebug.print( 4, "Could not project to refresh for ZXTM: ", zxtm );
-         return;
+      // Does nothing if the job is already waiting to run
+      job.schedule( REFRESH_DELAY );
+   }
+   
+   /**
+    * Do all the pending refreshes.
+    * @param monitor Monitor to report progress to.
+    */
+   private void refreshPending( IProgressMonitor monitor )
+   {
+      HashMap<ZXTM,PendingRefresh> todo;
+      synchronized( pending ) {
+         todo = new HashMap<ZXTM,PendingRefresh>( pending );
+         pending.clear();
       }
       
-      // Refresh the rules directory
-      try {   
-         ZDebug.print( 4, "Refreshing project: ", project.getName() );
+      for( Map.Entry<ZXTM,PendingRefresh> entry : todo.entrySet() ) {
+         if( monitor.isCanceled() ) return;
+         
+         ZXTM zxtm = entry.getKey();
+         PendingRefresh refresh = entry.getValue();
+         
+         // Get the project for this ZXTM
+         IProject project = ZXTMProject.getProjectForZXTM( zxtm );
+         
+         if( project == null || !project.isOpen() || !project.isAccessible() ) {
+            ZDebug.print( 4, "Could not project to refresh for ZXTM: ", zxtm );
+            continue;
+         }
+         
          IFolder rulesFolder = project.getFolder( ZXTMFileSystem.RULE_PATH );
-         if( ZXTMPlugin.isEclipseLoaded() && rulesFolder.exists() ) {
-            SWTUtil.progressBackground( new RefreshResourceOp( 
-               rulesFolder, IResource.DEPTH_ONE
-            ), false );            
+         if( !ZXTMPlugin.isEclipseLoaded() || !rulesFolder.exists() ) continue;
+         
+         RefreshResourceOp op;
+         if( refresh.folder || refresh.rules.size() > MAX_FILE_REFRESHES ) {
+            ZDebug.print( 4, "Refreshing project: ", project.getName() );
+            op = new RefreshResourceOp( rulesFolder, IResource.DEPTH_ONE );
+         } else {
+            ZDebug.print( 4, "Refreshing ", refresh.rules.size(), 
+               " rules in project: ", project.getName() 
+            );
+            
+            IResource[] files = new IResource[refresh.rules.size()];
+            int i = 0;
+            for( Rule rule : refresh.rules ) {
+               files[i++] = rulesFolder.getFile( 
+                  ZXTMFileSystem.toOSName( rule.getName() ) + 
+                  ZXTMFileSystem.TS_FILE_EXTENSION 
+               );
+            }
+            op = new RefreshResourceOp( files, IResource.DEPTH_ZERO );
          }
-      } catch( InvocationTargetException e ) {
-         ZDebug.printStackTrace( e, "Failed to referesh project: ", project );
-      }   
-      
-      
+         
+         // Refresh the rules directory
+         try {
+            op.run( monitor );
+         } catch( InvocationTargetException e ) {
+            ZDebug.printStackTrace( e, "Failed to referesh project: ", project );
+         } catch( InterruptedException e ) {
+            ZDebug.print( 3, "Refresh of project interrupted: ", project );
+            return;
+         }
+      }
    }
-
-   /** This just runs the main update method. */
-   /* Override */
-   public void stateChanged( ModelElement element, State state )
+   
+   /**
+    * The refreshes waiting to be done for a ZXTM.
+    */
+   private static class PendingRefresh
    {
-      modelUpdated( element, ModelElement.Event.CHANGED );      
+      /** Should the whole rules directory be refreshed? */
+      boolean folder = false;
+      
+      /** Rules whose files should be refreshed. */
+      HashSet<Rule> rules = new HashSet<Rule>();
    }
    
+   /**
+    * Background job that does the pending refreshes. 
+    */
+   private class RefreshJob extends Job
+   {
+      public RefreshJob()
+      {
+         super( ZLang.ZL_RefreshingZXTMProjects );
+         setSystem( true );
+      }
+
+      /* Override */
+      protected IStatus run( IProgressMonitor monitor )
+      {
+         try {
+            refreshPending( monitor );
+         } catch( RuntimeException e ) {
+            ZDebug.printStackTrace( e, "Refreshing projects failed" );
+         }
+         return Status.OK_STATUS;
+      }
+   }
    
 }
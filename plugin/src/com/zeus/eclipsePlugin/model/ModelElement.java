@@ -23,6 +23,8 @@ import com.zeus.eclipsePlugin.ZDebug;
  */
 public abstract class ModelElement
 {  
+   private static final ZDebug.Logger log = ZDebug.getLogger( ModelElement.class );
+   
    /**
     * Element types definition.
     */
@@ -142,9 +144,9 @@ public abstract class ModelElement
     */
    protected void updateListeners( Event event ) 
    {
-      ZDebug.print( 4, "updateListeners( ", event, " )" );
+      if( log.isEnabled( 4 ) ) log.print( 4, "updateListeners( ", event, " )" );
       for( ModelListener listener : getListeners() ) {
-         ZDebug.print( 6, "Updating listener: ", listener );
+         log.print( 6, "Updating listener: ", listener );
          try {            
             listener.modelUpdated( this, event );
          } catch( Exception e ) {
@@ -160,10 +162,10 @@ public abstract class ModelElement
     */
    protected void updateListenersChild( ModelElement child ) 
    {
-      ZDebug.print( 4, "updateListenersChild( ", child, " )" );
+      if( log.isEnabled( 4 ) ) log.print( 4, "updateListenersChild( ", child, " )" );
       
       for( ModelListener listener : getListeners() ) {
-         ZDebug.print( 6, "Updating listener: ", listener );
+         log.print( 6, "Updating listener: ", listener );
          try {
             listener.childAdded( this, child );
          } catch( Exception e ) {
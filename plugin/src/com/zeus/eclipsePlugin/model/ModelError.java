@@ -22,6 +22,7 @@ public enum ModelError
    CONNECTION_REFUSED   ( ZLang.ZL_ModelConnectionRefusesd  ),
    CANNOT_RESOLVE       ( ZLang.ZL_ModelCannotResolve ),
    BAD_SOAP_RESPONSE    ( ZLang.ZL_ModelBadSOAPResponse ), 
+   BAD_REST_RESPONSE    ( ZLang.ZL_ModelBadRESTResponse ),
    SSL_ERROR            ( ZLang.ZL_ModelSSLError ),
    AUTH_FAILED          ( ZLang.ZL_ModelAuthorisationFailed ), 
    INTERNAL   		      ( ZLang.ZL_ModelInternalError ),
@@ -12,6 +12,8 @@
 
 package com.zeus.eclipsePlugin.model;
 
+import java.io.InputStream;
+
 /**
  * Abstract model of a ZXTM TrafficScript Rule
  */
@@ -31,12 +33,37 @@ public abstract class Rule extends ModelElement implements Comparable< Rule >
     * comments should NOT be returned. */
    public abstract String getTrafficScriptCode();
    
+   /**
+    * Open a stream of the rule's code (as returned by getTrafficScriptCode())
+    * encoded as UTF-8. The stream reads the model's copy of the code, so
+    * opening it does not copy the code.
+    * @return A new stream of the code.
+    */
+   public abstract InputStream openCodeStream();
+   
+   /**
+    * Get the length of the rule's code (as returned by getTrafficScriptCode())
+    * when encoded as UTF-8.
+    * @return The length of the code in bytes.
+    */
+   public abstract int getCodeLength();
+   
    /**
     * This is like getCode but will return the special RuleBuilder comments.
     * @return The code of this rule, including special comments.
     */
    public abstract String getRawCode();
    
+   /**
+    * A fingerprint of the rule's code (as returned by getTrafficScriptCode()),
+    * which changes whenever the code changes. The ZXTM uses it to look up 
+    * the results of checking the code. 
+    * See {@link com.zeus.eclipsePlugin.ZUtil#fingerprint(String)}.
+    * @return The fingerprint of the code, or null if the code has not been 
+    * retrieved yet.
+    */
+   public abstract String getFingerprint();
+   
    /** 
     * Any errors in the code. 
     */
@@ -53,6 +80,25 @@ public abstract class Rule extends ModelElement implements Comparable< Rule >
     */
    public abstract boolean setCode( String code ) throws RuleCodeException, ModelException;
    
+   /**
+    * Set the code for this rule from UTF-8 bytes, as setCode( String ). The
+    * bytes are sent to ZXTM as they are if the backend allows it.
+    * @param code A buffer containing the code encoded as UTF-8. It is not 
+    * changed or kept.
+    * @param length The number of bytes of code at the start of the buffer.
+    * @throws RuleCodeException If the code contains errors this exception may
+    * be thrown. 
+    * @throws ModelException If an error occurs whilst seting the value
+    */
+   public abstract boolean setCode( byte[] code, int length ) throws RuleCodeException, ModelException;
+   
+   /**
+    * Inform the model that an editor has been opened or closed for this rule.
+    * Models may use this to keep rules being edited more up to date.
+    * @param open True if an editor is open for this rule.
+    */
+   public abstract void setEditorOpen( boolean open );
+   
    /** 
     * Returns true if this is a rule builder rule. 
     */
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.model;
+
+/**
+ * The way a model lists, fetches and stores the rules of a ZXTM. This allows
+ * a model to use a different protocol for rules (e.g. the REST API) from the
+ * one it uses for everything else.
+ *
+ * Methods throw Exception, as that's what the underlying protocols throw.
+ * The model converts them into ModelExceptions.
+ */
+public interface RuleBackend
+{
+   /**
+    * Get the names of all the rules on the ZXTM.
+    * @return The rule names.
+    * @throws Exception If communication with the ZXTM fails.
+    */
+   public String[] getRuleNames() throws Exception;
+
+   /**
+    * Fetch the code of some rules.
+    * @param names The names of the rules to fetch.
+    * @param tags The tag of the version of each rule we already have (from a
+    * previous RuleText) or null entries if we don't have the rule. Backends
+    * that support it only send rules that have changed.
+    * @return The text of each rule, in the same order as the names. Entries
+    * are null if the rule has not changed since the passed tag.
+    * @throws UnknownRuleException If one of the rules does not exist.
+    * @throws Exception If communication with the ZXTM fails.
+    */
+   public RuleText[] getRules( String[] names, String[] tags ) throws Exception;
+
+   /**
+    * Create a new rule. The code is passed both as a string and as UTF-8, 
+    * which the caller already has, so the backend can send whichever its 
+    * protocol uses without converting it.
+    * @param name The name of the new rule.
+    * @param code The code of the new rule.
+    * @param utf8 A buffer containing the same code as UTF-8.
+    * @param length The number of bytes of code at the start of the buffer.
+    * @throws Exception If communication with the ZXTM fails.
+    */
+   public void addRule( String name, String code, byte[] utf8, int length ) 
+      throws Exception;
+
+   /**
+    * Replace the code of an existing rule. The code is passed both ways, as 
+    * for addRule().
+    * @param name The name of the rule.
+    * @param code The new code.
+    * @param utf8 A buffer containing the same code as UTF-8.
+    * @param length The number of bytes of code at the start of the buffer.
+    * @throws Exception If communication with the ZXTM fails.
+    */
+   public void setRule( String name, String code, byte[] utf8, int length ) 
+      throws Exception;
+
+   /**
+    * Delete a rule.
+    * @param name The name of the rule to delete.
+    * @throws Exception If communication with the ZXTM fails.
+    */
+   public void deleteRule( String name ) throws Exception;
+
+   /**
+    * The code of a rule as fetched from the ZXTM.
+    */
+   public static class RuleText
+   {
+      private String text;
+      private String tag;
+
+      /**
+       * Create the rule text.
+       * @param text The raw code of the rule.
+       * @param tag Identifies this version of the rule, to be passed back to
+       * getRules(). May be null if the backend doesn't support it.
+       */
+      public RuleText( String text, String tag )
+      {
+         this.text = text;
+         this.tag = tag;
+      }
+
+      /** Get the raw code of the rule. */
+      public String getText()
+      {
+         return text;
+      }
+
+      /** Get the tag of this version of the rule, may be null. */
+      public String getTag()
+      {
+         return tag;
+      }
+   }
+
+   /**
+    * Thrown when a rule that was asked for does not exist on the ZXTM.
+    */
+   public static class UnknownRuleException extends Exception
+   {
+      private static final long serialVersionUID = 1L;
+
+      /**
+       * Create the exception.
+       * @param name The name of the rule that does not exist.
+       * @param cause The exception from the protocol, may be null.
+       */
+      public UnknownRuleException( String name, Throwable cause )
+      {
+         super( "Unknown rule '" + name + "'", cause );
+      }
+   }
+}
@@ -0,0 +1,321 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TreeSet;
+
+import com.zeus.eclipsePlugin.ZDebug;
+
+/**
+ * Which virtual servers on a ZXTM use which rules, as request or response
+ * rules. The index is fetched in the background by the model, and can be
+ * looked up from either side without talking to the ZXTM.
+ *
+ * The index is updated a virtual server at a time. Only the virtual servers
+ * whose rules have changed since the last update are re-indexed.
+ */
+public class RuleBindings
+{
+   // The bindings of each virtual server, and the same bindings by rule
+   private HashMap<String,Binding[]> servers = new HashMap<String,Binding[]>();
+   private HashMap<String,ArrayList<Binding>> rules =
+      new HashMap<String,ArrayList<Binding>>();
+
+   private boolean loaded = false;
+
+   private ArrayList<Listener> listeners = new ArrayList<Listener>();
+
+   /**
+    * Update the index with the bindings of every virtual server. Called by
+    * the model's updater. Virtual servers that are not passed are forgotten.
+    * @param names The names of all the virtual servers.
+    * @param bindings The bindings of each virtual server, in the same order
+    * as names.
+    */
+   public void update( String[] names, Binding[][] bindings )
+   {
+      int changed = 0;
+
+      synchronized( this ) {
+         boolean wasLoaded = loaded;
+         loaded = true;
+
+         HashSet<String> current = new HashSet<String>();
+         for( int i = 0; i < names.length; i++ ) {
+            current.add( names[i] );
+
+            Binding[] old = servers.get( names[i] );
+            if( old != null && Arrays.equals( old, bindings[i] ) ) continue;
+
+            if( old != null ) unindex( old );
+            index( bindings[i] );
+            servers.put( names[i], bindings[i] );
+            changed++;
+         }
+
+         for( String name : servers.keySet().toArray( new String[servers.size()] ) ) {
+            if( !current.contains( name ) ) {
+               unindex( servers.remove( name ) );
+               changed++;
+            }
+         }
+
+         if( changed == 0 && wasLoaded ) return;
+      }
+
+      ZDebug.print( 6, "Rule bindings changed for ", changed, " virtual servers" );
+      updateListeners();
+   }
+
+   /**
+    * Forget all the bindings, e.g. because the ZXTM has been disconnected.
+    */
+   public void clear()
+   {
+      synchronized( this ) {
+         servers.clear();
+         rules.clear();
+         loaded = false;
+      }
+      updateListeners();
+   }
+
+   /**
+    * Add bindings to the rule side of the index.
+    */
+   private void index( Binding[] bindings )
+   {
+      for( Binding binding : bindings ) {
+         ArrayList<Binding> list = rules.get( binding.getRule() );
+         if( list == null ) {
+            list = new ArrayList<Binding>( 2 );
+            rules.put( binding.getRule(), list );
+         }
+         list.add( binding );
+      }
+   }
+
+   /**
+    * Remove bindings from the rule side of the index.
+    */
+   private void unindex( Binding[] bindings )
+   {
+      for( Binding binding : bindings ) {
+         ArrayList<Binding> list = rules.get( binding.getRule() );
+         if( list == null ) continue;
+
+         list.remove( binding );
+         if( list.isEmpty() ) rules.remove( binding.getRule() );
+      }
+   }
+
+   /**
+    * Have the bindings been fetched from the ZXTM yet?
+    * @return True if the index has been filled.
+    */
+   public synchronized boolean isLoaded()
+   {
+      return loaded;
+   }
+
+   /**
+    * Get the virtual servers that use a rule.
+    * @param rule The name of the rule.
+    * @return The bindings of the rule, which are empty if no virtual server
+    * uses it.
+    */
+   public synchronized Binding[] getBindings( String rule )
+   {
+      ArrayList<Binding> list = rules.get( rule );
+      if( list == null ) return new Binding[0];
+
+      return list.toArray( new Binding[list.size()] );
+   }
+
+   /**
+    * Get the virtual servers that are enabled and run a rule, i.e. the
+    * services that are affected when the rule is changed.
+    * @param rule The name of the rule.
+    * @return The names of the virtual servers, sorted.
+    */
+   public synchronized String[] getLiveServers( String rule )
+   {
+      ArrayList<Binding> list = rules.get( rule );
+      if( list == null ) return new String[0];
+
+      TreeSet<String> live = new TreeSet<String>();
+      for( Binding binding : list ) {
+         if( binding.isLive() ) live.add( binding.getServer() );
+      }
+
+      return live.toArray( new String[live.size()] );
+   }
+
+   /**
+    * Get the rules used by a virtual server.
+    * @param server The name of the virtual server.
+    * @return The bindings of the virtual server, request rules first, which
+    * are empty if the virtual server is unknown.
+    */
+   public synchronized Binding[] getServerBindings( String server )
+   {
+      Binding[] bindings = servers.get( server );
+      if( bindings == null ) return new Binding[0];
+
+      return bindings.clone();
+   }
+
+   /**
+    * Add a listener that is told when the bindings change. Listeners are
+    * called from the model's update threads.
+    * @param listener The listener to add.
+    */
+   public synchronized void addListener( Listener listener )
+   {
+      if( !listeners.contains( listener ) ) listeners.add( listener );
+   }
+
+   /**
+    * Stop telling a listener about changes.
+    * @param listener The listener to remove.
+    */
+   public synchronized void removeListener( Listener listener )
+   {
+      listeners.remove( listener );
+   }
+
+   /**
+    * Tell the listeners the bindings have changed. Must not hold the lock,
+    * so listeners can read the bindings from other threads.
+    */
+   private void updateListeners()
+   {
+      Listener[] current;
+      synchronized( this ) {
+         current = listeners.toArray( new Listener[listeners.size()] );
+      }
+
+      for( Listener listener : current ) {
+         try {
+            listener.bindingsUpdated( this );
+         } catch( RuntimeException e ) {
+            ZDebug.printStackTrace( e, "Bindings listener failed: ", listener );
+         }
+      }
+   }
+
+   /**
+    * Told when the rule bindings of a ZXTM have changed.
+    */
+   public interface Listener
+   {
+      /**
+       * Called after the bindings have changed, or been cleared.
+       * @param bindings The bindings that have changed.
+       */
+      public void bindingsUpdated( RuleBindings bindings );
+   }
+
+   /**
+    * A rule used by a virtual server.
+    */
+   public static class Binding
+   {
+      private String server, rule;
+      private boolean response, enabled, serverEnabled;
+
+      /**
+       * Create a binding.
+       * @param server The name of the virtual server.
+       * @param rule The name of the rule.
+       * @param response True if it is a response rule, false if it is a
+       * request rule.
+       * @param enabled Is the rule enabled on the virtual server?
+       * @param serverEnabled Is the virtual server enabled?
+       */
+      public Binding( String server, String rule, boolean response,
+         boolean enabled, boolean serverEnabled )
+      {
+         this.server = server;
+         this.rule = rule;
+         this.response = response;
+         this.enabled = enabled;
+         this.serverEnabled = serverEnabled;
+      }
+
+      /** Get the name of the virtual server. */
+      public String getServer()
+      {
+         return server;
+      }
+
+      /** Get the name of the rule. */
+      public String getRule()
+      {
+         return rule;
+      }
+
+      /** Is this a response rule rather than a request rule? */
+      public boolean isResponse()
+      {
+         return response;
+      }
+
+      /** Is the rule enabled on the virtual server? */
+      public boolean isEnabled()
+      {
+         return enabled;
+      }
+
+      /** Is the virtual server enabled? */
+      public boolean isServerEnabled()
+      {
+         return serverEnabled;
+      }
+
+      /** Does the rule run, i.e. are both it and the virtual server enabled? */
+      public boolean isLive()
+      {
+         return enabled && serverEnabled;
+      }
+
+      /** Bindings are equal if all their details are. */
+      /* Override */
+      public boolean equals( Object o )
+      {
+         if( !(o instanceof Binding) ) return false;
+         Binding other = (Binding) o;
+
+         return server.equals( other.server ) && rule.equals( other.rule ) &&
+            response == other.response && enabled == other.enabled &&
+            serverEnabled == other.serverEnabled;
+      }
+
+      /* Override */
+      public int hashCode()
+      {
+         return server.hashCode() * 31 + rule.hashCode();
+      }
+
+      /** Describes the binding, for debugging. */
+      /* Override */
+      public String toString()
+      {
+         return server + ( response ? " > response " : " > request " ) + rule;
+      }
+   }
+}
@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.zeus.eclipsePlugin.ZDebug;
+
+/**
+ * The recent execution statistics of the rules on a ZXTM, sampled in the
+ * background by the model. Readers (e.g. the viewer and the editor) get the
+ * rates from here without talking to the ZXTM.
+ *
+ * Each sample holds the total of each counter for every rule. These are
+ * turned into per-second rates, which are kept for the last HISTORY_SIZE
+ * samples in a ring buffer. All the rules share the same sample times, and
+ * each rule's rates are kept in a single float array. Rates that are not
+ * known (e.g. the first sample of a rule) are NaN.
+ */
+public class RuleStatistics
+{
+   /** The number of samples kept for each rule. */
+   public static final int HISTORY_SIZE = 60;
+
+   /**
+    * The counters sampled for each rule.
+    */
+   public enum Counter
+   {
+      EXECUTIONS,
+      ABORTS,
+      DISCARDS,
+      RETRIES,
+      RESPONDS,
+      POOL_SELECT,
+   }
+
+   private static final int COUNTERS = Counter.values().length;
+
+   // The ZXTM's counters are unsigned 32 bit values. A total that goes down
+   // from above this has wrapped around, from below it the ZXTM restarted.
+   private static final long WRAP_LIMIT = 0xc0000000L;
+
+   // The time of each sample in the ring, and the position of the newest
+   private long[] times = new long[HISTORY_SIZE];
+   private int newest = -1;
+   private int count = 0;
+
+   private HashMap<String,History> rules = new HashMap<String,History>();
+
+   private ArrayList<Listener> listeners = new ArrayList<Listener>();
+
+   /**
+    * Add a sample of the counters. Called by the model's sampler.
+    * @param time The time the sample was taken, in milliseconds.
+    * @param names The names of the rules sampled. Rules that are not in the
+    * sample are forgotten.
+    * @param totals The total of each counter for each rule, indexed by
+    * Counter ordinal and then by the position of the rule in names. Totals
+    * are unsigned 32 bit values, and may wrap around.
+    */
+   public void addSample( long time, String[] names, long[][] totals )
+   {
+      synchronized( this ) {
+         long lastTime = ( count > 0 ) ? times[newest] : 0;
+         newest = ( newest + 1 ) % HISTORY_SIZE;
+         times[newest] = time;
+         if( count < HISTORY_SIZE ) count++;
+
+         float seconds = ( time - lastTime ) / 1000f;
+
+         HashMap<String,History> sampled = new HashMap<String,History>();
+         for( int r = 0; r < names.length; r++ ) {
+            History history = rules.get( names[r] );
+            boolean known = ( history != null && lastTime > 0 && seconds > 0 );
+            if( history == null ) history = new History();
+
+            for( int c = 0; c < COUNTERS; c++ ) {
+               long total = totals[c][r];
+               float rate = Float.NaN;
+               if( known ) {
+                  long last = history.totals[c];
+                  long change = total - last;
+                  if( change < 0 ) {
+                     change = ( last >= WRAP_LIMIT ) ?
+                        ( total - last ) & 0xffffffffL : total;
+                  }
+                  rate = change / seconds;
+               }
+               history.totals[c] = total;
+               history.rates[c * HISTORY_SIZE + newest] = rate;
+            }
+
+            sampled.put( names[r], history );
+         }
+
+         rules = sampled;
+      }
+
+      ZDebug.print( 7, "Rule statistics sampled for ", names.length, " rules" );
+      updateListeners();
+   }
+
+   /**
+    * Forget all the samples, e.g. because the ZXTM has been disconnected.
+    */
+   public void clear()
+   {
+      synchronized( this ) {
+         rules.clear();
+         newest = -1;
+         count = 0;
+      }
+      updateListeners();
+   }
+
+   /**
+    * Get the number of samples currently held.
+    * @return The number of samples, at most HISTORY_SIZE.
+    */
+   public synchronized int getSampleCount()
+   {
+      return count;
+   }
+
+   /**
+    * Get the time of the newest sample.
+    * @return The time in milliseconds, or 0 if there are no samples.
+    */
+   public synchronized long getLastSampleTime()
+   {
+      return ( count > 0 ) ? times[newest] : 0;
+   }
+
+   /**
+    * Get the newest rate of a counter for a rule.
+    * @param rule The name of the rule.
+    * @param counter The counter to get.
+    * @return The rate per second, or NaN if it is not known.
+    */
+   public synchronized float getRate( String rule, Counter counter )
+   {
+      History history = rules.get( rule );
+      if( history == null || count == 0 ) return Float.NaN;
+
+      return history.rates[counter.ordinal() * HISTORY_SIZE + newest];
+   }
+
+   /**
+    * Get the recent rates of a counter for a rule.
+    * @param rule The name of the rule.
+    * @param counter The counter to get.
+    * @param rates The array to copy the rates into. The newest rates that fit
+    * are copied, oldest first. Rates that are not known are NaN.
+    * @return The number of rates copied, 0 if the rule has no samples.
+    */
+   public synchronized int getRates( String rule, Counter counter, float[] rates )
+   {
+      History history = rules.get( rule );
+      if( history == null ) return 0;
+
+      int copy = Math.min( count, rates.length );
+      int base = counter.ordinal() * HISTORY_SIZE;
+      int pos = ( newest - copy + 1 + HISTORY_SIZE ) % HISTORY_SIZE;
+      for( int i = 0; i < copy; i++ ) {
+         rates[i] = history.rates[base + pos];
+         pos = ( pos + 1 ) % HISTORY_SIZE;
+      }
+
+      return copy;
+   }
+
+   /**
+    * Get the highest newest rate of a counter across all the rules, which can
+    * be used to compare rules with each other.
+    * @param counter The counter to check.
+    * @return The highest rate per second, or 0 if no rates are known.
+    */
+   public synchronized float getMaxRate( Counter counter )
+   {
+      if( count == 0 ) return 0;
+
+      float max = 0;
+      int index = counter.ordinal() * HISTORY_SIZE + newest;
+      for( History history : rules.values() ) {
+         float rate = history.rates[index];
+         if( rate > max ) max = rate;
+      }
+      return max;
+   }
+
+   /**
+    * Add a listener that is told when a sample is added. Listeners are called
+    * from the model's update threads.
+    * @param listener The listener to add.
+    */
+   public synchronized void addListener( Listener listener )
+   {
+      if( !listeners.contains( listener ) ) listeners.add( listener );
+   }
+
+   /**
+    * Stop telling a listener about samples.
+    * @param listener The listener to remove.
+    */
+   public synchronized void removeListener( Listener listener )
+   {
+      listeners.remove( listener );
+   }
+
+   /**
+    * Tell the listeners the statistics have changed. Must not hold the lock,
+    * so listeners can read the statistics from other threads.
+    */
+   private void updateListeners()
+   {
+      Listener[] current;
+      synchronized( this ) {
+         current = listeners.toArray( new Listener[listeners.size()] );
+      }
+
+      for( Listener listener : current ) {
+         try {
+            listener.statisticsUpdated( this );
+         } catch( RuntimeException e ) {
+            ZDebug.printStackTrace( e, "Statistics listener failed: ", listener );
+         }
+      }
+   }
+
+   /**
+    * Get the names of the rules that have statistics.
+    * @return The rule names, in no particular order.
+    */
+   public synchronized String[] getRuleNames()
+   {
+      return rules.keySet().toArray( new String[rules.size()] );
+   }
+
+   /**
+    * Format a rate for display, e.g. "0.5", "12", "3.4k" or "1.2M".
+    * @param rate The rate per second.
+    * @return The short form of the rate, or "?" if it is not known.
+    */
+   public static String formatRate( float rate )
+   {
+      if( Float.isNaN( rate ) ) return "?";
+
+      String suffix = "";
+      if( rate >= 999500 ) {
+         rate /= 1000000;
+         suffix = "M";
+      } else if( rate >= 999.5 ) {
+         rate /= 1000;
+         suffix = "k";
+      }
+
+      if( rate < 0.05 || rate >= 9.95 ) {
+         return Math.round( rate ) + suffix;
+      }
+      return ( Math.round( rate * 10 ) / 10f ) + suffix;
+   }
+
+   /**
+    * Told when new statistics have been sampled.
+    */
+   public interface Listener
+   {
+      /**
+       * Called after a sample has been added, or the statistics cleared.
+       * @param stats The statistics that have changed.
+       */
+      public void statisticsUpdated( RuleStatistics stats );
+   }
+
+   /**
+    * The last totals and the recent rates of a single rule. The rates of
+    * each counter are kept together, in the same order as the sample times.
+    */
+   private static class History
+   {
+      long[] totals = new long[COUNTERS];
+      float[] rates = new float[COUNTERS * HISTORY_SIZE];
+
+      History()
+      {
+         Arrays.fill( rates, Float.NaN );
+      }
+   }
+}
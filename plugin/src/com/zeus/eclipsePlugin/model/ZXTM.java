@@ -20,6 +20,7 @@ import java.net.InetAddress;
 public abstract class ZXTM extends ModelElement implements Comparable< ZXTM >
 {
    private boolean storePassword;
+   private int restPort = 0;
   
    /* Override */
    public Type getModelType()
@@ -92,6 +93,24 @@ public abstract class ZXTM extends ModelElement implements Comparable< ZXTM >
    {
       this.storePassword = storePassword;
    }
+   
+   /**
+    * Get the port of this ZXTM's REST API, which is used for rules if set.
+    * @return The REST API port, or 0 if rules should not use the REST API.
+    */
+   public int getRESTPort()
+   {
+      return restPort;
+   }
+   
+   /**
+   * Set the port of this ZXTM's REST API.
+   * @param restPort The REST API port, or 0 to not use the REST API.
+   */
+   public void setRESTPort( int restPort )
+   {
+      this.restPort = restPort;
+   }
 
    /**
     * Add a new blank rule to this ZXTM.
@@ -134,6 +153,27 @@ public abstract class ZXTM extends ModelElement implements Comparable< ZXTM >
     */
    public abstract void renameRule( String oldName, String newName ) throws ModelException;
    
+   /**
+    * Get the recent execution statistics of this ZXTM's rules, which are
+    * sampled in the background.
+    * @return The rule statistics, which have no samples if sampling is off.
+    */
+   public abstract RuleStatistics getRuleStatistics();
+   
+   /**
+    * Get the index of which virtual servers use this ZXTM's rules, which is
+    * fetched in the background.
+    * @return The rule bindings, which are empty until they have been fetched.
+    */
+   public abstract RuleBindings getRuleBindings();
+   
+   /**
+    * Get a summary of how long the calls made to this ZXTM have taken, to show
+    * in its properties.
+    * @return The summary, or null if no calls have been made to it yet.
+    */
+   public abstract String getCallTiming();
+   
    /**
     * Get all Java Extensions in this ZXTM.
     * @return An array of JavaExtension objects.
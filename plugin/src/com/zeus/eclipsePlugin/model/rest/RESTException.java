@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.model.rest;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the REST API returns an error status.
+ */
+public class RESTException extends IOException
+{
+   private static final long serialVersionUID = 1L;
+   
+   private int status;
+   
+   /**
+    * Create the exception.
+    * @param status The HTTP status code returned.
+    * @param message The error message, from the response if it had one.
+    */
+   public RESTException( int status, String message )
+   {
+      super( "(" + status + ")" + message );
+      this.status = status;
+   }
+   
+   /**
+    * Get the HTTP status code the REST API returned.
+    * @return The status code, e.g. 401
+    */
+   public int getStatus()
+   {
+      return status;
+   }
+}
@@ -0,0 +1,466 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.model.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.LinkedList;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import org.apache.zeusaxis.encoding.Base64;
+
+import com.zeus.eclipsePlugin.ZDebug;
+import com.zeus.eclipsePlugin.model.RuleBackend;
+import com.zeus.eclipsePlugin.model.soap.TrustingProvider;
+
+/**
+ * Lists, fetches and stores rules using a ZXTM's REST API.
+ *
+ * The rule list is fetched with a single request. Rules are fetched and
+ * stored as raw text, and fetches are made conditional on the rule's ETag so
+ * rules that haven't changed aren't sent again. Requests go over the JDK's
+ * persistent connections, and certificates are not checked, as with SOAP.
+ */
+public class RESTRuleBackend implements RuleBackend
+{
+   private static final ZDebug.Logger log = ZDebug.getLogger( RESTRuleBackend.class );
+
+   /** The root of the API, which lists the versions the ZXTM supports. */
+   private static final String API_ROOT = "/api/tm/";
+
+   /** The version used if the ZXTM doesn't say which it supports. */
+   private static final String DEFAULT_VERSION = "3.0";
+
+   /** The connect and read timeout of requests, in milliseconds. */
+   private static final int TIMEOUT = 60000;
+
+   private String baseURL;
+   private String authorization;
+
+   // The URL path of the rules list, found on first use.
+   private String rulesPath = null;
+
+   /**
+    * Create the backend for a ZXTM.
+    * @param baseURL The URL of the REST API without a path, e.g.
+    * https://zxtm1:9070
+    * @param username The username to log in with.
+    * @param password The password to log in with.
+    */
+   public RESTRuleBackend( String baseURL, String username, String password )
+   {
+      this.baseURL = baseURL;
+      try {
+         String auth = username + ":" + ( password == null ? "" : password );
+         this.authorization = "Basic " + Base64.encode( auth.getBytes( "UTF-8" ) );
+      } catch( IOException e ) {
+         // UTF-8 is always supported
+         throw new RuntimeException( e );
+      }
+   }
+
+   /**
+    * Get the names of the rules with a single request of the rules list.
+    */
+   /* Override */
+   public String[] getRuleNames() throws Exception
+   {
+      Response response = request( "GET", getRulesPath(), null, 0, null );
+      response.check( null );
+
+      LinkedList<String> names = getStrings( response.getText(), "name" );
+      return names.toArray( new String[names.size()] );
+   }
+
+   /**
+    * Fetch each rule, passing its tag as an If-None-Match header. Rules that
+    * are not modified are returned as null entries.
+    */
+   /* Override */
+   public RuleText[] getRules( String[] names, String[] tags ) throws Exception
+   {
+      RuleText[] rules = new RuleText[names.length];
+      for( int i = 0; i < names.length; i++ ) {
+         String tag = ( tags == null ) ? null : tags[i];
+         Response response = request( "GET", getRulePath( names[i] ), null, 0, tag );
+
+         if( response.status == HttpURLConnection.HTTP_NOT_MODIFIED ) {
+            if( log.isEnabled( 6 ) ) log.print( 6, "Rule ", names[i], " not modified" );
+            continue;
+         }
+
+         response.check( names[i] );
+         rules[i] = new RuleText( response.getText(), response.etag );
+      }
+
+      return rules;
+   }
+
+   /**
+    * Create the rule with a PUT. If-None-Match: * is sent so that an existing
+    * rule is not replaced.
+    */
+   /* Override */
+   public void addRule( String name, String code, byte[] utf8, int length ) 
+      throws Exception
+   {
+      request( "PUT", getRulePath( name ), utf8, length, "*" ).check( null );
+   }
+
+   /**
+    * Send the code with a PUT, straight from the passed buffer.
+    */
+   /* Override */
+   public void setRule( String name, String code, byte[] utf8, int length ) 
+      throws Exception
+   {
+      request( "PUT", getRulePath( name ), utf8, length, null ).check( null );
+   }
+
+   /* Override */
+   public void deleteRule( String name ) throws Exception
+   {
+      request( "DELETE", getRulePath( name ), null, 0, null ).check( name );
+   }
+
+   /**
+    * Get the path of the rules list, finding the newest API version the ZXTM
+    * supports. The version is only remembered once the ZXTM has listed them,
+    * if it can't (e.g. it is still starting) it is asked again next time.
+    * @return The path of the rules list, ending in a /
+    */
+   private synchronized String getRulesPath() throws IOException
+   {
+      if( rulesPath != null ) return rulesPath;
+
+      Response response = request( "GET", API_ROOT, null, 0, null );
+      if( response.status == HttpURLConnection.HTTP_UNAUTHORIZED ||
+          response.status >= HttpURLConnection.HTTP_INTERNAL_ERROR ) 
+      {
+         throw response.getException();
+      }
+      
+      if( response.status != HttpURLConnection.HTTP_OK ) {
+         log.print( 3, "Versions of ", baseURL, " not listed (", 
+            response.status, "), trying REST API version ", DEFAULT_VERSION 
+         );
+         return API_ROOT + DEFAULT_VERSION + "/config/active/rules/";
+      }
+      
+      String version = DEFAULT_VERSION;
+      int[] newest = null;
+      for( String name : getStrings( response.getText(), "name" ) ) {
+         int[] number = parseVersion( name );
+         if( number != null && compareVersions( number, newest ) > 0 ) {
+            newest = number;
+            version = name;
+         }
+      }
+
+      log.print( 3, "Using REST API version ", version, " of ", baseURL );
+      rulesPath = API_ROOT + version + "/config/active/rules/";
+      return rulesPath;
+   }
+
+   /**
+    * Parse an API version, e.g. 3.10
+    * @param version The version string.
+    * @return The parts of the version, or null if it isn't a version.
+    */
+   private static int[] parseVersion( String version )
+   {
+      String[] parts = version.split( "\\." );
+      int[] number = new int[parts.length];
+      try {
+         for( int i = 0; i < parts.length; i++ ) {
+            number[i] = Integer.parseInt( parts[i] );
+         }
+      } catch( NumberFormatException e ) {
+         return null;
+      }
+      return number;
+   }
+
+   /**
+    * Compare two parsed versions, part by part, so that 3.10 is after 3.9
+    * @param a The first version.
+    * @param b The second version, or null which is before every version.
+    * @return Positive if a is after b, negative if before, 0 if the same.
+    */
+   private static int compareVersions( int[] a, int[] b )
+   {
+      if( b == null ) return 1;
+      for( int i = 0; i < Math.max( a.length, b.length ); i++ ) {
+         int partA = i < a.length ? a[i] : 0;
+         int partB = i < b.length ? b[i] : 0;
+         if( partA != partB ) return partA - partB;
+      }
+      return 0;
+   }
+
+   /**
+    * Get the path of a rule.
+    * @param name The name of the rule.
+    * @return The path of the rule, with the name escaped.
+    */
+   private String getRulePath( String name ) throws IOException
+   {
+      return getRulesPath() + URLEncoder.encode( name, "UTF-8" ).replace( "+", "%20" );
+   }
+
+   /**
+    * Make a request and read its response.
+    * @param method The HTTP method.
+    * @param path The path of the resource.
+    * @param body A buffer containing the bytes to send, or null to send 
+    * nothing.
+    * @param length The number of bytes to send from the start of body.
+    * @param ifNoneMatch The value of the If-None-Match header, or null to not
+    * send one.
+    * @return The response, whatever its status.
+    * @throws IOException If the request could not be made.
+    */
+   private Response request( String method, String path, byte[] body,
+      int length, String ifNoneMatch ) throws IOException
+   {
+      long start = System.currentTimeMillis();
+      URL url = new URL( baseURL + path );
+
+      HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+      if( conn instanceof HttpsURLConnection ) {
+         HttpsURLConnection https = (HttpsURLConnection) conn;
+         https.setSSLSocketFactory( TrustingProvider.getSocketFactory() );
+         https.setHostnameVerifier( TrustingProvider.ANY_HOST );
+      }
+
+      conn.setConnectTimeout( TIMEOUT );
+      conn.setReadTimeout( TIMEOUT );
+      conn.setRequestMethod( method );
+      conn.setUseCaches( false );
+      conn.setRequestProperty( "Authorization", authorization );
+
+      if( ifNoneMatch != null ) {
+         conn.setRequestProperty( "If-None-Match", ifNoneMatch );
+      }
+
+      if( body != null ) {
+         conn.setDoOutput( true );
+         conn.setFixedLengthStreamingMode( length );
+         conn.setRequestProperty( "Content-Type", "application/octet-stream" );
+
+         OutputStream out = conn.getOutputStream();
+         try {
+            out.write( body, 0, length );
+         } finally {
+            out.close();
+         }
+      }
+
+      // Read the whole response, so the connection can be re-used
+      Response response = new Response();
+      response.status = conn.getResponseCode();
+      response.message = conn.getResponseMessage();
+      response.etag = conn.getHeaderField( "ETag" );
+
+      InputStream in = response.status < 400 ?
+         conn.getInputStream() : conn.getErrorStream();
+      response.body = readAll( in );
+
+      if( log.isEnabled( 5 ) ) {
+         log.print( 5, method, " ", url, " returned ", response.status, " in ",
+            System.currentTimeMillis() - start, "ms"
+         );
+      }
+
+      return response;
+   }
+
+   /**
+    * Read a stream to the end and close it.
+    * @param in The stream to read, may be null.
+    * @return The contents of the stream.
+    */
+   private static byte[] readAll( InputStream in ) throws IOException
+   {
+      if( in == null ) return new byte[0];
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream( 4096 );
+      try {
+         byte[] buffer = new byte[4096];
+         int read;
+         while( ( read = in.read( buffer ) ) != -1 ) {
+            bytes.write( buffer, 0, read );
+         }
+      } finally {
+         in.close();
+      }
+
+      return bytes.toByteArray();
+   }
+
+   /**
+    * Get the string values of a key anywhere in some JSON. This is all we
+    * need from the API's responses, so we don't need a full JSON parser.
+    * @param json The JSON to read.
+    * @param key The key whose values we want.
+    * @return The string values of the key, in the order they appear.
+    */
+   static LinkedList<String> getStrings( String json, String key )
+   {
+      LinkedList<String> values = new LinkedList<String>();
+      int[] pos = { 0 };
+
+      while( pos[0] < json.length() ) {
+         if( json.charAt( pos[0] ) != '"' ) {
+            pos[0]++;
+            continue;
+         }
+
+         String string = readString( json, pos );
+         skipSpace( json, pos );
+
+         // Is it a key with a string value?
+         if( pos[0] < json.length() && json.charAt( pos[0] ) == ':' ) {
+            pos[0]++;
+            skipSpace( json, pos );
+            if( pos[0] < json.length() && json.charAt( pos[0] ) == '"' ) {
+               String value = readString( json, pos );
+               if( string.equals( key ) ) values.add( value );
+            }
+         }
+      }
+
+      return values;
+   }
+
+   /**
+    * Read a JSON string.
+    * @param json The JSON.
+    * @param pos The position of the opening quote, moved past the closing
+    * quote.
+    * @return The unescaped string.
+    */
+   private static String readString( String json, int[] pos )
+   {
+      StringBuffer string = new StringBuffer();
+      int i = pos[0] + 1;
+
+      for( ; i < json.length(); i++ ) {
+         char c = json.charAt( i );
+         if( c == '"' ) {
+            i++;
+            break;
+         }
+         if( c != '\\' || i + 1 >= json.length() ) {
+            string.append( c );
+            continue;
+         }
+
+         c = json.charAt( ++i );
+         switch( c ) {
+            case 'b': string.append( '\b' ); break;
+            case 'f': string.append( '\f' ); break;
+            case 'n': string.append( '\n' ); break;
+            case 'r': string.append( '\r' ); break;
+            case 't': string.append( '\t' ); break;
+            case 'u':
+               if( i + 4 < json.length() ) {
+                  try {
+                     string.append( (char) Integer.parseInt(
+                        json.substring( i + 1, i + 5 ), 16 )
+                     );
+                     i += 4;
+                     break;
+                  } catch( NumberFormatException e ) {}
+               }
+               string.append( c );
+               break;
+            default: string.append( c ); break;
+         }
+      }
+
+      pos[0] = i;
+      return string.toString();
+   }
+
+   /**
+    * Move a position past any whitespace.
+    */
+   private static void skipSpace( String json, int[] pos )
+   {
+      while( pos[0] < json.length() &&
+             Character.isWhitespace( json.charAt( pos[0] ) ) )
+      {
+         pos[0]++;
+      }
+   }
+
+   /**
+    * The status, ETag and body of a response.
+    */
+   private static class Response
+   {
+      int status;
+      String message;
+      String etag;
+      byte[] body;
+
+      /**
+       * Get the body of the response as UTF-8 text.
+       */
+      String getText() throws IOException
+      {
+         return new String( body, "UTF-8" );
+      }
+
+      /**
+       * Throw an exception if the response is an error.
+       * @param rule The rule the request was for, if a 404 means it doesn't
+       * exist, or null if it doesn't.
+       * @throws UnknownRuleException If the rule doesn't exist.
+       * @throws RESTException If the response has any other error status.
+       */
+      void check( String rule ) throws UnknownRuleException, IOException
+      {
+         if( status >= 200 && status < 300 ) return;
+
+         RESTException e = getException();
+         if( status == HttpURLConnection.HTTP_NOT_FOUND && rule != null ) {
+            throw new UnknownRuleException( rule, e );
+         }
+         throw e;
+      }
+
+      /**
+       * Create the exception for an error response.
+       * @return The exception, with the error text from the response if it
+       * has one.
+       */
+      RESTException getException() throws IOException
+      {
+         // The API describes errors with a JSON error_text
+         String error = message;
+         LinkedList<String> text = getStrings( getText(), "error_text" );
+         if( !text.isEmpty() ) error = text.getFirst();
+
+         return new RESTException( status, error );
+      }
+   }
+
+}
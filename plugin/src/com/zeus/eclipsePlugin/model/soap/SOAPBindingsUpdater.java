@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.model.soap;
+
+import java.util.ArrayList;
+
+import com.zeus.eclipsePlugin.ZDebug;
+import com.zeus.eclipsePlugin.model.RuleBindings;
+import com.zeus.eclipsePlugin.model.ModelElement.State;
+import com.zeus.eclipsePlugin.model.RuleBindings.Binding;
+import com.zeus.soap.VirtualServerPort_PortType;
+import com.zeus.soap.VirtualServerRule;
+
+/**
+ * Fetches which virtual servers use which rules with the VirtualServer
+ * interface, and updates the ZXTM's RuleBindings.
+ *
+ * Like the SOAPStatsSampler this is only queued in the ZXTM's updater when
+ * an update is due. The rules of every virtual server are fetched together,
+ * so an update is always four SOAP calls however many virtual servers there
+ * are.
+ */
+public class SOAPBindingsUpdater implements SOAPUpdatable
+{
+   /** How long the bindings are used before they are fetched again (ms) */
+   private static final long BINDINGS_LIFETIME = 30 * 1000;
+
+   private SOAPZXTM zxtm;
+   private RuleBindings bindings;
+
+   private long lastUpdate = 0;
+   private boolean queued = false;
+
+   /**
+    * Create the updater for a ZXTM.
+    * @param zxtm The ZXTM whose virtual servers are fetched.
+    * @param bindings Where the bindings are stored.
+    */
+   public SOAPBindingsUpdater( SOAPZXTM zxtm, RuleBindings bindings )
+   {
+      this.zxtm = zxtm;
+      this.bindings = bindings;
+   }
+
+   /**
+    * Is an update due? If true the updater is marked as queued, and the
+    * caller must add it to the updater.
+    * @return True if the bindings should be fetched now.
+    */
+   synchronized boolean isDue()
+   {
+      if( queued ) return false;
+      if( System.currentTimeMillis() - lastUpdate < BINDINGS_LIFETIME ) return false;
+
+      queued = true;
+      return true;
+   }
+
+   /**
+    * Called when the updater has been removed from the updater before it
+    * ran, so it can be queued again.
+    */
+   synchronized void cancelled()
+   {
+      queued = false;
+   }
+
+   /**
+    * Fetch the bindings again when the ZXTM next updates, e.g. because a
+    * rule has been renamed and the virtual servers will have changed.
+    */
+   synchronized void invalidate()
+   {
+      lastUpdate = 0;
+   }
+
+   /**
+    * Fetch the bindings. Failures are only logged, as the ZXTM's own update
+    * will report any problem talking to it. Always returns false, as the
+    * ZXTM queues the updater again when the next update is due.
+    */
+   /* Override */
+   public boolean updateFromZXTM()
+   {
+      synchronized( this ) {
+         queued = false;
+         lastUpdate = System.currentTimeMillis();
+      }
+
+      if( zxtm.getModelState() != State.UP_TO_DATE ) return false;
+
+      try {
+         VirtualServerPort_PortType vs = zxtm.getVirtualServerInterface();
+         String[] names = vs.getVirtualServerNames();
+         Binding[][] found = new Binding[names.length][];
+
+         if( names.length > 0 ) {
+            boolean[] enabled = vs.getEnabled( names );
+            VirtualServerRule[][] request = vs.getRules( names );
+            VirtualServerRule[][] response = vs.getResponseRules( names );
+
+            if( enabled.length != names.length || request.length != names.length ||
+                response.length != names.length )
+            {
+               ZDebug.print( 3, "Wrong number of virtual servers from ", zxtm );
+               return false;
+            }
+
+            for( int i = 0; i < names.length; i++ ) {
+               ArrayList<Binding> list = new ArrayList<Binding>();
+               addBindings( list, names[i], request[i], false, enabled[i] );
+               addBindings( list, names[i], response[i], true, enabled[i] );
+               found[i] = list.toArray( new Binding[list.size()] );
+            }
+         }
+
+         bindings.update( names, found );
+
+      // A virtual server may have been deleted since the names were fetched,
+      // the next update will have the new list.
+      } catch( Exception e ) {
+         ZDebug.print( 4, "Rule bindings update failed for ", zxtm, ": ", e.getMessage() );
+      }
+
+      return false;
+   }
+
+   /**
+    * Add the bindings of one of a virtual server's rule lists.
+    */
+   private void addBindings( ArrayList<Binding> list, String server,
+      VirtualServerRule[] rules, boolean response, boolean serverEnabled )
+   {
+      if( rules == null ) return;
+
+      for( VirtualServerRule rule : rules ) {
+         list.add( new Binding( server, rule.getName(), response,
+            rule.isEnabled(), serverEnabled
+         ) );
+      }
+   }
+
+   /**
+    * The bindings are less important than rules being kept up to date.
+    */
+   /* Override */
+   public int getPriority()
+   {
+      return 20;
+   }
+
+   /** Describes the updater */
+   /* Override */
+   public String toString()
+   {
+      return "Rule bindings updater " + zxtm;
+   }
+}
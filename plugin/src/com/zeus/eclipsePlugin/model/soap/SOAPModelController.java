@@ -20,7 +20,6 @@ import java.util.HashMap;
 import javax.net.ssl.SSLException;
 
 import org.apache.zeusaxis.AxisFault;
-import org.apache.zeusaxis.AxisProperties;
 
 import com.zeus.eclipsePlugin.ZDebug;
 import com.zeus.eclipsePlugin.ZLang;
@@ -28,7 +27,9 @@ import com.zeus.eclipsePlugin.model.ModelController;
 import com.zeus.eclipsePlugin.model.ModelElement;
 import com.zeus.eclipsePlugin.model.ModelError;
 import com.zeus.eclipsePlugin.model.ModelException;
+import com.zeus.eclipsePlugin.model.RuleBackend.UnknownRuleException;
 import com.zeus.eclipsePlugin.model.ZXTM;
+import com.zeus.eclipsePlugin.model.rest.RESTException;
 
 /**
  * The main class for the SOAP Model. Responsible for updating ZXTMs and 
@@ -38,16 +39,14 @@ public class SOAPModelController extends ModelController
 {
    protected HashMap <String,SOAPZXTM> connectedZXTMs = new HashMap <String,SOAPZXTM> ();
    protected SOAPZXTM[] zxtms = new SOAPZXTM[0];
+   protected SOAPUpdateScheduler scheduler = new SOAPUpdateScheduler();
    
    /**
-    * Disables certificate checking for Axis only.
+    * Create the SOAP model. SOAP calls are sent by the SOAPTransport, which 
+    * does not check certificates.
     */
    public SOAPModelController()
    {
-      AxisProperties.setProperty(
-         "axis.socketSecureFactory",
-      	"org.apache.zeusaxis.components.net.SunFakeTrustSocketFactory"
-      ); 
    }
    
    /**
@@ -176,6 +175,17 @@ public class SOAPModelController extends ModelController
       for( SOAPZXTM zxtm : zxtms ) {
          zxtm.deleted();
       }
+      scheduler.stop();
+   }
+   
+   /**
+    * Get the scheduler that runs the background updates of all this 
+    * controller's ZXTMs.
+    * @return The shared update scheduler.
+    */
+   SOAPUpdateScheduler getUpdateScheduler()
+   {
+      return scheduler;
    }
 
    /**
@@ -200,18 +210,21 @@ public class SOAPModelController extends ModelController
          return (ModelException) e;
       }
       
-      // Connection problems
-      if( e.getCause() != null ) {
-         Throwable cause = e.getCause();
-         if( cause instanceof ConnectException ) {
-            return new ModelException( source, ModelError.CONNECTION_REFUSED, 
-               e 
-            );
-         } else if( cause instanceof UnknownHostException ) {
-            return new ModelException( source, ModelError.CANNOT_RESOLVE, e );
-         } else if( cause instanceof SSLException ) {
-            return new ModelException( source, ModelError.SSL_ERROR, cause.getMessage(), e );
-         }
+      // A rule backend error, the protocol's exception says what went wrong
+      if( e instanceof UnknownRuleException && e.getCause() instanceof Exception ) {
+         return getModelException( source, (Exception) e.getCause() );
+      }
+      
+      // Connection problems, wrapped by Axis but not by the REST API
+      Throwable cause = ( e.getCause() != null ) ? e.getCause() : e;
+      if( cause instanceof ConnectException ) {
+         return new ModelException( source, ModelError.CONNECTION_REFUSED, 
+            e 
+         );
+      } else if( cause instanceof UnknownHostException ) {
+         return new ModelException( source, ModelError.CANNOT_RESOLVE, e );
+      } else if( cause instanceof SSLException ) {
+         return new ModelException( source, ModelError.SSL_ERROR, cause.getMessage(), e );
       }
       
       // Axis fault
@@ -233,6 +246,17 @@ public class SOAPModelController extends ModelController
          }
       }
       
+      // REST API error
+      if( e instanceof RESTException ) {
+         if( ((RESTException) e).getStatus() == 401 ) {
+            return new ModelException( source, ModelError.AUTH_FAILED, e );
+         } else {
+            return new ModelException( source, ModelError.BAD_REST_RESPONSE, 
+               e.getMessage(), e 
+            );
+         }
+      }
+      
       // Unknown problems
       ZDebug.printStackTrace( e, "Unknown exception in SOAP model for ", source );
       return new ModelException( source, ModelError.UNKNOWN, e.getMessage(), e );      
@@ -12,17 +12,20 @@
 
 package com.zeus.eclipsePlugin.model.soap;
 
-import org.apache.zeusaxis.AxisFault;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 
 import com.zeus.eclipsePlugin.ZDebug;
 import com.zeus.eclipsePlugin.ZLang;
+import com.zeus.eclipsePlugin.ZUtil;
 import com.zeus.eclipsePlugin.model.ModelElement;
 import com.zeus.eclipsePlugin.model.ModelError;
 import com.zeus.eclipsePlugin.model.ModelException;
 import com.zeus.eclipsePlugin.model.Rule;
+import com.zeus.eclipsePlugin.model.RuleBackend.RuleText;
+import com.zeus.eclipsePlugin.model.RuleBackend.UnknownRuleException;
 import com.zeus.eclipsePlugin.model.RuleCodeException;
 import com.zeus.eclipsePlugin.model.RuleProblem;
-import com.zeus.soap.CatalogRuleRuleInfo;
 
 /**
  * The Rule object for the SOAP model interface. Stores the code currently in 
@@ -35,8 +38,14 @@ public class SOAPRule extends Rule implements SOAPUpdatable
    
    protected String text = null, rawText = null;
    
+   /** The code (text) as UTF-8, shared with the streams from openCodeStream() */
+   protected byte[] bytes = null;
+   protected String fingerprint = null;
+   protected String tag = null;
+   
    protected boolean isRuleBuilder = false;
    private RuleProblem[] errors = new RuleProblem[0];
+   private volatile boolean editorOpen = false;
    
    /**
     * Create a rule with the specified name and ZXTM parent.
@@ -65,9 +74,10 @@ public class SOAPRule extends Rule implements SOAPUpdatable
       try {
          ZDebug.print( 5, "update() - ", name );
          
-         // Get rule info from the SOAP interface
-         CatalogRuleRuleInfo[] info = 
-            parent.getRuleInterface().getRuleDetails( new String[] { name } );
+         // Get the rule's code, if it has changed, from the rule backend
+         RuleText[] info = parent.getRuleBackend().getRules( 
+            new String[] { name }, new String[] { tag }
+         );
          
          if( info.length == 0 ) {
             throw new ModelException( this, ModelError.INTERNAL,
@@ -75,63 +85,150 @@ public class SOAPRule extends Rule implements SOAPUpdatable
             );
          }
          
-         // Store old text
-         String oldText = text;         
-         text = info[0].getRule_text();
-         rawText = text;
-         
-         // Check if it's a RuleBuilder rule
-         boolean wasRuleBuilder = isRuleBuilder;
-         if( text.startsWith( "#CQualifier" ) ) {
-            isRuleBuilder = true;
-            text = removeRulebuilderComments( text );
-         } else {
-            isRuleBuilder = false;
-         }
-         
-         // Check if old != new. Inform listeners if something has changed.
-         ZDebug.print( 9, "Old Text:\n", oldText );
-         if( oldText == null || !oldText.equals( text ) || wasRuleBuilder != isRuleBuilder ) {
-            ZDebug.print( 6, "Rule changed - ", name );
-            ZDebug.print( 9, "Rule contents - ", text );
-            
-            errors = parent.checkTrafficScriptCode( text );                        
-            this.updateListeners( Event.CHANGED );
-         }
-         
-         setModelState( State.UP_TO_DATE );
+         boolean changed = setDetails( info[0] );
+         updated( changed, changed ? parent.checkTrafficScriptCode( 
+            new String[] { text }, new String[] { fingerprint } )[0] : null 
+         );
          
       // Some kind of problem has occurred!
       } catch( ModelException e ) {
          setModelState( State.CANNOT_SYNC, e );
+      
+      // ZXTM has told us the rule doesn't exist
+      } catch( UnknownRuleException e ) {
+         deleted();
+         return false;
          
       // It's bad to catch Exception, but its thrown by the axis code 
       } catch( Exception e ) {
          
          ZDebug.print( 4, "Remote Exception: ", e.getMessage() );
          text = null;
-             
-         // Check if its ZXTM telling us the rule doesn't exist
-         if( e instanceof AxisFault ) {
-            AxisFault fault = (AxisFault) e;
-            
-            if( fault.getFaultString().startsWith( "Unknown rule" ) ) {
-               updateListeners( Event.PRE_DELETE );    
-               text = null;
-               setModelState( State.DELETED );
-               updateListeners( Event.DELETED );                  
-               return false;
-            }
-         }
+         rawText = null;
+         bytes = null;
+         fingerprint = null;
+         tag = null;
                   
-         // Otherwise its some kind of SOAP error, process it and change the 
+         // Some kind of communication error, process it and change the 
          // model state
          setModelState( State.CANNOT_SYNC, 
             SOAPModelController.getModelException( this, e ) 
          );
       } 
       
-      return true;
+      // When the ZXTM fetches rules in batches only open rules stay queued
+      return parent.updatesIndividually( this );
+   }
+
+   /**
+    * Store the rule details that have been fetched from ZXTM. This does not 
+    * check the code or inform listeners, {@link #updated(boolean, RuleProblem[])}
+    * must be called afterwards to finish the update. 
+    * 
+    * This allows the parent ZXTM to fetch the details of many rules in a single
+    * call.
+    * @param info The rule's code returned by the rule backend, or null if it
+    * has not changed since the tag we passed.
+    * @return True if the rule's code has changed and needs checking.
+    */
+   synchronized boolean setDetails( RuleText info )
+   {
+      if( info == null && text != null ) return false;
+      if( info == null ) {
+         // We have no code, but were told it hasn't changed. Shouldn't
+         // happen, as we don't pass a tag without code.
+         throw new IllegalStateException( "No code for rule " + name );
+      }
+      
+      tag = info.getTag();
+      String newText = info.getText();
+      
+      // Most of the time nothing has changed, in which case there is no need
+      // to process the code again.
+      if( text != null && rawText.equals( newText ) ) {
+         return false;
+      }
+      
+      // Store old text
+      String oldText = text;         
+      text = newText;
+      rawText = text;
+      
+      // Check if it's a RuleBuilder rule
+      boolean wasRuleBuilder = isRuleBuilder;
+      if( text.startsWith( "#CQualifier" ) ) {
+         isRuleBuilder = true;
+         text = removeRulebuilderComments( text );
+      } else {
+         isRuleBuilder = false;
+      }
+      
+      // Encode the code once, for file streams and the fingerprint. The 
+      // fingerprint is of the code that is checked, without the RuleBuilder
+      // comments.
+      bytes = ZUtil.toUTF8( text );
+      fingerprint = ZUtil.fingerprint( bytes );
+      
+      // Check if old != new.
+      ZDebug.print( 9, "Old Text:\n", oldText );
+      return oldText == null || !oldText.equals( text ) || wasRuleBuilder != isRuleBuilder;
+   }
+   
+   /**
+    * Finish updating this rule after its details have been stored with
+    * setDetails(). If something has changed listeners are informed.
+    * @param changed The value returned by setDetails().
+    * @param problems The problems with the new code. Only used if changed is
+    * true.
+    */
+   synchronized void updated( boolean changed, RuleProblem[] problems )
+   {
+      if( changed ) {
+         ZDebug.print( 6, "Rule changed - ", name );
+         ZDebug.print( 9, "Rule contents - ", text );
+         
+         errors = problems;                        
+         this.updateListeners( Event.CHANGED );
+      }
+      
+      setModelState( State.UP_TO_DATE );
+   }
+   
+   /**
+    * Called when this rule no longer exists on ZXTM. Informs listeners that 
+    * the rule has been deleted.
+    */
+   synchronized void deleted()
+   {
+      if( getModelState() == State.DELETED ) return;
+      
+      updateListeners( Event.PRE_DELETE );    
+      text = null;
+      rawText = null;
+      bytes = null;
+      fingerprint = null;
+      tag = null;
+      setModelState( State.DELETED );
+      updateListeners( Event.DELETED );
+   }
+
+   /**
+    * Get the tag of the version of the rule's code we have, to pass back to
+    * the rule backend.
+    * @return The tag, or null if we have no code or the backend has no tags.
+    */
+   synchronized String getTag()
+   {
+      return text == null ? null : tag;
+   }
+
+   /**
+    * Has the rule's code been fetched from ZXTM?
+    * @return True if we have the code of the rule.
+    */
+   synchronized boolean hasCode()
+   {
+      return text != null;
    }
 
    /**
@@ -148,6 +245,32 @@ public class SOAPRule extends Rule implements SOAPUpdatable
       return (text != null) ? text : "";
    }
    
+   /**
+    * Open a stream of the code's UTF-8 bytes. ByteArrayInputStream never 
+    * writes to its buffer, so the model's bytes are shared rather than copied.
+    * They are replaced, not changed, when the code changes.
+    */
+   /* Override */
+   public InputStream openCodeStream()
+   {
+      byte[] current = bytes;
+      if( getModelState() == State.DELETED || current == null ) {
+         return new ByteArrayInputStream( new byte[0] );
+      }
+      
+      return new ByteArrayInputStream( current );
+   }
+   
+   /**
+    * Get the length of the code's UTF-8 bytes, which are already encoded.
+    */
+   /* Override */
+   public int getCodeLength()
+   {
+      byte[] current = bytes;
+      return ( current != null ) ? current.length : 0;
+   }
+   
    /**
     * Returns the 'raw code'; that is without RuleBuilder comments stripped.
     */
@@ -162,6 +285,15 @@ public class SOAPRule extends Rule implements SOAPUpdatable
       return (rawText != null) ? rawText : "";
    }
 
+   /**
+    * Get the fingerprint of the rule's code, without RuleBuilder comments.
+    */
+   /* Override */
+   public String getFingerprint()
+   {
+      return fingerprint;
+   }
+
    /**
     * Return the problems with the current code.
     */
@@ -185,6 +317,28 @@ public class SOAPRule extends Rule implements SOAPUpdatable
     */
    /* Override */
    public synchronized boolean setCode( String code ) throws RuleCodeException, ModelException
+   {
+      byte[] utf8 = ZUtil.toUTF8( code );
+      return setCode( code, utf8, utf8.length );
+   }
+   
+   /**
+    * Set the code from UTF-8 bytes. The code is decoded once, to be checked, 
+    * and the backend is given both the decoded code and the bytes.
+    */
+   /* Override */
+   public synchronized boolean setCode( byte[] code, int length ) throws RuleCodeException, ModelException
+   {
+      return setCode( ZUtil.fromUTF8( code, 0, length ), code, length );
+   }
+   
+   /**
+    * Check the code and send it to ZXTM, see setCode( String ).
+    * @param code The code to check.
+    * @param utf8 A buffer containing the same code as UTF-8, to send.
+    * @param length The number of bytes of code in the buffer.
+    */
+   private boolean setCode( String code, byte[] utf8, int length ) throws RuleCodeException, ModelException
    {         
       RuleProblem[] codeErrors = parent.checkTrafficScriptCode( code );
       
@@ -203,10 +357,7 @@ public class SOAPRule extends Rule implements SOAPUpdatable
       }      
     
       try {               
-         parent.getRuleInterface().setRuleText( 
-            new String[] { name }, 
-            new String[] { code } 
-         );
+         parent.getRuleBackend().setRule( name, code, utf8, length );
          
          // This should set all the variables, e.g. text, rawText  
          updateFromZXTM(); 
@@ -240,6 +391,26 @@ public class SOAPRule extends Rule implements SOAPUpdatable
       return 30;
    }
 
+   /**
+    * Record if the rule is open in an editor. Open rules are given a higher
+    * priority by the SOAP updater, so this moves the rule in its queue. If
+    * the ZXTM fetches rules in batches an open rule is queued by itself 
+    * instead, see SOAPZXTM.editorOpenChanged().
+    */
+   /* Override */
+   public void setEditorOpen( boolean open )
+   {
+      if( editorOpen == open ) return;
+      editorOpen = open;
+      parent.editorOpenChanged( this );
+   }
+   
+   /** Is this rule open in an editor? */
+   boolean isEditorOpen()
+   {
+      return editorOpen;
+   }
+
    /** Is this a RuleBuilder rule? */
    /* Override */
    public boolean isRulebuilder()
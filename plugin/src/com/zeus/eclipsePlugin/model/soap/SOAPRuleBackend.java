@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.model.soap;
+
+import java.io.IOException;
+
+import org.apache.zeusaxis.AxisFault;
+
+import com.zeus.eclipsePlugin.ZLang;
+import com.zeus.eclipsePlugin.ZUtil;
+import com.zeus.eclipsePlugin.model.RuleBackend;
+import com.zeus.soap.CatalogRuleRuleInfo;
+
+/**
+ * Lists, fetches and stores rules using the Catalog.Rule SOAP interface. SOAP
+ * can't tell us if a rule has changed, so the code of every rule asked for is
+ * always returned.
+ */
+public class SOAPRuleBackend implements RuleBackend
+{
+   private SOAPZXTM zxtm;
+
+   /**
+    * Create the backend for a ZXTM.
+    * @param zxtm The ZXTM whose Catalog.Rule interface should be used.
+    */
+   public SOAPRuleBackend( SOAPZXTM zxtm )
+   {
+      this.zxtm = zxtm;
+   }
+
+   /* Override */
+   public String[] getRuleNames() throws Exception
+   {
+      return zxtm.getRuleInterface().getRuleNames();
+   }
+
+   /**
+    * Fetch the rules with a single getRuleDetails call.
+    */
+   /* Override */
+   public RuleText[] getRules( String[] names, String[] tags ) throws Exception
+   {
+      CatalogRuleRuleInfo[] info;
+      try {
+         info = zxtm.getRuleInterface().getRuleDetails( names );
+      } catch( AxisFault e ) {
+         if( e.getFaultString().startsWith( "Unknown rule" ) ) {
+            throw new UnknownRuleException( ZUtil.join( ", ", names ), e );
+         }
+         throw e;
+      }
+
+      if( info.length != names.length ) {
+         throw new IOException( ZLang.ZL_SOAPZXTMDidNotReturnCorrectNumberOfRules );
+      }
+
+      RuleText[] rules = new RuleText[info.length];
+      for( int i = 0; i < info.length; i++ ) {
+         rules[i] = new RuleText( info[i].getRule_text(), null );
+      }
+      return rules;
+   }
+
+   /**
+    * SOAP sends rules as strings, so the UTF-8 buffer is not used.
+    */
+   /* Override */
+   public void addRule( String name, String code, byte[] utf8, int length ) 
+      throws Exception
+   {
+      zxtm.getRuleInterface().addRule( new String[] { name }, 
+         new String[] { code } 
+      );
+   }
+
+   /**
+    * SOAP sends rules as strings, so the UTF-8 buffer is not used.
+    */
+   /* Override */
+   public void setRule( String name, String code, byte[] utf8, int length ) 
+      throws Exception
+   {
+      zxtm.getRuleInterface().setRuleText( new String[] { name }, 
+         new String[] { code } 
+      );
+   }
+
+   /* Override */
+   public void deleteRule( String name ) throws Exception
+   {
+      zxtm.getRuleInterface().deleteRule( new String[] { name } );
+   }
+
+}
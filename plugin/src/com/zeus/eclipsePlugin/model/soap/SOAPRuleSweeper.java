@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.model.soap;
+
+import com.zeus.eclipsePlugin.ZDebug;
+import com.zeus.eclipsePlugin.model.ModelElement.State;
+
+/**
+ * Fetches the code of a ZXTM's rules in batches, when the SOAP_BATCH_SIZE
+ * preference is set. Each run fetches a single batch, carrying on around the
+ * rules from where the last batch stopped.
+ *
+ * Like the SOAPStatsSampler this is only queued in the ZXTM's updater when a
+ * batch is due. Batches are spaced out so that the code of about one rule is
+ * fetched every RULE_INTERVAL, which is the same rate as updating each rule
+ * by itself, but with far fewer SOAP calls. Rules that have never been
+ * fetched (e.g. when the ZXTM is first connected) are fetched straight away.
+ */
+public class SOAPRuleSweeper implements SOAPUpdatable
+{
+   /** How long each rule in a batch adds to the wait for the next batch (ms) */
+   private static final long RULE_INTERVAL = 1000;
+   
+   /** How long to wait before trying again after a batch fails (ms) */
+   private static final long RETRY_DELAY = 10 * 1000;
+
+   private SOAPZXTM zxtm;
+
+   private long lastBatch = 0;
+   private int lastBatchSize = 0;
+   private long retryTime = 0;
+   private boolean queued = false;
+
+   /**
+    * Create the sweeper for a ZXTM.
+    * @param zxtm The ZXTM whose rules are fetched.
+    */
+   public SOAPRuleSweeper( SOAPZXTM zxtm )
+   {
+      this.zxtm = zxtm;
+   }
+
+   /**
+    * Is a batch due? If true the sweeper is marked as queued, and the caller
+    * must add it to the updater.
+    * @param unfetched Are there rules whose code has never been fetched?
+    * @return True if a batch should be fetched now.
+    */
+   synchronized boolean isDue( boolean unfetched )
+   {
+      long now = System.currentTimeMillis();
+      if( queued || now < retryTime ) return false;
+      if( !unfetched &&
+          now - lastBatch < lastBatchSize * RULE_INTERVAL )
+      {
+         return false;
+      }
+
+      queued = true;
+      return true;
+   }
+
+   /**
+    * Called when the sweeper has been removed from the updater before it
+    * ran, so it can be queued again.
+    */
+   synchronized void cancelled()
+   {
+      queued = false;
+   }
+
+   /**
+    * Fetch the next batch of rules. Failures are only logged, as the ZXTM's
+    * own update will report any problem talking to it. Always returns false,
+    * as the ZXTM queues the sweeper again when the next batch is due.
+    */
+   /* Override */
+   public boolean updateFromZXTM()
+   {
+      synchronized( this ) {
+         queued = false;
+      }
+
+      int fetched = 0;
+      boolean failed = false;
+      if( zxtm.getModelState() == State.UP_TO_DATE ) {
+         try {
+            fetched = zxtm.updateRuleBatch();
+         } catch( Exception e ) {
+            ZDebug.print( 4, "Rule batch update failed for ", zxtm, ": ", e.getMessage() );
+            failed = true;
+         }
+      }
+
+      synchronized( this ) {
+         lastBatch = System.currentTimeMillis();
+         lastBatchSize = fetched;
+         if( failed ) retryTime = lastBatch + RETRY_DELAY;
+      }
+
+      return false;
+   }
+
+   /**
+    * Rules are fetched with the same priority as when they update themselves.
+    */
+   /* Override */
+   public int getPriority()
+   {
+      return 30;
+   }
+
+   /** Describes the sweeper */
+   /* Override */
+   public String toString()
+   {
+      return "Rule sweeper " + zxtm;
+   }
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.model.soap;
+
+import com.zeus.eclipsePlugin.PreferenceManager;
+import com.zeus.eclipsePlugin.ZDebug;
+import com.zeus.eclipsePlugin.consts.Preference;
+import com.zeus.eclipsePlugin.model.Rule;
+import com.zeus.eclipsePlugin.model.RuleStatistics;
+import com.zeus.eclipsePlugin.model.ModelElement.State;
+import com.zeus.eclipsePlugin.model.RuleStatistics.Counter;
+import com.zeus.soap.SystemStatsPort_PortType;
+
+/**
+ * Samples the execution counters of a ZXTM's rules with the System.Stats
+ * interface, and adds them to the ZXTM's RuleStatistics.
+ *
+ * The sampler is not always queued in the ZXTM's updater. The ZXTM adds it
+ * after its own update when a sample is due (see isDue()), and it is removed
+ * again once the sample has been taken. Each counter is fetched for every
+ * rule in a single call.
+ */
+public class SOAPStatsSampler implements SOAPUpdatable
+{
+   private SOAPZXTM zxtm;
+   private RuleStatistics statistics;
+
+   private long lastSample = 0;
+   private boolean queued = false;
+
+   /**
+    * Create the sampler for a ZXTM.
+    * @param zxtm The ZXTM whose rules are sampled.
+    * @param statistics Where the samples are stored.
+    */
+   public SOAPStatsSampler( SOAPZXTM zxtm, RuleStatistics statistics )
+   {
+      this.zxtm = zxtm;
+      this.statistics = statistics;
+   }
+
+   /**
+    * Is a sample due? If true the sampler is marked as queued, and the caller
+    * must add it to the updater.
+    * @return True if a sample should be taken now.
+    */
+   synchronized boolean isDue()
+   {
+      int rate = PreferenceManager.getPreferenceInt( Preference.STATS_RATE );
+      if( rate <= 0 || queued ) return false;
+      if( System.currentTimeMillis() - lastSample < rate ) return false;
+
+      queued = true;
+      return true;
+   }
+
+   /**
+    * Called when the sampler has been removed from the updater before it ran,
+    * so it can be queued again.
+    */
+   synchronized void cancelled()
+   {
+      queued = false;
+   }
+
+   /**
+    * Take a sample. Failures are only logged, as the ZXTM's own update will
+    * report any problem talking to it. Always returns false, as the ZXTM
+    * queues the sampler again when the next sample is due.
+    */
+   /* Override */
+   public boolean updateFromZXTM()
+   {
+      synchronized( this ) {
+         queued = false;
+         lastSample = System.currentTimeMillis();
+      }
+
+      if( zxtm.getModelState() != State.UP_TO_DATE ) return false;
+
+      Rule[] rules = zxtm.getRules();
+      if( rules.length == 0 ) return false;
+      
+      String[] names = new String[rules.length];
+      for( int i = 0; i < rules.length; i++ ) {
+         names[i] = rules[i].getName();
+      }
+
+      try {
+         SystemStatsPort_PortType stats = zxtm.getStatsInterface();
+         long[][] totals = new long[Counter.values().length][];
+
+         for( Counter counter : Counter.values() ) {
+            int[] values;
+            switch( counter ) {
+               case EXECUTIONS:  values = stats.getRuleExecutions( names ); break;
+               case ABORTS:      values = stats.getRuleAborts( names ); break;
+               case DISCARDS:    values = stats.getRuleDiscards( names ); break;
+               case RETRIES:     values = stats.getRuleRetries( names ); break;
+               case RESPONDS:    values = stats.getRuleResponds( names ); break;
+               case POOL_SELECT: values = stats.getRulePoolSelect( names ); break;
+               default: throw new IllegalStateException( counter.toString() );
+            }
+
+            if( values.length != names.length ) {
+               ZDebug.print( 3, "Wrong number of ", counter, " counters from ", zxtm );
+               return false;
+            }
+
+            // The counters are unsigned 32 bit values
+            long[] counts = new long[values.length];
+            for( int i = 0; i < values.length; i++ ) {
+               counts[i] = values[i] & 0xffffffffL;
+            }
+            totals[counter.ordinal()] = counts;
+         }
+
+         statistics.addSample( System.currentTimeMillis(), names, totals );
+
+      // A rule may have been deleted since the list was fetched, the next
+      // sample will have the new list.
+      } catch( Exception e ) {
+         ZDebug.print( 4, "Rule statistics sample failed for ", zxtm, ": ", e.getMessage() );
+      }
+
+      return false;
+   }
+
+   /**
+    * Samples are less important than rules being kept up to date.
+    */
+   /* Override */
+   public int getPriority()
+   {
+      return 20;
+   }
+
+   /** Describes the sampler */
+   /* Override */
+   public String toString()
+   {
+      return "Rule statistics sampler " + zxtm;
+   }
+}
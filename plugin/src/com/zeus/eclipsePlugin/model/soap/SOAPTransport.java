@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.model.soap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Hashtable;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import org.apache.zeusaxis.AxisFault;
+import org.apache.zeusaxis.Constants;
+import org.apache.zeusaxis.EngineConfiguration;
+import org.apache.zeusaxis.Message;
+import org.apache.zeusaxis.MessageContext;
+import org.apache.zeusaxis.SimpleTargetedChain;
+import org.apache.zeusaxis.configuration.SimpleProvider;
+import org.apache.zeusaxis.encoding.Base64;
+import org.apache.zeusaxis.handlers.BasicHandler;
+
+import com.zeus.eclipsePlugin.ZDebug;
+
+/**
+ * Sends SOAP requests to ZXTMs over persistent HTTPS connections, replacing
+ * Axis's HTTPSender, which opens (and closes) a new connection for every call.
+ *
+ * Requests are made with HttpsURLConnection, which keeps idle connections
+ * open and re-uses them for later requests to the same host (keeping a few
+ * per host, see the http.maxConnections system property). All connections
+ * use the same SSL context, so when a new connection is needed its TLS
+ * session can usually be resumed instead of doing a full handshake.
+ * Responses are read in full straight away so the connection can be re-used.
+ *
+ * Like the rest of the SOAP model, ZXTM certificates are not checked. The
+ * time taken by each call is recorded per host, see getTiming().
+ */
+public class SOAPTransport extends BasicHandler
+{
+   private static final long serialVersionUID = 1L;
+
+   private static final ZDebug.Logger log = ZDebug.getLogger( SOAPTransport.class );
+
+   private static SimpleProvider config = null;
+
+   /** The timing of calls to each host, keyed by host:port */
+   private static HashMap<String,Timing> timings = new HashMap<String,Timing>();
+
+   /**
+    * Get the Axis configuration that sends requests with this transport. Pass
+    * it to the SOAP locators.
+    * @return The shared client configuration.
+    */
+   public static synchronized EngineConfiguration getEngineConfiguration()
+   {
+      if( config == null ) {
+         // The same options as Axis's default client-config.wsdd
+         Hashtable<String,String> options = new Hashtable<String,String>();
+         options.put( "disablePrettyXML", "true" );
+         options.put( "enableNamespacePrefixOptimization", "false" );
+
+         config = new SimpleProvider();
+         config.setGlobalOptions( options );
+         config.deployTransport( "http", new SimpleTargetedChain( new SOAPTransport() ) );
+      }
+
+      return config;
+   }
+
+   /**
+    * Get the timing of the calls made to a host.
+    * @param hostname The hostname of the ZXTM.
+    * @param port The admin port of the ZXTM.
+    * @return A copy of the host's timing, or null if no calls have been made
+    * to it.
+    */
+   public static Timing getTiming( String hostname, int port )
+   {
+      synchronized( timings ) {
+         Timing timing = timings.get( hostname + ":" + port );
+         return timing == null ? null : timing.copy();
+      }
+   }
+
+   /**
+    * Send the request message, and set the response.
+    */
+   /* Override */
+   public void invoke( MessageContext msgContext ) throws AxisFault
+   {
+      long start = System.currentTimeMillis();
+      URL url = null;
+
+      try {
+         url = new URL( msgContext.getStrProp( MessageContext.TRANS_URL ) );
+
+         // Write the request first, so we can send its length
+         Message request = msgContext.getRequestMessage();
+         ByteArrayOutputStream requestBytes = new ByteArrayOutputStream( 4096 );
+         request.writeTo( requestBytes );
+
+         HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+         if( conn instanceof HttpsURLConnection ) {
+            HttpsURLConnection https = (HttpsURLConnection) conn;
+            https.setSSLSocketFactory( TrustingProvider.getSocketFactory() );
+            https.setHostnameVerifier( TrustingProvider.ANY_HOST );
+         }
+
+         int timeout = msgContext.getTimeout();
+         if( timeout > 0 ) {
+            conn.setConnectTimeout( timeout );
+            conn.setReadTimeout( timeout );
+         }
+
+         conn.setRequestMethod( "POST" );
+         conn.setDoOutput( true );
+         conn.setUseCaches( false );
+         conn.setFixedLengthStreamingMode( requestBytes.size() );
+
+         conn.setRequestProperty( "Content-Type",
+            request.getContentType( msgContext.getSOAPConstants() )
+         );
+         conn.setRequestProperty( "SOAPAction", "\"" +
+            ( msgContext.useSOAPAction() && msgContext.getSOAPActionURI() != null ?
+              msgContext.getSOAPActionURI() : "" ) + "\""
+         );
+
+         if( msgContext.getUsername() != null ) {
+            String auth = msgContext.getUsername() + ":" +
+               ( msgContext.getPassword() == null ? "" : msgContext.getPassword() );
+            conn.setRequestProperty( "Authorization",
+               "Basic " + Base64.encode( auth.getBytes( "UTF-8" ) )
+            );
+         }
+
+         OutputStream out = conn.getOutputStream();
+         try {
+            requestBytes.writeTo( out );
+         } finally {
+            out.close();
+         }
+
+         // Read the whole response, so the connection can be re-used
+         int code = conn.getResponseCode();
+         InputStream in = code < 400 ? conn.getInputStream() : conn.getErrorStream();
+         byte[] body = readAll( in );
+         String contentType = conn.getContentType();
+
+         boolean soapFault = code == HttpURLConnection.HTTP_INTERNAL_ERROR &&
+            contentType != null && contentType.contains( "xml" );
+
+         if( code < 200 || ( code >= 300 && !soapFault ) ) {
+            AxisFault fault = new AxisFault( "HTTP",
+               "(" + code + ")" + conn.getResponseMessage(), null, null
+            );
+            fault.addFaultDetail( Constants.QNAME_FAULTDETAIL_HTTPERRORCODE,
+               Integer.toString( code )
+            );
+            throw fault;
+         }
+
+         Message response = new Message(
+            new ByteArrayInputStream( body ), false, contentType, null
+         );
+         response.setMessageType( Message.RESPONSE );
+         msgContext.setResponseMessage( response );
+
+      } catch( AxisFault e ) {
+         throw e;
+      } catch( Exception e ) {
+         throw AxisFault.makeFault( e );
+      } finally {
+         recordTime( msgContext, url, System.currentTimeMillis() - start );
+      }
+   }
+
+   /**
+    * Read a stream to the end and close it.
+    * @param in The stream to read, may be null.
+    * @return The contents of the stream.
+    */
+   private static byte[] readAll( InputStream in ) throws IOException
+   {
+      if( in == null ) return new byte[0];
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream( 4096 );
+      try {
+         byte[] buffer = new byte[4096];
+         int read;
+         while( ( read = in.read( buffer ) ) != -1 ) {
+            bytes.write( buffer, 0, read );
+         }
+      } finally {
+         in.close();
+      }
+
+      return bytes.toByteArray();
+   }
+
+   /**
+    * Add the time taken by a call to its host's timing.
+    */
+   private static void recordTime( MessageContext msgContext, URL url, long time )
+   {
+      if( url == null ) return;
+      String host = url.getHost() + ":" + url.getPort();
+
+      Timing timing;
+      synchronized( timings ) {
+         timing = timings.get( host );
+         if( timing == null ) {
+            timing = new Timing();
+            timings.put( host, timing );
+         }
+         timing.add( time );
+      }
+
+      if( log.isEnabled( 5 ) ) {
+         String operation = msgContext.getOperation() == null ?
+            msgContext.getSOAPActionURI() : msgContext.getOperation().getName();
+         log.print( 5, "SOAP call ", operation, " to ", host, " took ", time, "ms" );
+      }
+   }
+
+   /**
+    * The number of calls made to a host and the time they took.
+    */
+   public static class Timing
+   {
+      private int calls = 0;
+      private long totalTime = 0;
+      private long maxTime = 0;
+
+      /**
+       * Record a call.
+       */
+      private void add( long time )
+      {
+         calls++;
+         totalTime += time;
+         maxTime = Math.max( maxTime, time );
+      }
+
+      /**
+       * Copy the timing, so it can be read while more calls are made.
+       */
+      private Timing copy()
+      {
+         Timing timing = new Timing();
+         timing.calls = calls;
+         timing.totalTime = totalTime;
+         timing.maxTime = maxTime;
+         return timing;
+      }
+
+      /**
+       * Get the number of calls made.
+       * @return The number of calls, including ones that failed.
+       */
+      public int getCalls()
+      {
+         return calls;
+      }
+
+      /**
+       * Get the total time the calls took.
+       * @return The total time in milliseconds.
+       */
+      public long getTotalTime()
+      {
+         return totalTime;
+      }
+
+      /**
+       * Get the average time of a call.
+       * @return The average time in milliseconds, or 0 if no calls were made.
+       */
+      public long getAverageTime()
+      {
+         return calls == 0 ? 0 : totalTime / calls;
+      }
+
+      /**
+       * Get the time of the slowest call.
+       * @return The slowest call's time in milliseconds.
+       */
+      public long getMaxTime()
+      {
+         return maxTime;
+      }
+   }
+
+}
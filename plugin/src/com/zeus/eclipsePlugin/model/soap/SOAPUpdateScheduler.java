@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.model.soap;
+
+import java.util.LinkedList;
+
+import com.zeus.eclipsePlugin.BackgroundThread;
+import com.zeus.eclipsePlugin.PreferenceManager;
+import com.zeus.eclipsePlugin.ZDebug;
+import com.zeus.eclipsePlugin.ZXTMPlugin;
+import com.zeus.eclipsePlugin.consts.Preference;
+
+/**
+ * Runs the updates of every ZXTM's SOAPUpdater using a small, fixed set of
+ * worker threads, so the number of threads does not grow with the number of
+ * ZXTMs.
+ *
+ * Each ZXTM (host) has at most MAX_HOST_UPDATES updates running at once, and
+ * pauses for the SOAP rate between updates. If a host cannot be synced the
+ * pause is doubled each time, up to MAX_BACKOFF, so broken hosts don't take
+ * time away from working ones. The number of workers caps the SOAP calls in
+ * progress across all hosts.
+ */
+public class SOAPUpdateScheduler
+{
+   /** The number of worker threads, i.e. the most SOAP updates at once. */
+   public static final int WORKER_COUNT = 4;
+
+   /** The most updates that can be running for a single host at once. */
+   public static final int MAX_HOST_UPDATES = 1;
+
+   /** The longest time a failing host will wait between updates. */
+   public static final int MAX_BACKOFF = 60000;
+
+   /** How long an idle worker waits before checking for work again. */
+   private static final int IDLE_WAIT = 500;
+
+   private LinkedList<SOAPUpdater> hosts = new LinkedList<SOAPUpdater>();
+   private Worker[] workers = null;
+
+   /**
+    * Start scheduling updates for a host. Worker threads are started when the
+    * first host is registered.
+    * @param host The updater of the host to start updating.
+    */
+   public synchronized void register( SOAPUpdater host )
+   {
+      ZDebug.print( 4, "register( ", host, " )" );
+      if( hosts.contains( host ) ) return;
+
+      host.nextUpdate = System.currentTimeMillis();
+      host.failures = 0;
+      hosts.add( host );
+
+      if( workers == null ) {
+         workers = new Worker[WORKER_COUNT];
+         for( int i = 0; i < workers.length; i++ ) {
+            workers[i] = new Worker( i + 1 );
+            workers[i].start();
+         }
+      }
+
+      notifyAll();
+   }
+
+   /**
+    * Stop scheduling updates for a host. Any update already running for the
+    * host is allowed to finish.
+    * @param host The updater of the host to stop updating.
+    */
+   public synchronized void unregister( SOAPUpdater host )
+   {
+      ZDebug.print( 4, "unregister( ", host, " )" );
+      hosts.remove( host );
+   }
+
+   /**
+    * Inform the scheduler a host has new work. If the host was idle it is
+    * updated straight away, rather than waiting out any back off.
+    * @param host The host that has new work.
+    * @param wasIdle True if the host had nothing queued before.
+    */
+   synchronized void workAdded( SOAPUpdater host, boolean wasIdle )
+   {
+      if( wasIdle && host.running == 0 ) {
+         host.nextUpdate = System.currentTimeMillis();
+         host.failures = 0;
+      }
+      notifyAll();
+   }
+
+   /**
+    * Stop all the worker threads. Called when the model is disposed.
+    */
+   public void stop()
+   {
+      Worker[] stopping;
+      synchronized( this ) {
+         stopping = workers;
+         workers = null;
+         hosts.clear();
+         notifyAll();
+      }
+
+      if( stopping != null ) {
+         for( Worker worker : stopping ) {
+            worker.stop();
+         }
+      }
+   }
+
+   /**
+    * Wait for a host that is due an update and has work queued. The host's
+    * running count is incremented, {@link #finished(SOAPUpdater)} must be
+    * called when the update is done.
+    * @return The host to update, or null if no host became ready in time.
+    * @throws InterruptedException If the worker is stopped whilst waiting.
+    */
+   private synchronized SOAPUpdater next() throws InterruptedException
+   {
+      long now = System.currentTimeMillis();
+      long wait = IDLE_WAIT;
+
+      SOAPUpdater best = null;
+      for( SOAPUpdater host : hosts ) {
+         if( host.running >= MAX_HOST_UPDATES || !host.hasWork() ) continue;
+
+         if( host.nextUpdate <= now ) {
+            if( best == null || host.nextUpdate < best.nextUpdate ) {
+               best = host;
+            }
+         } else {
+            wait = Math.min( wait, host.nextUpdate - now );
+         }
+      }
+
+      if( best == null ) {
+         wait( Math.max( 1, wait ) );
+         return null;
+      }
+
+      best.running++;
+      return best;
+   }
+
+   /**
+    * Called when a worker has finished updating a host. Works out when the
+    * host should next be updated.
+    * @param host The host that has been updated.
+    */
+   private synchronized void finished( SOAPUpdater host )
+   {
+      host.running--;
+
+      int rate = PreferenceManager.getPreferenceInt( Preference.SOAP_RATE );
+      long delay = rate;
+
+      if( host.isFailing() ) {
+         host.failures++;
+         delay = Math.min( MAX_BACKOFF,
+            (long) Math.max( rate, IDLE_WAIT ) << Math.min( host.failures, 16 )
+         );
+         ZDebug.print( 5, "Host failing, backing off for ", delay, "ms - ", host );
+      } else {
+         host.failures = 0;
+      }
+
+      host.nextUpdate = System.currentTimeMillis() + delay;
+      notifyAll();
+   }
+
+   /**
+    * A worker thread. Repeatedly takes the next host that is due an update and
+    * updates the next object in its queue.
+    */
+   private class Worker extends BackgroundThread
+   {
+      /**
+       * Create a worker.
+       * @param num The number of this worker, used in the thread name.
+       */
+      public Worker( int num )
+      {
+         super( "SOAP Updater " + num );
+      }
+
+      /**
+       * Waits for Eclipse to finish loading, then updates the next host that
+       * is ready.
+       */
+      /* Override */
+      protected void run() throws InterruptedException
+      {
+         // Wait for the workbench to be ready
+         if( !ZXTMPlugin.isEclipseLoaded() ) {
+            setPause( 1000 );
+            return;
+         }
+         setPause( 0 );
+
+         SOAPUpdater host = next();
+         if( host == null ) return;
+
+         try {
+            host.updateNext();
+         } finally {
+            finished( host );
+         }
+      }
+   }
+
+}
@@ -12,179 +12,334 @@
 
 package com.zeus.eclipsePlugin.model.soap;
 
-import java.util.LinkedList;
-import java.util.PriorityQueue;
+import java.util.ArrayList;
+import java.util.HashMap;
 
-import com.zeus.eclipsePlugin.BackgroundThread;
-import com.zeus.eclipsePlugin.PreferenceManager;
 import com.zeus.eclipsePlugin.ZDebug;
-import com.zeus.eclipsePlugin.ZXTMPlugin;
-
-import com.zeus.eclipsePlugin.consts.Preference;
-import com.zeus.eclipsePlugin.editor.TrafficScriptEditor;
+import com.zeus.eclipsePlugin.model.ModelElement.State;
 
 /**
- * This class continually updates the SOAP model in the background (separate 
- * thread). 
- * 
+ * This class continually updates the SOAP model of a single ZXTM in the
+ * background. The updates are run by a SOAPUpdateScheduler, which is shared
+ * by all the ZXTMs.
+ *
  * It picks the next thing to update based on its type, how long ago
  * it was last updated, and if it is being viewed (e.g. a TrafficScript rule
- * being edited).
+ * being edited). These are combined into a due time when the object is 
+ * queued, and the objects are kept in a heap ordered by due time. The heap is
+ * indexed by object so objects can be removed or re-prioritised in O(log n).
  */
-public class SOAPUpdater extends BackgroundThread
+public class SOAPUpdater
 {
-   private PriorityQueue<SOAPObject> queue = new PriorityQueue<SOAPObject>();
- 
+   /** Milliseconds of waiting each point of priority is worth. */
+   private static final int PRIORITY_UNIT = 100;
+   
+   /** Extra priority for rules that are open in an editor. */
+   public static final int EDITOR_OPEN_BONUS = 40;
+   
+   private ArrayList<SOAPObject> heap = new ArrayList<SOAPObject>();
+   private HashMap<SOAPUpdatable,SOAPObject> index = 
+      new HashMap<SOAPUpdatable,SOAPObject>();
+   
+   private SOAPUpdateScheduler scheduler;
+   private SOAPZXTM zxtm;
+
+   // Scheduling details, managed by the scheduler
+   long nextUpdate = 0;
+   int running = 0;
+   int failures = 0;
+
    /**
-    * Create a SOAP updater. The name should be the parent object of this 
-    * updater.
-    * @param name The name of the class that manages this updater.
+    * Create a SOAP updater for a ZXTM.
+    * @param scheduler The scheduler that will run this updater's updates.
+    * @param zxtm The ZXTM that manages this updater.
     */
-   public SOAPUpdater( String name ) 
+   public SOAPUpdater( SOAPUpdateScheduler scheduler, SOAPZXTM zxtm )
    {
-      super( "SOAP Updater " + name );
+      this.scheduler = scheduler;
+      this.zxtm = zxtm;
    }
-   
+
    /**
-    * Add a SOAP object to update constantly.
+    * Add a SOAP object to update constantly. If the object is already queued
+    * it keeps whichever due time is sooner.
     * @param object The soap object you want to update.
     */
-   public synchronized void add( SOAPUpdatable object )
+   public void add( SOAPUpdatable object )
    {
       ZDebug.print( 6, "Adding object to queue: ", object );
-      queue.add( new SOAPObject( object ) );
+      boolean wasIdle;
+      synchronized( this ) {
+         wasIdle = heap.isEmpty();
+         queue( object );
+      }
+
+      // Must not hold our lock, the scheduler locks itself then us.
+      scheduler.workAdded( this, wasIdle );
    }
-   
+
    /**
-    * Remove all objects that equal() the passed in object.
+    * Stop updating the passed object.
     * @param object The object to stop updating.
     */
    public synchronized void remove( SOAPUpdatable object )
    {
       ZDebug.print( 6, "Removing object to queue: ", object );
-      LinkedList<SOAPObject> toRemove = new LinkedList<SOAPObject>();
-      
-      for( SOAPObject obj : queue ) {
-         if( obj.getObject().equals( object ) ) {
-            toRemove.add( obj );
-         }
-      }
-      
-      for( SOAPObject obj : toRemove ) {
-         queue.remove( obj );
+      SOAPObject obj = index.remove( object );
+      if( obj != null ) {
+         removeAt( obj.pos );
       }
    }
    
    /**
-    * Gets the next thing to update.
-    * @return The next soap object to update, based on priority.
+    * Re-calculate the due time of an object, because its priority has 
+    * changed (e.g. an editor has been opened for a rule). Does nothing if the
+    * object is not queued.
+    * @param object The object whose priority has changed.
     */
-   protected synchronized SOAPUpdatable poll()
+   public synchronized void reprioritise( SOAPUpdatable object )
    {
-      SOAPObject obj =  queue.poll();
+      SOAPObject obj = index.get( object );
       if( obj != null ) {
-         return obj.getObject();
-      } else {
-         return null;
+         obj.due = obj.timeAdded - getPriority( object ) * PRIORITY_UNIT;
+         siftUp( obj.pos );
+         siftDown( obj.pos );
       }
    }
-   
+
    /**
-    * Main thread method. Waits for ZXTM to finish loading, then continuously
-    * updates 
+    * Gets the next thing to update.
+    * @return The next soap object to update, based on priority.
     */
-   /* Override */
-   public void run()
+   protected synchronized SOAPUpdatable poll()
    {
-      // Wait for the workbench to be ready
-      while( !ZXTMPlugin.isEclipseLoaded()  ) {
-         setPause( 1000 );
-         return;
-      }
+      if( heap.isEmpty() ) return null;
+      
+      SOAPObject obj = heap.get( 0 );
+      index.remove( obj.getObject() );
+      removeAt( 0 );
       
+      return obj.getObject();
+   }
+
+   /**
+    * Does this updater have anything to update?
+    * @return True if there are objects waiting to be updated.
+    */
+   synchronized boolean hasWork()
+   {
+      return !heap.isEmpty();
+   }
+
+   /**
+    * Is this updater's ZXTM currently failing to sync? Used by the scheduler
+    * to back off from broken hosts.
+    * @return True if the ZXTM cannot be synced.
+    */
+   boolean isFailing()
+   {
+      return zxtm.getModelState() == State.CANNOT_SYNC;
+   }
+
+   /**
+    * Start updating the queued objects.
+    */
+   public void start()
+   {
+      scheduler.register( this );
+   }
+
+   /**
+    * Stop updating the queued objects. An update that is in progress will
+    * still finish.
+    */
+   public void stop()
+   {
+      scheduler.unregister( this );
+   }
+
+   /**
+    * Update the next object in the queue. Called by the scheduler's worker
+    * threads.
+    */
+   void updateNext()
+   {
       SOAPUpdatable obj = null;
       try {
          // Get a object from the queue
          obj = poll();
          if( obj == null ) {
-            setPause( 500 );
             return;
          }
-         
+
          // Update the object
          ZDebug.print( 5, "Updating object: ", obj );
-         boolean keepMe = obj.updateFromZXTM();     
-         
+         boolean keepMe = obj.updateFromZXTM();
+
          // If the update function returns true, re-add the object to the
          // queue
          if( keepMe ) {
-            add( obj ); // Re-add to the queue
+            requeue( obj ); // Re-add to the queue
          }
-         
+
        // We are probably stopping
       } catch( RuntimeException e ) {
          ZDebug.printStackTrace( e, "SOAPUpdater error whilst updating", obj );
-         if( obj != null ) add( obj );
+         if( obj != null ) requeue( obj );
       }
+   }
+
+   /**
+    * Put an object that has just been updated back in the queue. Unlike add()
+    * this does not reset the scheduler's back off.
+    * @param object The object to re-queue.
+    */
+   private synchronized void requeue( SOAPUpdatable object )
+   {
+      queue( object );
+   }
+   
+   /**
+    * Get the priority of an object, including the bonus for rules that are
+    * open in an editor.
+    * @param object The object to get the priority of.
+    * @return The priority, higher is updated sooner.
+    */
+   private static int getPriority( SOAPUpdatable object )
+   {
+      int priority = object.getPriority();
+      if( object instanceof SOAPRule && ((SOAPRule) object).isEditorOpen() ) {
+         ZDebug.print( 9, "Bonus for being open: ", object );
+         priority += EDITOR_OPEN_BONUS;
+      }
+      return priority;
+   }
+   
+   /**
+    * Add an object to the heap, or move it forward if it is already queued
+    * and the new due time is sooner. Must hold this object's lock.
+    * @param object The object to queue.
+    */
+   private void queue( SOAPUpdatable object )
+   {
+      SOAPObject obj = new SOAPObject( object );
+      SOAPObject existing = index.get( object );
       
-      setPause( PreferenceManager.getPreferenceInt( Preference.SOAP_RATE ) );
-   }    
+      if( existing != null ) {
+         if( obj.due < existing.due ) {
+            existing.timeAdded = obj.timeAdded;
+            existing.due = obj.due;
+            siftUp( existing.pos );
+         }
+         return;
+      }
       
+      index.put( object, obj );
+      obj.pos = heap.size();
+      heap.add( obj );
+      siftUp( obj.pos );
+   }
+   
+   /**
+    * Remove the object at a position in the heap. Must hold this object's 
+    * lock.
+    * @param pos The position of the object in the heap.
+    */
+   private void removeAt( int pos )
+   {
+      SOAPObject last = heap.remove( heap.size() - 1 );
+      if( pos < heap.size() ) {
+         set( pos, last );
+         siftUp( pos );
+         siftDown( pos );
+      }
+   }
+   
+   /**
+    * Move an object towards the top of the heap until it is in order.
+    * @param pos The current position of the object.
+    */
+   private void siftUp( int pos )
+   {
+      SOAPObject obj = heap.get( pos );
+      while( pos > 0 ) {
+         int parent = ( pos - 1 ) / 2;
+         SOAPObject parentObj = heap.get( parent );
+         if( parentObj.due <= obj.due ) break;
+         set( pos, parentObj );
+         pos = parent;
+      }
+      set( pos, obj );
+   }
+   
    /**
-    * Wraps around a SOAP updateable.
+    * Move an object towards the bottom of the heap until it is in order.
+    * @param pos The current position of the object.
     */
-   private class SOAPObject implements Comparable<SOAPObject>
+   private void siftDown( int pos )
+   {
+      SOAPObject obj = heap.get( pos );
+      int size = heap.size();
+      while( true ) {
+         int child = pos * 2 + 1;
+         if( child >= size ) break;
+         if( child + 1 < size && heap.get( child + 1 ).due < heap.get( child ).due ) {
+            child++;
+         }
+         SOAPObject childObj = heap.get( child );
+         if( obj.due <= childObj.due ) break;
+         set( pos, childObj );
+         pos = child;
+      }
+      set( pos, obj );
+   }
+   
+   /**
+    * Put an object in the heap, updating its stored position.
+    */
+   private void set( int pos, SOAPObject obj )
+   {
+      heap.set( pos, obj );
+      obj.pos = pos;
+   }
+
+   /** Returns the ZXTM this updater is updating. */
+   /* Override */
+   public String toString()
+   {
+      return "SOAP Updater " + zxtm;
+   }
+
+   /**
+    * Wraps around a SOAP updateable. The due time is worked out when it is 
+    * created, from the time it was added and the priority of the object, so 
+    * it doesn't change while the object is in the heap. Objects with a higher
+    * priority are due sooner.
+    */
+   private static class SOAPObject
    {
       private long timeAdded;
+      private long due;
+      private int pos;
       private SOAPUpdatable obj;
-                 
+
       /**
-       * Create the object, stores the time it was created
-       * @param obj The SOAPUpdatable this SOAPObject wraps 
+       * Create the object, stores the time it was created and works out when 
+       * it is due.
+       * @param obj The SOAPUpdatable this SOAPObject wraps
        */
       public SOAPObject( SOAPUpdatable obj )
       {
-         this.timeAdded = System.currentTimeMillis() / 100;
+         this.timeAdded = System.currentTimeMillis();
+         this.due = timeAdded - getPriority( obj ) * PRIORITY_UNIT;
          this.obj = obj;
       }
 
-      /**
-       * Uses the priority of the object to compare.
-       */
-      /* Override */
-      public int compareTo( SOAPObject o )
-      {          
-         return o.getAdjustedPriority() - this.getAdjustedPriority();
-      }
-      
-      /**
-       * Calculates a objects priority based on the time it was added and the 
-       * base priority of the object type. Rules also get a big bonus if they
-       * are open in an editor.
-       * @return The priority as an integer.
-       */
-      public int getAdjustedPriority()
-      {
-         long timeNow = System.currentTimeMillis() / 100;
-         
-         int bonusForBeingOpen = 0;
-         
-         if( obj instanceof SOAPRule ) {
-            SOAPRule rule = (SOAPRule) obj;
-            if( TrafficScriptEditor.getEditorForRuleQuick( rule ) != null ) {
-               ZDebug.print( 9, "Bonus for being open: ", rule );
-               bonusForBeingOpen = 40;
-            }
-         }
-         
-         return (int) (( timeNow - timeAdded ) + obj.getPriority() + bonusForBeingOpen);
-      }
-
       /** Get the wrapped SOAPUpdatable */
       public SOAPUpdatable getObject()
       {
          return obj;
-      }      
+      }
    }
-   
+
 }
@@ -15,7 +15,11 @@ package com.zeus.eclipsePlugin.model.soap;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 import javax.xml.rpc.ServiceException;
@@ -23,31 +27,39 @@ import javax.xml.rpc.ServiceException;
 import org.apache.zeusaxis.client.Call;
 import org.apache.zeusaxis.client.Stub;
 
+import com.zeus.eclipsePlugin.PreferenceManager;
 import com.zeus.eclipsePlugin.ZDebug;
 import com.zeus.eclipsePlugin.ZLang;
 import com.zeus.eclipsePlugin.ZUtil;
+import com.zeus.eclipsePlugin.ZXTMPlugin;
+import com.zeus.eclipsePlugin.codedata.VersionCodeData;
+import com.zeus.eclipsePlugin.consts.Preference;
 import com.zeus.eclipsePlugin.editor.CodeLine;
 import com.zeus.eclipsePlugin.editor.CodeUtil;
+import com.zeus.eclipsePlugin.editor.TrafficScriptChecker;
 import com.zeus.eclipsePlugin.model.JavaExtension;
 import com.zeus.eclipsePlugin.model.ModelElement;
 import com.zeus.eclipsePlugin.model.ModelError;
 import com.zeus.eclipsePlugin.model.ModelException;
 import com.zeus.eclipsePlugin.model.Rule;
+import com.zeus.eclipsePlugin.model.RuleBackend;
+import com.zeus.eclipsePlugin.model.RuleBackend.RuleText;
+import com.zeus.eclipsePlugin.model.RuleBackend.UnknownRuleException;
+import com.zeus.eclipsePlugin.model.RuleBindings;
 import com.zeus.eclipsePlugin.model.RuleProblem;
+import com.zeus.eclipsePlugin.model.RuleStatistics;
 import com.zeus.eclipsePlugin.model.ZXTM;
+import com.zeus.eclipsePlugin.model.rest.RESTRuleBackend;
 import com.zeus.soap.CatalogRuleLocator;
 import com.zeus.soap.CatalogRulePort_PortType;
 import com.zeus.soap.CatalogRuleSyntaxCheck;
-import com.zeus.soap.SystemCacheCacheContent;
-import com.zeus.soap.SystemCacheCacheContentInfo;
-import com.zeus.soap.SystemCacheLocator;
-import com.zeus.soap.SystemCachePort_PortType;
-import com.zeus.soap.SystemCacheProtocol;
 import com.zeus.soap.SystemLicenseKeysLicenseKey;
 import com.zeus.soap.SystemLicenseKeysLocator;
 import com.zeus.soap.SystemLicenseKeysPort_PortType;
 import com.zeus.soap.SystemMachineInfoLocator;
 import com.zeus.soap.SystemMachineInfoPort_PortType;
+import com.zeus.soap.SystemStatsLocator;
+import com.zeus.soap.SystemStatsPort_PortType;
 import com.zeus.soap.VirtualServerLocator;
 import com.zeus.soap.VirtualServerPort_PortType;
 
@@ -71,12 +83,70 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
 
    private boolean disconnected = false;
    
+   /** Were the rules fetched in batches during the last update? */
+   private volatile boolean batched = false;
+   
+   /** Fetches the rules' code in batches, if batching is turned on. */
+   private SOAPRuleSweeper ruleSweeper = new SOAPRuleSweeper( this );
+   
+   /** Where the next batch of rules starts, in sortedRules. */
+   private int sweepPos = 0;
+   
+   /** Does a rule's code still need fetching for the first time? */
+   private boolean unfetchedRules = false;
+   
+   /** The maximum number of check results kept in the problem cache */
+   private static final int PROBLEM_CACHE_SIZE = 1000;
+   
+   /** 
+    * How long the licence and version are trusted for, in milliseconds, in
+    * case a change is missed. 
+    */
+   private static final long METADATA_LIFETIME = 10 * 60 * 1000;
+   
+   /** 
+    * Are the licence and version still valid? They only change when the ZXTM
+    * is re-licensed or upgraded, so they are fetched on the first update and
+    * after invalidateMetadata(), not on every update.
+    */
+   private volatile boolean metadataValid = false;
+   private long metadataTime = 0;
+   
+   /**
+    * The code data for this ZXTM's version, found when the version is. Read
+    * without the lock when checking rules, like metadataValid.
+    */
+   private volatile VersionCodeData codeData = null;
+   
+   /** The rules' execution statistics, and the sampler that fills them. */
+   private RuleStatistics statistics = new RuleStatistics();
+   private SOAPStatsSampler statsSampler = new SOAPStatsSampler( this, statistics );
+   
+   /** Which virtual servers use which rules, and the updater that fetches them. */
+   private RuleBindings bindings = new RuleBindings();
+   private SOAPBindingsUpdater bindingsUpdater = new SOAPBindingsUpdater( this, bindings );
+   
+   /** 
+    * The results of recent syntax checks, keyed by the fingerprint of the code
+    * that was checked. Saves asking ZXTM to check the same code again.
+    */
+   private ProblemCache problemCache = new ProblemCache();
+   
    // SOAP Interfaces
    protected VirtualServerPort_PortType vsInterface = null;
    protected CatalogRulePort_PortType ruleInterface = null;
    protected SystemMachineInfoPort_PortType infoInterface = null;
    protected SystemLicenseKeysPort_PortType licenceInterface = null;
-   protected SystemCachePort_PortType cacheInterface = null;
+   protected SystemStatsPort_PortType statsInterface = null;
+   
+   /** How rules are listed, fetched and stored, see getRuleBackend(). */
+   private RuleBackend ruleBackend = null;
+   
+   /** 
+    * Guards creation of the SOAP interfaces. This is separate from the ZXTM's
+    * own lock so that rules can make SOAP calls while the ZXTM is updating.
+    */
+   private final Object interfaceLock = new Object();
   
    /**
     * Create a SOAPZXTM with all the details required to connect to it over 
@@ -98,8 +168,8 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
       this.name = name;
       this.port = port;
       
-      // Create this ZXTM's updater thread
-      updater = new SOAPUpdater( name + ":" + port );
+      // Create this ZXTM's updater, run by the controller's shared scheduler
+      updater = new SOAPUpdater( parent.getUpdateScheduler(), this );
       
       if( disconnect ) {
          this.disconnected = disconnect;
@@ -111,8 +181,8 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
    }
    
    /**
-    * Start the updater thread. Must only be called once, and must be called
-    * for it to update asynchronously.
+    * Start updating this ZXTM in the background. Must only be called once,
+    * and must be called for it to update asynchronously.
     */
    public void startUpdater()
    {
@@ -151,16 +221,18 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
     * @return The interface to make SOAP calls with
     * @throws Exception If there was a problem creating the interface.
     */
-   public synchronized VirtualServerPort_PortType getVirtualServerInterface() throws Exception 
+   public VirtualServerPort_PortType getVirtualServerInterface() throws Exception 
    {      
-      if( vsInterface == null ) {
-         VirtualServerLocator vsl = new VirtualServerLocator();
-         vsl.setVirtualServerPortEndpointAddress( getSOAPAdminURL() );
-         vsInterface = vsl.getVirtualServerPort();
-         setUserNameAndPassword( vsInterface );
-      }
+      synchronized( interfaceLock ) {
+         if( vsInterface == null ) {
+            VirtualServerLocator vsl = new VirtualServerLocator( SOAPTransport.getEngineConfiguration() );
+            vsl.setVirtualServerPortEndpointAddress( getSOAPAdminURL() );
+            vsInterface = vsl.getVirtualServerPort();
+            setUserNameAndPassword( vsInterface );
+         }
       
-      return vsInterface;
+         return vsInterface;
+      }
    }
    
    /**
@@ -169,16 +241,18 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
     * @return The interface to make SOAP calls with
     * @throws ServiceException If there was a problem creating the interface.
     */
-   public synchronized CatalogRulePort_PortType getRuleInterface() throws ServiceException 
+   public CatalogRulePort_PortType getRuleInterface() throws ServiceException 
    {
-      if( ruleInterface == null ) {
-         CatalogRuleLocator rl = new CatalogRuleLocator();
-         rl.setCatalogRulePortEndpointAddress( getSOAPAdminURL() );
-         ruleInterface = rl.getCatalogRulePort();
-         setUserNameAndPassword( ruleInterface );        
-      }  
+      synchronized( interfaceLock ) {
+         if( ruleInterface == null ) {
+            CatalogRuleLocator rl = new CatalogRuleLocator( SOAPTransport.getEngineConfiguration() );
+            rl.setCatalogRulePortEndpointAddress( getSOAPAdminURL() );
+            ruleInterface = rl.getCatalogRulePort();
+            setUserNameAndPassword( ruleInterface );        
+         }  
       
-      return ruleInterface;
+         return ruleInterface;
+      }
    }
    
    /**
@@ -187,16 +261,18 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
     * @return The interface to make SOAP calls with
     * @throws Exception If there was a problem creating the interface.
     */
-   public synchronized SystemMachineInfoPort_PortType getMachineInfoInterface() throws Exception 
+   public SystemMachineInfoPort_PortType getMachineInfoInterface() throws Exception 
    {
-      if( infoInterface == null ) {
-         SystemMachineInfoLocator il = new SystemMachineInfoLocator();
-         il.setSystemMachineInfoPortEndpointAddress( getSOAPAdminURL() );
-         infoInterface = il.getSystemMachineInfoPort();
-         setUserNameAndPassword( infoInterface );        
-      }  
+      synchronized( interfaceLock ) {
+         if( infoInterface == null ) {
+            SystemMachineInfoLocator il = new SystemMachineInfoLocator( SOAPTransport.getEngineConfiguration() );
+            il.setSystemMachineInfoPortEndpointAddress( getSOAPAdminURL() );
+            infoInterface = il.getSystemMachineInfoPort();
+            setUserNameAndPassword( infoInterface );        
+         }  
       
-      return infoInterface;
+         return infoInterface;
+      }
    }
    
    /**
@@ -205,46 +281,101 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
     * @return The interface to make SOAP calls with
     * @throws Exception If there was a problem creating the interface.
     */
-   public synchronized SystemLicenseKeysPort_PortType getLicenceKeyInterface() throws Exception 
+   public SystemLicenseKeysPort_PortType getLicenceKeyInterface() throws Exception 
    {
-      if( licenceInterface == null ) {
-         SystemLicenseKeysLocator ll = new SystemLicenseKeysLocator();
-         ll.setSystemLicenseKeysPortEndpointAddress( getSOAPAdminURL() );
-         licenceInterface = ll.getSystemLicenseKeysPort();
-         setUserNameAndPassword( licenceInterface );
-      }  
+      synchronized( interfaceLock ) {
+         if( licenceInterface == null ) {
+            SystemLicenseKeysLocator ll = new SystemLicenseKeysLocator( SOAPTransport.getEngineConfiguration() );
+            ll.setSystemLicenseKeysPortEndpointAddress( getSOAPAdminURL() );
+            licenceInterface = ll.getSystemLicenseKeysPort();
+            setUserNameAndPassword( licenceInterface );
+         }  
       
-      return licenceInterface;
+         return licenceInterface;
+      }
    }
    
    /**
-    * Get the System.LicenceKeys interface. This method should always be called
+    * Get the System.Stats interface. This method should always be called
     * to use this interface, do not access it directly.
     * @return The interface to make SOAP calls with
     * @throws Exception If there was a problem creating the interface.
     */
-   public synchronized SystemCachePort_PortType getCacheInterface() throws Exception 
+   public SystemStatsPort_PortType getStatsInterface() throws Exception 
    {
-      if( cacheInterface == null ) {
-         SystemCacheLocator ll = new SystemCacheLocator();
-         ll.setSystemCachePortEndpointAddress( getSOAPAdminURL() );
-         cacheInterface = ll.getSystemCachePort();
-         setUserNameAndPassword( cacheInterface );
-      }  
+      synchronized( interfaceLock ) {
+         if( statsInterface == null ) {
+            SystemStatsLocator sl = new SystemStatsLocator( SOAPTransport.getEngineConfiguration() );
+            sl.setSystemStatsPortEndpointAddress( getSOAPAdminURL() );
+            statsInterface = sl.getSystemStatsPort();
+            setUserNameAndPassword( statsInterface );
+         }  
       
-      return cacheInterface;
+         return statsInterface;
+      }
+   }
+   
+   /**
+    * Get the backend used to list, fetch and store rules. This is the REST
+    * API if a REST port is set for this ZXTM, otherwise the Catalog.Rule SOAP
+    * interface. Everything else (syntax checks, renames, etc) always uses
+    * SOAP.
+    * @return The rule backend of this ZXTM.
+    */
+   public RuleBackend getRuleBackend()
+   {
+      synchronized( interfaceLock ) {
+         if( ruleBackend == null ) {
+            if( getRESTPort() > 0 ) {
+               ruleBackend = new RESTRuleBackend( 
+                  "https://" + name + ":" + getRESTPort(), user, pw 
+               );
+            } else {
+               ruleBackend = new SOAPRuleBackend( this );
+            }
+         }
+         
+         return ruleBackend;
+      }
+   }
+   
+   /**
+    * Set the REST API port, the rule backend is recreated to use it.
+    */
+   /* Override */
+   public void setRESTPort( int restPort )
+   {
+      super.setRESTPort( restPort );
+      resetSOAPInterfaces();
    }
    
    /**
     * Deletes all the SOAP interfaces, will be recreated next time they are 
-    * used.
+    * used. This is cheap, as connections are kept by the SOAPTransport rather
+    * than the interfaces.
     */
    private void resetSOAPInterfaces()
    {
-      ruleInterface = null;
-      vsInterface = null;
-      infoInterface = null;
-      licenceInterface = null;
+      synchronized( interfaceLock ) {
+         ruleInterface = null;
+         vsInterface = null;
+         infoInterface = null;
+         licenceInterface = null;
+         statsInterface = null;
+         ruleBackend = null;
+      }
+      
+      // We may now be talking to the ZXTM as someone else
+      invalidateMetadata();
+   }
+   
+   /**
+    * Forget the licence and version of the ZXTM, so they are fetched again on
+    * the next update. Called whenever we reconnect or log in differently.
+    */
+   private void invalidateMetadata()
+   {
+      metadataValid = false;
    }
          
    /**
@@ -277,6 +408,46 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
          return true;
       }
                
+      // The licence and version are cached, so usually only the rules are
+      // fetched.
+      if( !metadataValid || 
+          System.currentTimeMillis() - metadataTime > METADATA_LIFETIME ) 
+      {
+         updateMetadata();
+      }
+      
+      // Update the list of rules
+      updateRules();
+      
+      setModelState( State.UP_TO_DATE );
+      
+      // Fetch the next batch of rules' code, if it's time to
+      if( batched && ruleSweeper.isDue( unfetchedRules ) ) {
+         updater.add( ruleSweeper );
+      }
+      
+      // Sample the rule statistics separately, if it's time to
+      if( statsSampler.isDue() ) {
+         updater.add( statsSampler );
+      }
+      
+      // Likewise the virtual servers that use the rules
+      if( bindingsUpdater.isDue() ) {
+         updater.add( bindingsUpdater );
+      }
+              
+      return true;
+   }
+   
+   /**
+    * Fetch the ZXTM's licence and version. Throws an exception if the licence
+    * does not allow TrafficScript to be edited.
+    * @throws Exception If SOAP communications fail.
+    */
+   private synchronized void updateMetadata() throws Exception
+   {
+      ZDebug.print( 5, "Fetching licence and version of ", this );
+      
       try {
 	      // Check it can edit TrafficScript (Not an S?LB)
 	      SystemLicenseKeysPort_PortType licence = getLicenceKeyInterface();
@@ -302,39 +473,41 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
          ZDebug.print( 8 , e.getFaultReason() );
       }
       
-      // Update the list of rules
-      updateRules();
-      
       // Update the version information
       String versionString = getMachineInfoInterface().getProductVersion();
       String[] verParts = versionString.split( "[^\\d]+" );
+      int oldMajor = major, oldMinor = minor;
       major = Integer.parseInt( verParts[0] );
       minor = Integer.parseInt( verParts[1] );
-      ZDebug.print( 7, "ZXTM Version: ", major, ".", minor );
-      
       
-      // TODO Delete below!
+      // A different version may find different problems in the same code
+      if( major != oldMajor || minor != oldMinor ) {
+         synchronized( problemCache ) {
+            problemCache.clear();
+         }
+      }
+      ZDebug.print( 7, "ZXTM Version: ", major, ".", minor );
       
-      SystemCacheCacheContentInfo results = 
-         getCacheInterface().getCacheContent( SystemCacheProtocol.http, "*", "*", 100 );
+      codeData = ZXTMPlugin.getDefault().getTrafficScriptCodeData()
+         .getVersion( major, minor );
       
-      for( SystemCacheCacheContent item : results.getMatching_items() ) {
-         System.out.println( "Cache hits for '" + item.getPath() + "': " + item.getHits() );  
-      }      
-            
-      setModelState( State.UP_TO_DATE );
-              
-      return true;
+      metadataValid = true;
+      metadataTime = System.currentTimeMillis();
    }
    
    /**
     * Updates the rule listings, and creates new SOAPRule objects for any new
-    * rules on ZXTM.
+    * rules on ZXTM. Only the names of the rules are fetched here.
+    * 
+    * If the SOAP_BATCH_SIZE preference is set the code of the rules is 
+    * fetched a batch at a time by the SOAPRuleSweeper. Otherwise each rule is 
+    * added to the updater and fetches its own code.
     * @throws Exception If SOAP communications fail.
     */
    private synchronized void updateRules() throws Exception
    {
-      String[] rulesNames = getRuleInterface().getRuleNames();
+      String[] rulesNames = getRuleBackend().getRuleNames();
+      int batchSize = PreferenceManager.getPreferenceInt( Preference.SOAP_BATCH_SIZE );
       
       // Hash that will replace the old rules hash
       HashMap<String, SOAPRule> newRules = new HashMap<String, SOAPRule>();
@@ -349,7 +522,7 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
             SOAPRule newRule = new SOAPRule( this, ruleName );
             newRules.put( ruleName, newRule );
             addedRulesList.add( newRule );
-            newRule.updateFromZXTM();
+            if( batchSize == 0 ) newRule.updateFromZXTM();
          } else {
             newRules.put( ruleName, rules.get( ruleName ) );
          }
@@ -361,6 +534,7 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
             ZDebug.print( 5, "Rule ", ruleName, " deleted" );
             SOAPRule deletedRule = rules.get( ruleName );
             updater.remove( deletedRule );
+            deletedRule.deleted();
          }
       }
       
@@ -369,10 +543,182 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
       sortedRules = rules.values().toArray( new SOAPRule[rules.size()] );
       Arrays.sort( sortedRules );
       
+      if( batchSize > 0 ) {
+         // Rules that were being updated individually are now swept instead,
+         // apart from those open in an editor.
+         if( !batched ) {
+            for( SOAPRule rule : sortedRules ) {
+               if( !rule.isEditorOpen() ) updater.remove( rule );
+            }
+         }
+         
+         unfetchedRules = false;
+         for( SOAPRule rule : sortedRules ) {
+            if( !rule.hasCode() ) {
+               unfetchedRules = true;
+               break;
+            }
+         }
+         
+      } else if( batched ) {
+         // Batching has been turned off, each rule must update itself again.
+         updater.remove( ruleSweeper );
+         ruleSweeper.cancelled();
+         for( SOAPRule rule : sortedRules ) {
+            if( !addedRulesList.contains( rule ) ) updater.add( rule );
+         }
+      }
+      batched = ( batchSize > 0 );
+      
       // Update listeners with the new children
       for( SOAPRule rule : addedRulesList ) {
          updateListenersChild( rule );
+         if( !batched ) updater.add( rule );
+      }
+   }
+   
+   /**
+    * Fetch the code of the next batch of rules, for the SOAPRuleSweeper. 
+    * Rules whose code has never been fetched come first, then the batch 
+    * carries on around the rules from where the last one stopped.
+    * 
+    * The batch is chosen holding the ZXTM's lock, but the rules are fetched
+    * and checked without it, so the UI isn't held up by the network.
+    * @return The number of rules fetched.
+    * @throws Exception If SOAP communications fail.
+    */
+   int updateRuleBatch() throws Exception
+   {
+      int batchSize = PreferenceManager.getPreferenceInt( Preference.SOAP_BATCH_SIZE );
+      if( batchSize <= 0 ) return 0;
+      
+      SOAPRule[] batchList;
+      synchronized( this ) {
+         SOAPRule[] ruleList = sortedRules;
+         if( ruleList.length == 0 ) return 0;
+         
+         LinkedHashSet<SOAPRule> batch = new LinkedHashSet<SOAPRule>();
+         for( SOAPRule rule : ruleList ) {
+            if( batch.size() >= batchSize ) break;
+            if( !rule.hasCode() ) batch.add( rule );
+         }
+         
+         // Rules open in an editor update themselves, see editorOpenChanged()
+         int i = 0;
+         for( ; i < ruleList.length && batch.size() < batchSize; i++ ) {
+            SOAPRule rule = ruleList[( sweepPos + i ) % ruleList.length];
+            if( !rule.isEditorOpen() ) batch.add( rule );
+         }
+         sweepPos = ( sweepPos + i ) % ruleList.length;
+         
+         batchList = batch.toArray( new SOAPRule[batch.size()] );
+      }
+      
+      updateRuleDetails( batchList, batchSize );
+      return batchList.length;
+   }
+   
+   /**
+    * Should a rule be kept in the updater, rather than fetched by the 
+    * SOAPRuleSweeper? Rules open in an editor always are, so they get the
+    * updater's editor bonus and are fetched more often than the sweep.
+    * @param rule The rule to check.
+    * @return True if the rule should update itself.
+    */
+   boolean updatesIndividually( SOAPRule rule )
+   {
+      return !batched || rule.isEditorOpen();
+   }
+   
+   /**
+    * Called when a rule is opened or closed in an editor. Without batching 
+    * the rule is moved in the updater's queue. With batching an open rule is
+    * added to the updater, and a closed one goes back to the sweep.
+    * @param rule The rule that has been opened or closed.
+    */
+   void editorOpenChanged( SOAPRule rule )
+   {
+      if( !batched ) {
+         updater.reprioritise( rule );
+      } else if( rule.isEditorOpen() ) {
          updater.add( rule );
+      } else {
+         updater.remove( rule );
+      }
+   }
+   
+   /**
+    * Fetch the code of the passed rules from ZXTM, asking the rule backend
+    * for each batch of rules at once. Rules whose code has changed are then
+    * checked with a single checkSyntax call per batch.
+    * 
+    * The ZXTM's lock is only taken to store the results, so this can be 
+    * called without it. Rules that have been removed from the ZXTM in the 
+    * meantime (e.g. deleted, or cleared after an error) are left alone.
+    * @param ruleList The rules to update.
+    * @param batchSize The maximum number of rules to fetch in a single call.
+    * @throws Exception If SOAP communications fail.
+    */
+   private void updateRuleDetails( SOAPRule[] ruleList, int batchSize ) throws Exception
+   {
+      for( int start = 0; start < ruleList.length; start += batchSize ) {
+         int end = Math.min( ruleList.length, start + batchSize );
+         
+         String[] names = new String[end - start];
+         String[] tags = new String[end - start];
+         for( int i = start; i < end; i++ ) {
+            names[i - start] = ruleList[i].getName();
+            tags[i - start] = ruleList[i].getTag();
+         }
+         
+         ZDebug.print( 6, "Fetching rules ", start, " - ", end, " of ", ruleList.length );
+         
+         RuleText[] info;
+         try {
+            info = getRuleBackend().getRules( names, tags );
+         } catch( UnknownRuleException e ) {
+            // A rule has been deleted since we listed them, let each rule in 
+            // this batch sort itself out.
+            ZDebug.print( 5, "Rule in batch no longer exists, updating individually" );
+            for( int i = start; i < end; i++ ) {
+               ruleList[i].updateFromZXTM();
+            }
+            continue;
+         }
+         
+         // Store the new details, and collect the code that needs checking
+         boolean[] current = new boolean[names.length];
+         boolean[] changed = new boolean[names.length];
+         LinkedList<String> changedCode = new LinkedList<String>();
+         LinkedList<String> fingerprints = new LinkedList<String>();
+         synchronized( this ) {
+            for( int i = 0; i < names.length; i++ ) {
+               SOAPRule rule = ruleList[start + i];
+               current[i] = ( rules.get( names[i] ) == rule );
+               if( !current[i] ) continue;
+               
+               changed[i] = rule.setDetails( info[i] );
+               if( changed[i] ) {
+                  changedCode.add( rule.getTrafficScriptCode() );
+                  fingerprints.add( rule.getFingerprint() );
+               }
+            }
+         }
+         
+         RuleProblem[][] problems = checkTrafficScriptCode( 
+            changedCode.toArray( new String[changedCode.size()] ),
+            fingerprints.toArray( new String[fingerprints.size()] )
+         );
+         
+         synchronized( this ) {
+            int checked = 0;
+            for( int i = 0; i < names.length; i++ ) {
+               RuleProblem[] ruleProblems = changed[i] ? problems[checked++] : null;
+               if( current[i] && rules.get( names[i] ) == ruleList[start + i] ) {
+                  ruleList[start + i].updated( changed[i], ruleProblems );
+               }
+            }
+         }
       }
    }
 
@@ -390,6 +736,10 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
          // Invalidate children
          clearData();
          
+         // The ZXTM may be restarting after an upgrade, check it again when 
+         // it's back.
+         invalidateMetadata();
+         
          ModelException modelException = SOAPModelController.getModelException( this, e );
          
          // If there's a authorisation error ask the user for a new password.
@@ -402,6 +752,19 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
       return true;
    }
    
+   /**
+    * Check the ZXTM can be used with the current user-name and password, by
+    * listing its rules. The rules themselves are updated in the background,
+    * so this doesn't wait for their code to be fetched and checked.
+    * @throws Exception If the details are wrong, or SOAP communications fail.
+    */
+   private synchronized void checkLogin() throws Exception
+   {
+      if( !metadataValid ) updateMetadata();
+      getRuleBackend().getRuleNames();
+      updater.add( this );
+   }
+   
    /**
     * Set the password. This checks the password is valid and throws an 
     * exception if its not (or there was a problem communicating with the 
@@ -422,7 +785,7 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
       }
       
       try {
-         updateAndThrow();
+         checkLogin();
       } catch( Exception e ) {
          pw = oldPw;
          resetSOAPInterfaces();
@@ -452,7 +815,7 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
       }
       
       try {
-         updateAndThrow();
+         checkLogin();
       } catch( Exception e ) {
          user = oldUser;
          resetSOAPInterfaces();
@@ -484,7 +847,7 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
       }
       
       try {
-         updateAndThrow();
+         checkLogin();
       } catch( Exception e ) {
          user = oldUser;
          pw = oldPw;
@@ -505,14 +868,25 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
       name = name.trim();
       SOAPRule newRule = null;
       try {
-         getRuleInterface().addRule( new String[] { name }, new String[] { code } );
+         byte[] bytes = ZUtil.toUTF8( code );
+         getRuleBackend().addRule( name, code, bytes, bytes.length );
          
-         this.updateAndThrow();
-         if( this.getRule( name ) == null ) {
+         // Fetch just the new rule, the rest are updated in the background
+         if( rules.get( name ) != null ) return;
+         newRule = new SOAPRule( this, name );
+         newRule.updateFromZXTM();
+         if( newRule.getModelState() != State.UP_TO_DATE ) {
             throw new ModelException( this, ModelError.INTERNAL,
                ZLang.ZL_SOAPRuleAddSucceededButDoesNotExist
             );
          }
+         
+         rules.put( name, newRule );
+         sortedRules = rules.values().toArray( new SOAPRule[rules.size()] );
+         Arrays.sort( sortedRules );
+         
+         updateListenersChild( newRule );
+         if( !batched ) updater.add( newRule );
      
       } catch( Exception e ) {
          if( newRule != null ) updater.remove( newRule );
@@ -544,14 +918,16 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
             );
          }
          
-         getRuleInterface().deleteRule( new String[] { rule } );
+         getRuleBackend().deleteRule( rule );
          
-         this.updateAndThrow();
-         if( this.getRule( rule ) != null ) {
-            throw new ModelException( this, ModelError.INTERNAL,
-               ZLang.ZL_SOAPRuleDeleteSuccessButNotDeleted 
-            );
-         }
+         // Remove just the deleted rule, the backend has told us if the 
+         // delete failed.
+         SOAPRule deletedRule = rules.remove( rule );
+         sortedRules = rules.values().toArray( new SOAPRule[rules.size()] );
+         Arrays.sort( sortedRules );
+         
+         updater.remove( deletedRule );
+         deletedRule.deleted();
          
          this.updateListeners( Event.CHANGED );
          
@@ -590,6 +966,9 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
             rule.renamed( newName );
          }
          
+         // The ZXTM updates the virtual servers that use the rule
+         bindingsUpdater.invalidate();
+         
       } catch( Exception e ) {
          ZDebug.printStackTrace( e, "Rename rule failed - ", this );
          throw SOAPModelController.getModelException( this, e );
@@ -608,9 +987,17 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
       
       if( disconnected ) { 
          clearData();
+         updater.remove( statsSampler );
+         statsSampler.cancelled();
+         statistics.clear();
+         updater.remove( bindingsUpdater );
+         bindingsUpdater.cancelled();
+         bindingsUpdater.invalidate();
+         bindings.clear();
          this.setModelState( State.DISCONNECTED );     
          updater.remove( this );
       } else {
+         invalidateMetadata();
          this.setModelState( State.WAITING_FOR_FIRST_UPDATE );
          updater.add( this );
       }     
@@ -681,6 +1068,32 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
       return rules.get( name );
    }
    
+   /** Get the statistics sampled from this ZXTM */
+   /* Override */
+   public RuleStatistics getRuleStatistics()
+   {
+      return statistics;
+   }
+   
+   /** Get the number of SOAP calls made to this ZXTM and the time they took */
+   /* Override */
+   public String getCallTiming()
+   {
+      SOAPTransport.Timing timing = SOAPTransport.getTiming( name, port );
+      if( timing == null ) return null;
+      
+      return ZLang.bind( ZLang.ZL_ZXTMCallTiming, new Object[] {
+         timing.getCalls(), timing.getAverageTime(), timing.getMaxTime()
+      } );
+   }
+   
+   /** Get the virtual servers that use this ZXTM's rules */
+   /* Override */
+   public RuleBindings getRuleBindings()
+   {
+      return bindings;
+   }
+   
    /** Get this ZXTM's major version number */
    /* Override */
    public int getMajorVersion()
@@ -703,8 +1116,8 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
    }
       
    /** 
-    * This method should be called if the ZXTM is deleted. It stops the update 
-    * thread.
+    * This method should be called if the ZXTM is deleted. It stops this ZXTM
+    * being updated.
     */ 
    void deleted()
    {
@@ -725,9 +1138,12 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
       for( SOAPRule rule : sortedRules ) {
          updater.remove( rule );
       }
+      updater.remove( ruleSweeper );
+      ruleSweeper.cancelled();
       
       rules.clear();
       sortedRules = new SOAPRule[0];
+      sweepPos = 0;
    }
 
    /**
@@ -770,44 +1186,150 @@ public class SOAPZXTM extends ZXTM implements SOAPUpdatable
    /* Override */
    public RuleProblem[] checkTrafficScriptCode( String code )
    {
+      return checkTrafficScriptCode( new String[] { code }, null )[0];
+   }
+   
+   /**
+    * Check several pieces of code with a single SOAP call. Code that has been
+    * checked recently is not sent to ZXTM again, the previous result is used.
+    * Code the TrafficScriptChecker finds errors in is not sent either, its 
+    * problems are returned instead.
+    * @param codes The code of each rule to check.
+    * @param knownFingerprints The fingerprint of each piece of code if it is
+    * already known (e.g. from Rule.getFingerprint()), so the code isn't 
+    * hashed again. Null, or null entries, if not known.
+    * @return The problems found in each piece of code, in the same order as 
+    * the passed code.
+    */
+   public RuleProblem[][] checkTrafficScriptCode( String[] codes, String[] knownFingerprints )
+   {
+      RuleProblem[][] results = new RuleProblem[codes.length][];
+      
       if( getModelState() == State.DELETED ) {
          System.err.println( "Rule Still being used after deletion!" );
          Thread.dumpStack();
-         return new RuleProblem[0];
+         for( int i = 0; i < codes.length; i++ ) {
+            results[i] = new RuleProblem[0];
+         }
+         return results;
       }
       
-      try {
-         CatalogRuleSyntaxCheck[] errors = getRuleInterface().checkSyntax( 
-            new String[] { code } 
-         );
-         
-         if( errors.length != 1 ) { 
-            throw new IOException( ZLang.ZL_SOAPZXTMDidNotReturnCorrectNumberOfRules );
+      // Use the cached results for any code we have seen before
+      String[] fingerprints = new String[codes.length];
+      LinkedList<Integer> unchecked = new LinkedList<Integer>();
+      synchronized( problemCache ) {
+         for( int i = 0; i < codes.length; i++ ) {
+            fingerprints[i] = ( knownFingerprints != null && knownFingerprints[i] != null ) ?
+               knownFingerprints[i] : ZUtil.fingerprint( codes[i] );
+            results[i] = problemCache.get( fingerprints[i] );
+            if( results[i] == null ) {
+               unchecked.add( i );
+            }
          }
-         
-         CatalogRuleSyntaxCheck error = errors[0];      
-                                     
-         ZDebug.print( 4, "Errors:\n", error.getErrors()  );
-         ZDebug.print( 4, "Warnings:\n", error.getWarnings() );
-         
-         CodeLine[] lineStarts = CodeUtil.getAllLineAreas( code );
-         LinkedList<RuleProblem> list = new LinkedList<RuleProblem>();
-         
-         if( error.getErrors() != null ) {
-            processErrors( list, error.getErrors(), true, lineStarts );
-         }            
-         if( error.getWarnings() != null ) {
-            processErrors( list, error.getWarnings(), false, lineStarts );
+      }
+      
+      // Don't bother the ZXTM with code we know is broken
+      if( unchecked.size() > 0 ) {
+         VersionCodeData version = codeData;
+         if( version == null ) {
+            version = ZXTMPlugin.getDefault().getTrafficScriptCodeData()
+               .getVersion( getMajorVersion(), getMinorVersion() );
          }
          
-         return list.toArray( new RuleProblem[list.size()] );
-       
+         Iterator<Integer> iter = unchecked.iterator();
+         while( iter.hasNext() ) {
+            int i = iter.next();
+            RuleProblem[] local = TrafficScriptChecker.check( codes[i], version, this );
+            if( TrafficScriptChecker.hasErrors( local ) ) {
+               results[i] = local;
+               iter.remove();
+            }
+         }
+      }
+      
+      ZDebug.print( 5, "Checking ", unchecked.size(), " of ", codes.length, " rules" );
+      
+      if( unchecked.size() > 0 ) {
+         String[] toCheck = new String[unchecked.size()];
+         int j = 0;
+         for( int i : unchecked ) {
+            toCheck[j++] = codes[i];
+         }
          
-      } catch( Exception e ) {
-         ZDebug.printStackTrace( e, "Exception whilst checking code:\n", code, "\n" );
+         try {
+            CatalogRuleSyntaxCheck[] errors = getRuleInterface().checkSyntax( toCheck );
+            
+            if( errors.length != toCheck.length ) { 
+               throw new IOException( ZLang.ZL_SOAPZXTMDidNotReturnCorrectNumberOfRules );
+            }
+            
+            j = 0;
+            for( int i : unchecked ) {
+               CatalogRuleSyntaxCheck error = errors[j++];      
+                                           
+               ZDebug.print( 4, "Errors:\n", error.getErrors()  );
+               ZDebug.print( 4, "Warnings:\n", error.getWarnings() );
+               
+               LinkedList<RuleProblem> list = new LinkedList<RuleProblem>();
+               String errorText = error.getErrors();
+               String warningText = error.getWarnings();
+               
+               // Only work out the lines if there are problems to map to them
+               if( ( errorText != null && errorText.length() > 0 ) ||
+                   ( warningText != null && warningText.length() > 0 ) ) 
+               {
+                  CodeLine[] lineStarts = CodeUtil.getAllLineAreas( codes[i] );
+                  
+                  if( errorText != null ) {
+                     processErrors( list, errorText, true, lineStarts );
+                  }            
+                  if( warningText != null ) {
+                     processErrors( list, warningText, false, lineStarts );
+                  }
+               }
+               
+               results[i] = list.toArray( new RuleProblem[list.size()] );
+               
+               synchronized( problemCache ) {
+                  problemCache.put( fingerprints[i], results[i] );
+               }
+            }
+            
+         } catch( Exception e ) {
+            ZDebug.printStackTrace( e, "Exception whilst checking code:\n", 
+               ZUtil.join( "\n", toCheck ), "\n" 
+            );
+         }
+      }
+      
+      // Anything we could not check has no known problems
+      for( int i = 0; i < codes.length; i++ ) {
+         if( results[i] == null ) results[i] = new RuleProblem[0];
       }
       
-      return new RuleProblem[] {};  
+      return results;  
+   }
+   
+   /**
+    * Map of code fingerprints to the problems found in that code. Only the 
+    * most recently used results are kept.
+    */
+   private static class ProblemCache extends LinkedHashMap<String, RuleProblem[]>
+   {
+      private static final long serialVersionUID = 1L;
+
+      /** Create an empty cache, ordered by access. */
+      public ProblemCache()
+      {
+         super( 16, 0.75f, true );
+      }
+      
+      /** Remove the least recently used result once the cache is full. */
+      /* Override */
+      protected boolean removeEldestEntry( Map.Entry<String, RuleProblem[]> eldest )
+      {
+         return size() > PROBLEM_CACHE_SIZE;
+      }
    }
 
 }
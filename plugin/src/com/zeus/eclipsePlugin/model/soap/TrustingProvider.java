@@ -12,10 +12,15 @@
 
 package com.zeus.eclipsePlugin.model.soap;
 
+import java.io.IOException;
 import java.security.KeyStore;
 import java.security.Provider;
 import java.security.cert.X509Certificate;
+import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.ManagerFactoryParameters;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactorySpi;
 import javax.net.ssl.X509TrustManager;
@@ -27,6 +32,44 @@ public class TrustingProvider extends Provider
 {
 
    private static final long serialVersionUID = 1L;
+   
+   private static SSLSocketFactory socketFactory = null;
+   
+   /** Accepts any host name, as the certificates are not checked either. */
+   public static final HostnameVerifier ANY_HOST = new HostnameVerifier() {
+      /* Override */
+      public boolean verify( String host, SSLSession session )
+      {
+         return true;
+      }
+   };
+   
+   /**
+    * Get a socket factory that trusts all certificates, for connections to
+    * ZXTM admin servers. The same factory is always returned, so TLS sessions
+    * are cached and can be resumed by later connections.
+    * @return The shared socket factory.
+    * @throws IOException If the SSL context could not be created.
+    */
+   public static synchronized SSLSocketFactory getSocketFactory()
+      throws IOException
+   {
+      if( socketFactory == null ) {
+         try {
+            SSLContext context = SSLContext.getInstance( "TLS" );
+            context.init( null, new TrustManager[] {
+               new MyX509TrustManager()
+            }, null );
+            socketFactory = context.getSocketFactory();
+         } catch( Exception e ) {
+            IOException ioe = new IOException( "Could not create SSL context" );
+            ioe.initCause( e );
+            throw ioe;
+         }
+      }
+
+      return socketFactory;
+   }
 
    public TrustingProvider()
    {
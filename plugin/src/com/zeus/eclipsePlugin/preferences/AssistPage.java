@@ -17,6 +17,7 @@ import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Group;
+import org.eclipse.swt.widgets.Label;
 
 import com.zeus.eclipsePlugin.ZDebug;
 import com.zeus.eclipsePlugin.ZLang;
@@ -94,6 +95,26 @@ public class AssistPage extends ZXTMPreferencePage
          
          button.addSelectionListener( new SWTEnableListener( waitSet, button.getSelection(), button ) );         
       }
+      
+      SWTUtil.createBlankHorizontalFill( mainComposite, 5 );
+      
+      // Cost warning options
+      Group costGroup = SWTUtil.createGridLayoutGroup( mainComposite, ZLang.ZL_AssistCostWarnings, 3 );
+      SWTUtil.gridDataFillHorizontal( costGroup );
+      {
+         Label costText = SWTUtil.addLabel( costGroup, ZLang.ZL_AssistCostDescription );
+         SWTUtil.gridDataColSpan( costText, 3 );
+         SWTUtil.gridDataFillHorizontal( costText );
+         
+         Button button = addControlForPreference( Preference.COST_ENABLE, costGroup ).button();
+         SWTSet repeatSet = addControlForPreference( Preference.COST_REPEAT, costGroup );
+         SWTSet limitSet = addControlForPreference( Preference.COST_LIMIT, costGroup );
+         repeatSet.setEnabled( button.getSelection() );
+         limitSet.setEnabled( button.getSelection() );
+         
+         button.addSelectionListener( new SWTEnableListener( repeatSet, button.getSelection(), button ) );
+         button.addSelectionListener( new SWTEnableListener( limitSet, button.getSelection(), button ) );
+      }
             
       mainComposite.pack();
       mainComposite.layout();
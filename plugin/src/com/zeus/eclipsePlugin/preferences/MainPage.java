@@ -58,6 +58,22 @@ public class MainPage extends ZXTMPreferencePage
          SWTUtil.gridDataColSpan( text, 3 );
          SWTUtil.gridDataFillHorizontal( text );
          
+         addControlForPreference( Preference.SOAP_BATCH_SIZE, group );
+         
+         Label batchText = SWTUtil.addLabel( group, 
+            ZLang.ZL_MainSOAPBatchDescription 
+         );
+         SWTUtil.gridDataColSpan( batchText, 3 );
+         SWTUtil.gridDataFillHorizontal( batchText );
+         
+         addControlForPreference( Preference.STATS_RATE, group );
+         
+         Label statsText = SWTUtil.addLabel( group, 
+            ZLang.ZL_MainStatsDescription 
+         );
+         SWTUtil.gridDataColSpan( statsText, 3 );
+         SWTUtil.gridDataFillHorizontal( statsText );
+         
       }
       
       SWTUtil.createBlankHorizontalFill( mainComposite, 5 );
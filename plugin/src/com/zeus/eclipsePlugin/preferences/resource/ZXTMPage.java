@@ -76,9 +76,14 @@ public class ZXTMPage extends PropertyPage
       SWTUtil.gridDataFillHorizontal( mainComposite );
       SWTUtil.removeLayoutMargins( (GridLayout) mainComposite.getLayout() );
       
-      zxtmControl = new ZXTMControl( mainComposite, status, 
-         ZXTMProject.getZXTMForProject( project )
-      );
+      ZXTM zxtm = ZXTMProject.getZXTMForProject( project );
+      zxtmControl = new ZXTMControl( mainComposite, status, zxtm );
+      
+      // How responsive the ZXTM has been
+      String timing = ( zxtm == null ) ? null : zxtm.getCallTiming();
+      if( timing != null ) {
+         SWTUtil.gridDataFillCols( SWTUtil.addLabel( mainComposite, timing ), 2 );
+      }
       
       status.update();
       
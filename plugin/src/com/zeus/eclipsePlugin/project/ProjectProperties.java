@@ -52,6 +52,9 @@ public class ProjectProperties
    /** Key used to store the user-name for authentication */
    public static final String USERNAME_KEY = "Username";
    
+   /** Key used to store the REST API port, if rules should use the REST API */
+   public static final String REST_PORT_KEY = "RESTPort";
+   
    private HashMap<String,String> dataTable = new HashMap<String,String>();
    
    private IProject project = null;
@@ -166,6 +169,7 @@ public class ProjectProperties
          }
          
          out.close();
+         ZXTMProject.projectsChanged();
          
          if( project.isAccessible() ) {
             SWTUtil.progressBackground( new RefreshResourceOp( project, IResource.DEPTH_ONE ), false );
@@ -248,6 +252,16 @@ public class ProjectProperties
          ZDebug.print( 6, "ZXTM Name: CHANGED" );
       }
       
+      // REST API port, only stored if set so it is kept when the ZXTM changes
+      if( zxtm.getRESTPort() > 0 ) {
+         String zxtmRESTPort = "" + zxtm.getRESTPort();
+         if( !zxtmRESTPort.equals( get( ProjectProperties.REST_PORT_KEY ) ) ) {
+            changed = true;
+            set( ProjectProperties.REST_PORT_KEY, zxtmRESTPort );
+            ZDebug.print( 6, "ZXTM REST Port: CHANGED" );
+         }
+      }
+      
       // Password
       String password = get( ProjectProperties.CRYPT_KEY );
       
@@ -17,10 +17,14 @@ import java.util.HashMap;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IProjectNature;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IWorkspace;
 import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.Path;
 
 import com.zeus.eclipsePlugin.Encrypter;
 import com.zeus.eclipsePlugin.ZDebug;
@@ -43,6 +47,13 @@ public class ZXTMProject implements IProjectNature
    private static HashMap<String,ProjectProperties> properties = 
       new HashMap<String, ProjectProperties>();
    
+   /** The ZXTM projects, by "hostname:port", or null if out of date. */
+   private static volatile HashMap<String,IProject> projectIndex = null;
+   
+   /** Incremented whenever projects change, so old indexes aren't used. */
+   private static volatile int projectChanges = 0;
+   private static boolean listening = false;
+   
    /**
     * Configure function for the ZXTM nature. Currently does nothing.
     */
@@ -96,7 +107,8 @@ public class ZXTMProject implements IProjectNature
    }
    
    /**
-    * Find the project for the specified ZXTM
+    * Find the project for the specified ZXTM. Uses an index of the ZXTM 
+    * projects in the workspace, which is rebuilt when projects change.
     * @param name The hostname/IP address of the ZXTM
     * @param port The administration port of the ZXTM
     * @return The project for this ZXTM, or null if it doesn't exist.
@@ -105,44 +117,140 @@ public class ZXTMProject implements IProjectNature
    {      
       ZDebug.print( 4, "getProjectForZXTM( ", name, ", ", port, " )" );
       
+      HashMap<String,IProject> index = projectIndex;
+      if( index == null ) index = buildProjectIndex();
+      
+      IProject project = index.get( getIndexKey( name, port ) );
+      
+      // Project deleted, but we haven't heard about it yet
+      if( project != null && !project.exists() ) {
+         projectsChanged();
+         project = buildProjectIndex().get( getIndexKey( name, port ) );
+      }
+      
+      if( project == null ) ZDebug.print( 4, "Returning null!"  );
+      return project;
+   }
+   
+   /**
+    * Get the key for a ZXTM in the project index.
+    * @param name The hostname/IP address of the ZXTM
+    * @param port The administration port of the ZXTM
+    * @return The key for the index.
+    */
+   private static String getIndexKey( String name, int port )
+   {
+      return name.trim() + ":" + port;
+   }
+   
+   /**
+    * Mark the project index as out of date, so it is rebuilt the next time a
+    * project is looked up. This doesn't take any locks, so it is safe to call
+    * from resource change listeners.
+    */
+   public static void projectsChanged()
+   {
+      projectChanges++;
+      projectIndex = null;
+   }
+   
+   /**
+    * Go through the projects in the workspace and index the ZXTM projects by
+    * their ZXTM's hostname and port. Starts listening for resource changes so
+    * the index can be rebuilt when projects change.
+    * @return The new index.
+    */
+   private static HashMap<String,IProject> buildProjectIndex()
+   {
+      ZDebug.print( 4, "buildProjectIndex()" );
+      HashMap<String,IProject> index = new HashMap<String,IProject>();
+      int changes = projectChanges;
+      
       try {
          IWorkspace workspace = ResourcesPlugin.getWorkspace();
          IWorkspaceRoot root = workspace.getRoot();
          
+         synchronized( ZXTMProject.class ) {
+            if( !listening ) {
+               workspace.addResourceChangeListener( 
+                  new ProjectChangeListener(), IResourceChangeEvent.POST_CHANGE
+               );
+               listening = true;
+            }
+         }
+         
          ZDebug.print( 5, "Number of projects: ", root.getProjects().length );
          
          for( IProject project : root.getProjects() ) {
             ZDebug.print( 5, "Checking project '", project.getName(), "'"  );
             if( !project.exists() ) continue;
 
-            // Check if this is a ZXTM project
-            if( project.isAccessible() && !project.getDescription().hasNature( Ids.ZXTM_PROJECT_NATURE ) ) { 
-               ZDebug.print( 5, project.getName(), " is not a ZXTM project"  );
-               continue;
-            }
-            
-            ProjectProperties properties = getProjectProperties( project );
-            
-            String projName = properties.get( ProjectProperties.HOSTNAME_KEY );
-            ZDebug.print( 6, "Project stored hostname: ", projName  );
-             
-            if( projName != null ) {
-               String portString = properties.get( ProjectProperties.PORT_KEY );
-               int projPort = Integer.parseInt( portString );
-               ZDebug.print( 6, "Project stored port: ", projPort  );
+            try {
+               // Check if this is a ZXTM project
+               if( project.isAccessible() && !project.getDescription().hasNature( Ids.ZXTM_PROJECT_NATURE ) ) { 
+                  ZDebug.print( 5, project.getName(), " is not a ZXTM project"  );
+                  continue;
+               }
                
-               if( name.trim().equals( projName.trim() ) && projPort == port ) {
-                  return project;
-               }            
-            }      
+               ProjectProperties properties = getProjectProperties( project );
+               
+               String projName = properties.get( ProjectProperties.HOSTNAME_KEY );
+               ZDebug.print( 6, "Project stored hostname: ", projName  );
+                
+               if( projName != null ) {
+                  String portString = properties.get( ProjectProperties.PORT_KEY );
+                  int projPort = Integer.parseInt( portString );
+                  ZDebug.print( 6, "Project stored port: ", projPort  );
+                  
+                  String key = getIndexKey( projName, projPort );
+                  if( !index.containsKey( key ) ) {
+                     index.put( key, project );
+                  }
+               }
+            } catch( Exception e ) {
+               ZDebug.printStackTrace( e, "Failed to index project ", project.getName() );
+            }
          }
       } catch( Exception e ) {
-         ZDebug.printStackTrace( e, "Failed to get project for ZXTM ", name, ":", port );
+         ZDebug.printStackTrace( e, "Failed to index ZXTM projects" );
       }
       
-      ZDebug.print( 4, "Returning null!"  );
-      
-      return null;
+      // Only keep the index if nothing changed whilst we were building it
+      if( changes == projectChanges ) {
+         projectIndex = index;
+      }
+      return index;
+   }
+   
+   /**
+    * Listens for projects being added, removed, opened or closed, or having
+    * their ZXTM properties changed, and marks the project index as out of 
+    * date.
+    */
+   private static class ProjectChangeListener implements IResourceChangeListener
+   {
+      /* Override */
+      public void resourceChanged( IResourceChangeEvent event )
+      {
+         IResourceDelta delta = event.getDelta();
+         if( delta == null ) return;
+         
+         for( IResourceDelta projectDelta : delta.getAffectedChildren() ) {
+            int flags = IResourceDelta.OPEN | IResourceDelta.DESCRIPTION | 
+                        IResourceDelta.MOVED_FROM | IResourceDelta.MOVED_TO;
+            
+            if( projectDelta.getKind() != IResourceDelta.CHANGED ||
+                ( projectDelta.getFlags() & flags ) != 0 ||
+                projectDelta.findMember( 
+                   new Path( ProjectProperties.PROJECT_PROPERTIES_FILE ) 
+                ) != null )
+            {
+               ZDebug.print( 4, "Project changed: ", projectDelta.getResource() );
+               projectsChanged();
+               return;
+            }
+         }
+      }
    }
    
    /**
@@ -197,6 +305,15 @@ public class ZXTMProject implements IProjectNature
          // Create the ZXTM in the model if it was not found.    
          zxtm = model.forceAddZXTM( projName, projPort, user, password, !project.isAccessible() );
          if( password != null ) zxtm.setStorePassword( true );
+         
+         String restPort = properties.get( ProjectProperties.REST_PORT_KEY );
+         if( restPort != null ) {
+            try {
+               zxtm.setRESTPort( Integer.parseInt( restPort ) );
+            } catch( NumberFormatException e ) {
+               ZDebug.print( 3, "Invalid REST port for project ", project, ": ", restPort );
+            }
+         }
 
          return zxtm;
       }
@@ -23,11 +23,11 @@ import com.zeus.eclipsePlugin.ZLang;
 import com.zeus.eclipsePlugin.swt.EmptyMonitor;
 
 /**
- * Operation that refreshes a resource in eclipse.
+ * Operation that refreshes one or more resources in eclipse.
  */
 public class RefreshResourceOp extends WorkspaceModifyOperation
 {
-   private IResource resource;
+   private IResource[] resources;
    private int depth;
    
    /**
@@ -37,7 +37,18 @@ public class RefreshResourceOp extends WorkspaceModifyOperation
     */
    public RefreshResourceOp( IResource resource, int depth )
    {
-      this.resource = resource;
+      this( new IResource[] { resource }, depth );
+   }
+   
+   /**
+    * Setup an operation that refreshes several resources in one go.
+    * @param resources The resources to refresh
+    * @param depth The depth to refresh them (use the IResource.DEPTH_* 
+    * constants)
+    */
+   public RefreshResourceOp( IResource[] resources, int depth )
+   {
+      this.resources = resources;
       this.depth = depth;      
    }
 
@@ -49,12 +60,17 @@ public class RefreshResourceOp extends WorkspaceModifyOperation
       InvocationTargetException, InterruptedException
    {
       if( monitor == null ) monitor = new EmptyMonitor();
-      monitor.beginTask( ZLang.bind( ZLang.ZL_RefreshingResource, resource.getName() ), 1 );
+      monitor.beginTask( ZLang.bind( ZLang.ZL_RefreshingResource, 
+         resources[0].getName() ), resources.length 
+      );
       monitor.subTask( "" );
       
-      resource.refreshLocal( depth, monitor );
+      for( IResource resource : resources ) {
+         if( monitor.isCanceled() ) break;
+         resource.refreshLocal( depth, monitor );
+         monitor.worked( 1 );
+      }
       
-      monitor.worked( 1 );
       monitor.done();
    }
 
@@ -13,27 +13,41 @@
 package com.zeus.eclipsePlugin.zxtmview;
 
 import org.eclipse.core.resources.IProject;
+import org.eclipse.jface.viewers.IColorProvider;
 import org.eclipse.jface.viewers.ILabelProvider;
 import org.eclipse.jface.viewers.ILabelProviderListener;
+import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.RGB;
 
 import com.zeus.eclipsePlugin.ImageManager;
+import com.zeus.eclipsePlugin.ZLang;
 import com.zeus.eclipsePlugin.ZXTMPlugin;
+import com.zeus.eclipsePlugin.consts.Colour;
 import com.zeus.eclipsePlugin.consts.ImageFile;
 import com.zeus.eclipsePlugin.model.ModelElement;
 import com.zeus.eclipsePlugin.model.Rule;
 import com.zeus.eclipsePlugin.model.RuleProblem;
+import com.zeus.eclipsePlugin.model.RuleStatistics;
 import com.zeus.eclipsePlugin.model.ZXTM;
 import com.zeus.eclipsePlugin.model.ModelElement.Type;
+import com.zeus.eclipsePlugin.model.RuleStatistics.Counter;
 import com.zeus.eclipsePlugin.project.ZXTMProject;
 import com.zeus.eclipsePlugin.swt.AnimationTimer;
 
 /**
  * Interface between the Model and ZXTM Viewer for providing labels and icons
  * for each element in the viewers tree.
+ * 
+ * Rules are labelled with their current execution rate, and their background
+ * is shaded by how busy they are compared to the other rules on the ZXTM. 
+ * Both come from the ZXTM's RuleStatistics, so no SOAP calls are made.
  */
-public class ZXTMViewLabelProvider implements ILabelProvider
+public class ZXTMViewLabelProvider implements ILabelProvider, IColorProvider
 {
+   /** The number of shades used for the busiest rules. */
+   private static final int HEAT_LEVELS = 8;
+   
    private AnimationTimer timer;
    
    /**
@@ -122,7 +136,8 @@ public class ZXTMViewLabelProvider implements ILabelProvider
 
    /**
     * Get the label for the element. This defaults to using toString() unless 
-    * its a ZXTM, which also adds its project in brackets at the end.
+    * its a ZXTM, which also adds its project in brackets at the end, or a 
+    * rule that has been sampled, which adds its execution and abort rates.
     */
    /* Override */
    public String getText( Object element )
@@ -135,10 +150,80 @@ public class ZXTMViewLabelProvider implements ILabelProvider
          if( project != null ) {
             return element.toString() + " (" + project.getName() + ")";
          }
+         
+      } else if( modElement.getModelType() == Type.RULE ) {
+         Rule rule = (Rule) modElement;
+         RuleStatistics stats = getStatistics( rule );
+         float rate = stats.getRate( rule.getName(), Counter.EXECUTIONS );
+         if( Float.isNaN( rate ) ) return rule.getName();
+         
+         float aborts = stats.getRate( rule.getName(), Counter.ABORTS );
+         if( rate > 0 && aborts > 0 ) {
+            return ZLang.bind( ZLang.ZL_ViewerRuleRateAborts, new Object[] { 
+               rule.getName(), RuleStatistics.formatRate( rate ), 
+               Math.max( 1, Math.round( aborts * 100 / rate ) )
+            } );
+         }
+         
+         return ZLang.bind( ZLang.ZL_ViewerRuleRate, 
+            rule.getName(), RuleStatistics.formatRate( rate ) 
+         );
       }
       
       return element.toString();
    }
+   
+   /**
+    * Shade the background of rules by their execution rate. The rates are 
+    * compared on a log scale to the busiest rule on the same ZXTM, so a rule 
+    * that runs 50k times a second stands out from one that never runs.
+    */
+   /* Override */
+   public Color getBackground( Object element )
+   {
+      ModelElement modElement = (ModelElement) element;
+      if( modElement.getModelType() != Type.RULE ) return null;
+      
+      Rule rule = (Rule) modElement;
+      RuleStatistics stats = getStatistics( rule );
+      float rate = stats.getRate( rule.getName(), Counter.EXECUTIONS );
+      float max = stats.getMaxRate( Counter.EXECUTIONS );
+      if( !( rate > 0 ) || !( max > 0 ) ) return null;
+      
+      double heat = Math.log1p( rate ) / Math.log1p( max );
+      int level = (int) Math.ceil( Math.min( heat, 1 ) * HEAT_LEVELS );
+      
+      // Blend between white and the heat colour, using a fixed number of 
+      // levels so only a few colours are ever allocated.
+      RGB hot = Colour.STATS_HEAT.getRGB();
+      RGB cold = Colour.WHITE.getRGB();
+      RGB shade = new RGB( 
+         cold.red   + ( hot.red   - cold.red   ) * level / HEAT_LEVELS,
+         cold.green + ( hot.green - cold.green ) * level / HEAT_LEVELS,
+         cold.blue  + ( hot.blue  - cold.blue  ) * level / HEAT_LEVELS
+      );
+      
+      return ZXTMPlugin.getDefault().getColourManager().getLocalColor( shade );
+   }
+
+   /**
+    * The default foreground is always used.
+    */
+   /* Override */
+   public Color getForeground( Object element )
+   {
+      return null;
+   }
+   
+   /**
+    * Get the statistics of the ZXTM a rule belongs to.
+    * @param rule The rule to get the statistics for.
+    * @return The statistics of the rule's ZXTM.
+    */
+   private RuleStatistics getStatistics( Rule rule )
+   {
+      return ((ZXTM) rule.getModelParent()).getRuleStatistics();
+   }
 
    // The rest isn't implemented as its unneeded.
    /* Override */ public void addListener( ILabelProviderListener listener ) {}
@@ -13,6 +13,7 @@
 package com.zeus.eclipsePlugin.zxtmview;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.HashSet;
 import java.util.LinkedList;
 
 import org.eclipse.jface.action.GroupMarker;
@@ -54,6 +55,7 @@ import com.zeus.eclipsePlugin.model.ModelElement;
 import com.zeus.eclipsePlugin.model.ModelListener;
 import com.zeus.eclipsePlugin.model.ModelSelection;
 import com.zeus.eclipsePlugin.model.Rule;
+import com.zeus.eclipsePlugin.model.RuleStatistics;
 import com.zeus.eclipsePlugin.model.ZXTM;
 import com.zeus.eclipsePlugin.model.ModelElement.Event;
 import com.zeus.eclipsePlugin.model.ModelElement.State;
@@ -75,8 +77,20 @@ public class ZXTMViewer extends ViewPart
    private TreeViewer view;
    private ElementListener listener = new ElementListener();
    
+   /** Elements waiting for their first update, which show a spinner. */
+   private HashSet<ModelElement> waiting = new HashSet<ModelElement>();
+   
    private AnimationTimer timer = new AnimationTimer( 100 );
    
+   /** Statistics that have new samples, which are shown once per frame. */
+   private HashSet<RuleStatistics> sampled = new HashSet<RuleStatistics>();
+   private StatisticsListener statsListener = new StatisticsListener();
+   private int ticks = 0;
+   
+   /** How many animation ticks there are between updates of the rule 
+    * statistics, so busy ZXTMs can't flood the view with updates. */
+   private static final int STATS_FRAME_TICKS = 10;
+   
    private static RuleCopy[] ruleCopies;
    
    /**
@@ -116,9 +130,12 @@ public class ZXTMViewer extends ViewPart
       controller.addListener( listener );
       for( ZXTM zxtm : controller.getSortedZXTMs() ) {
          zxtm.addListener( listener );
+         zxtm.getRuleStatistics().addListener( statsListener );
+         setWaiting( zxtm, zxtm.getModelState() );
          
          for( Rule rule : zxtm.getRules() ) {
             rule.addListener( listener );
+            setWaiting( rule, rule.getModelState() );
          }
       }
       
@@ -160,6 +177,7 @@ public class ZXTMViewer extends ViewPart
       controller.removeListener( listener );
       for( ZXTM zxtm : controller.getSortedZXTMs() ) {
          zxtm.removeListener( listener );
+         zxtm.getRuleStatistics().removeListener( statsListener );
          
          for( Rule rule : zxtm.getRules() ) {
             rule.removeListener( listener );
@@ -303,71 +321,192 @@ public class ZXTMViewer extends ViewPart
    }
 
    /**
-    * This class listens to the model controller and refreshes the view when 
-    * something changes.
+    * Record whether an element is waiting for its first update, so its 
+    * spinner is animated.
+    * @param element The element whose state has changed.
+    * @param state The element's new state.
+    */
+   private void setWaiting( ModelElement element, State state )
+   {
+      synchronized( waiting ) {
+         if( state == State.WAITING_FOR_FIRST_UPDATE ) {
+            waiting.add( element );
+         } else {
+            waiting.remove( element );
+         }
+      }
+   }
+   
+   /**
+    * This class listens to the model and refreshes the parts of the view that
+    * have changed. Changes are queued and applied together in the SWT thread
+    * so model threads never wait for the UI.
     */
    private class ElementListener implements ModelListener, Runnable
    {
+      // Elements whose children have changed, and elements whose labels have
+      // changed. Only accessed whilst synchronized.
+      private HashSet<ModelElement> refresh = new HashSet<ModelElement>();
+      private HashSet<ModelElement> update = new HashSet<ModelElement>();
+      private boolean scheduled = false;
+      
       /* Override */
       public void modelUpdated( ModelElement element, Event event )
       {
-         SWTUtil.exec( this );
+         switch( event ) {
+            case DELETED: {
+               setWaiting( element, State.DELETED );
+               queue( element.getModelParent(), true );
+               break;
+            }
+            case RENAMED: {
+               queue( element.getModelParent(), true );
+               break;
+            }
+            case CHANGED: {
+               queue( element, element.getModelType() != ModelElement.Type.RULE );
+               break;
+            }
+         }
       }
       
       /* Override */
       public void childAdded( ModelElement parent, ModelElement child )
       {
          child.addListener( this );
-         SWTUtil.exec( this );         
+         if( child.getModelType() == ModelElement.Type.ZXTM ) {
+            ((ZXTM) child).getRuleStatistics().addListener( statsListener );
+         }
+         setWaiting( child, child.getModelState() );
+         queue( parent, true );
       }
       
       /* Override */
       public void stateChanged( ModelElement element, State state )
       {
-         SWTUtil.exec( this );         
+         setWaiting( element, state );
+         queue( element, element.getModelType() != ModelElement.Type.RULE );
+      }
+      
+      /**
+       * Queue a change to the view, and make sure it will be applied.
+       * @param element The element that has changed.
+       * @param children Have the element's children changed, or just its 
+       * label?
+       */
+      private void queue( ModelElement element, boolean children )
+      {
+         if( element == null ) return;
+         
+         synchronized( this ) {
+            if( children ) {
+               refresh.add( element );
+            } else {
+               update.add( element );
+            }
+            
+            if( scheduled ) return;
+            scheduled = true;
+         }
+         
+         SWTUtil.asyncExec( this );
       }
          
+      /**
+       * Apply the queued changes to the view. Run in the SWT thread.
+       */
       /* Override */
       public void run() {  
-         ZDebug.print( 5, "Refreshing ZXTM View due to update" );
+         ModelElement[] toRefresh, toUpdate;
+         synchronized( this ) {
+            toRefresh = refresh.toArray( new ModelElement[refresh.size()] );
+            toUpdate = update.toArray( new ModelElement[update.size()] );
+            refresh.clear();
+            update.clear();
+            scheduled = false;
+         }
+         
+         ZDebug.print( 5, "Updating ZXTM View - Refresh: ", toRefresh.length, 
+            " Update: ", toUpdate.length 
+         );
          if( view.getTree().isDisposed() ) return;
-         view.refresh( true );
+         
+         for( ModelElement element : toRefresh ) {
+            view.refresh( element, true );
+         }
+         if( toUpdate.length > 0 ) {
+            view.update( toUpdate, null );
+         }
       }
    }
    
    /**
-    * This is run by an animation timer to update the spinner animations. Also
-    * completely refreshes the view.
+    * Notes which ZXTMs have new rule statistics. The view is updated by the
+    * animation timer, as samples arrive from the model's update threads.
     */
-   private class UpdateAnimations implements Runnable
+   private class StatisticsListener implements RuleStatistics.Listener
    {
-      private ModelController model;
-
-      public UpdateAnimations()
+      /* Override */
+      public void statisticsUpdated( RuleStatistics stats )
       {
-         model = ZXTMPlugin.getDefault().getModelController();
+         synchronized( sampled ) {
+            sampled.add( stats );
+         }
       }
-
+   }
+   
+   /**
+    * Update the labels of the rules whose statistics have changed. Only the 
+    * cached statistics are read, the ZXTMs are never contacted.
+    */
+   private void updateStatistics()
+   {
+      HashSet<RuleStatistics> changed;
+      synchronized( sampled ) {
+         if( sampled.isEmpty() ) return;
+         changed = new HashSet<RuleStatistics>( sampled );
+         sampled.clear();
+      }
+      
+      LinkedList<Rule> rules = new LinkedList<Rule>();
+      for( ZXTM zxtm : controller.getSortedZXTMs() ) {
+         if( !changed.contains( zxtm.getRuleStatistics() ) ) continue;
+         
+         for( Rule rule : zxtm.getRules() ) {
+            rules.add( rule );
+         }
+      }
+      
+      ZDebug.print( 6, "Updating rule statistics in ZXTM View: ", rules.size() );
+      if( !rules.isEmpty() ) {
+         view.update( rules.toArray(), null );
+      }
+   }
+   
+   /**
+    * This is run by an animation timer to update the spinner animations of 
+    * the elements that are waiting for their first update. Every 
+    * STATS_FRAME_TICKS ticks it also shows any new rule statistics.
+    */
+   private class UpdateAnimations implements Runnable
+   {
       /* Override */
       public void run()
       {
          if( view.getTree().isDisposed() ) return;
          
-         if( timer.getTime() == 1 ) {
-            view.refresh( true );
-            return;
+         if( ++ticks >= STATS_FRAME_TICKS ) {
+            ticks = 0;
+            updateStatistics();
          }
          
-         for( ZXTM zxtm : model.getSortedZXTMs() ) {
-            if( zxtm.getModelState() == State.WAITING_FOR_FIRST_UPDATE ) {
-               view.refresh( zxtm, true );
-            }
-            for( Rule rule : zxtm.getRules() ) {
-               if( rule.getModelState() == State.WAITING_FOR_FIRST_UPDATE ) {
-                  view.refresh( rule, true );
-               }
-            }
+         ModelElement[] spinning;
+         synchronized( waiting ) {
+            if( waiting.isEmpty() ) return;
+            spinning = waiting.toArray( new ModelElement[waiting.size()] );
          }
+         
+         view.update( spinning, null );
       }
       
    }
@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * Copyright (C) 2015 Brocade Communications Systems, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * https://github.com/brocade/vTM-eclipse/LICENSE
+ * This software is distributed "AS IS".
+ *
+ * Contributors:
+ *     Brocade Communications Systems - Main Implementation
+ ******************************************************************************/
+
+package com.zeus.eclipsePlugin.model.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.TreeMap;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.zeus.eclipsePlugin.model.RuleBackend.RuleText;
+import com.zeus.eclipsePlugin.model.RuleBackend.UnknownRuleException;
+
+/**
+ * Checks the RESTRuleBackend against a stub of a ZXTM's REST API, served with
+ * the JDK's HTTP server. It is not part of the plug-in, run it with the
+ * plug-in's classes and libraries on the classpath:
+ *
+ *    java com.zeus.eclipsePlugin.model.rest.RESTRuleBackendStub
+ *
+ * Each check prints its result, and the exit status is 1 if any failed. The
+ * stub keeps its rules in memory, and uses a hash of each rule's text as its
+ * ETag.
+ */
+public class RESTRuleBackendStub implements HttpHandler
+{
+   private static final String AUTH = "Basic YWRtaW46cHc="; // admin:pw
+   private static final String RULES = "/api/tm/3.10/config/active/rules/";
+
+   private TreeMap<String,String> rules = new TreeMap<String,String>();
+   private HashSet<Integer> clientPorts = new HashSet<Integer>();
+   private int versionFailures = 0;
+   private int versionRequests = 0;
+   private int failures = 0;
+
+   public static void main( String[] args ) throws Exception
+   {
+      RESTRuleBackendStub stub = new RESTRuleBackendStub();
+      HttpServer server = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+      server.createContext( "/", stub );
+      server.start();
+
+      try {
+         stub.run( "http://localhost:" + server.getAddress().getPort() );
+      } finally {
+         server.stop( 0 );
+      }
+
+      System.out.println( stub.failures == 0 ? "All checks passed" :
+         stub.failures + " checks failed"
+      );
+      System.exit( stub.failures == 0 ? 0 : 1 );
+   }
+
+   /**
+    * Run the checks against the stub.
+    * @param base The URL of the stub, without a path.
+    */
+   private void run( String base ) throws Exception
+   {
+      rules.put( "my rule", "http.redirect( \"x\" );" );
+      rules.put( "b", "\u00e9" );
+
+      // The version list fails while the ZXTM starts, which must not pin the
+      // backend to the default version.
+      versionFailures = 1;
+      RESTRuleBackend backend = new RESTRuleBackend( base, "admin", "pw" );
+      try {
+         backend.getRuleNames();
+         check( "503 from the version list is reported", false );
+      } catch( RESTException e ) {
+         check( "503 from the version list is reported", e.getStatus() == 503 );
+      }
+
+      String[] names = backend.getRuleNames();
+      check( "Rule names listed using version 3.10",
+         names.length == 2 && names[0].equals( "b" ) && names[1].equals( "my rule" )
+      );
+
+      backend.getRuleNames();
+      check( "Version list only fetched until it succeeds", versionRequests == 2 );
+
+      RuleText[] texts = backend.getRules( new String[] { "b", "my rule" }, null );
+      check( "Rules fetched as UTF-8 with an ETag",
+         texts[0].getText().equals( "\u00e9" ) && texts[0].getTag() != null &&
+         texts[1].getText().equals( "http.redirect( \"x\" );" )
+      );
+
+      RuleText[] unchanged = backend.getRules( new String[] { "b", "my rule" },
+         new String[] { texts[0].getTag(), "\"stale\"" }
+      );
+      check( "Not modified rules are null", unchanged[0] == null && unchanged[1] != null );
+
+      String code = "new \u00e9";
+      byte[] utf8 = code.getBytes( "UTF-8" );
+      backend.setRule( "b", code, utf8, utf8.length );
+      RuleText[] changed = backend.getRules( new String[] { "b" },
+         new String[] { texts[0].getTag() }
+      );
+      check( "Stored rule fetched again", changed[0] != null &&
+         changed[0].getText().equals( "new \u00e9" )
+      );
+
+      backend.addRule( "c", "x", new byte[] { 'x' }, 1 );
+      try {
+         backend.addRule( "c", "x", new byte[] { 'x' }, 1 );
+         check( "Adding an existing rule fails", false );
+      } catch( RESTException e ) {
+         check( "Adding an existing rule fails", e.getStatus() == 412 );
+      }
+
+      backend.deleteRule( "c" );
+      try {
+         backend.deleteRule( "c" );
+         check( "Deleting a missing rule fails", false );
+      } catch( UnknownRuleException e ) {
+         check( "Deleting a missing rule fails", true );
+      }
+
+      try {
+         backend.getRules( new String[] { "missing" }, null );
+         check( "Fetching a missing rule fails", false );
+      } catch( UnknownRuleException e ) {
+         check( "Fetching a missing rule fails", true );
+      }
+
+      try {
+         new RESTRuleBackend( base, "admin", "wrong" ).getRuleNames();
+         check( "Bad login is reported", false );
+      } catch( RESTException e ) {
+         check( "Bad login is reported", e.getStatus() == 401 );
+      }
+
+      check( "Connections are re-used", clientPorts.size() <= 2 );
+   }
+
+   /**
+    * Print the result of a check.
+    */
+   private void check( String name, boolean passed )
+   {
+      System.out.println( ( passed ? "PASS " : "FAIL " ) + name );
+      if( !passed ) failures++;
+   }
+
+   /**
+    * Answer a request like a ZXTM's REST API.
+    */
+   /* Override */
+   public synchronized void handle( HttpExchange exchange ) throws IOException
+   {
+      clientPorts.add( exchange.getRemoteAddress().getPort() );
+
+      String path = exchange.getRequestURI().getPath();
+      String method = exchange.getRequestMethod();
+      byte[] request = readAll( exchange.getRequestBody() );
+
+      int status = 200;
+      String body = null;
+      if( !AUTH.equals( exchange.getRequestHeaders().getFirst( "Authorization" ) ) ) {
+         status = 401;
+         body = error( "Bad login" );
+
+      } else if( path.equals( "/api/tm/" ) ) {
+         versionRequests++;
+         if( versionFailures > 0 ) {
+            versionFailures--;
+            status = 503;
+            body = error( "Starting" );
+         } else {
+            body = "{\"children\":[{\"name\":\"1.0\"},{\"name\":\"3.10\"}," +
+               "{\"name\":\"3.9\"}]}";
+         }
+
+      } else if( path.equals( RULES ) ) {
+         StringBuffer list = new StringBuffer( "{\"children\":[" );
+         for( String name : rules.keySet() ) {
+            if( list.charAt( list.length() - 1 ) == '}' ) list.append( ',' );
+            list.append( "{\"name\":\"" ).append( name ).append( "\"}" );
+         }
+         body = list.append( "]}" ).toString();
+
+      } else if( path.startsWith( RULES ) ) {
+         String name = path.substring( RULES.length() );
+         String text = rules.get( name );
+         String ifNoneMatch = exchange.getRequestHeaders().getFirst( "If-None-Match" );
+
+         if( method.equals( "GET" ) ) {
+            if( text == null ) {
+               status = 404;
+               body = error( "No such rule" );
+            } else {
+               String etag = "\"" + text.hashCode() + "\"";
+               exchange.getResponseHeaders().add( "ETag", etag );
+               if( etag.equals( ifNoneMatch ) ) {
+                  status = 304;
+               } else {
+                  body = text;
+               }
+            }
+         } else if( method.equals( "PUT" ) ) {
+            if( text != null && "*".equals( ifNoneMatch ) ) {
+               status = 412;
+               body = error( "Rule exists" );
+            } else {
+               status = text == null ? 201 : 204;
+               rules.put( name, new String( request, "UTF-8" ) );
+            }
+         } else if( method.equals( "DELETE" ) ) {
+            if( rules.remove( name ) == null ) {
+               status = 404;
+               body = error( "No such rule" );
+            } else {
+               status = 204;
+            }
+         }
+
+      } else {
+         status = 404;
+         body = error( "Not found" );
+      }
+
+      byte[] out = body == null ? null : body.getBytes( "UTF-8" );
+      exchange.sendResponseHeaders( status, out == null ? -1 : out.length );
+      if( out != null ) exchange.getResponseBody().write( out );
+      exchange.close();
+   }
+
+   /**
+    * Build an error response, as the API describes them.
+    */
+   private static String error( String text )
+   {
+      return "{\"error_id\":\"stub\",\"error_text\":\"" + text + "\"}";
+   }
+
+   /**
+    * Read a stream to the end.
+    */
+   private static byte[] readAll( InputStream in ) throws IOException
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while( ( read = in.read( buffer ) ) != -1 ) {
+         bytes.write( buffer, 0, read );
+      }
+      return bytes.toByteArray();
+   }
+}